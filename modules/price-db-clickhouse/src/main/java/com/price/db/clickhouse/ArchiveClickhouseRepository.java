@@ -0,0 +1,149 @@
+package com.price.db.clickhouse;
+
+import com.price.common.archive.CandleArchive;
+import com.price.common.archive.CandleArchiveWriter;
+import com.price.common.config.DataBase;
+import com.price.common.db.ArchiveRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Repository;
+
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves closed monthly partitions older than {@link DataBase#archiveAfterDays()} to the cold archive.
+ * A month is exported, the archive manifest is advanced past it and only then the partition is dropped,
+ * so the month is readable from one of the tiers at all times.
+ */
+@Slf4j
+@Scope("prototype")
+@Repository
+public class ArchiveClickhouseRepository implements ArchiveRepository {
+    private static final String DATABASE_NAME = "prices_db";
+    private static final long DAY_MS = 24 * 3600 * 1000L;
+
+    public static final String QUERY_SELECT_PARTITIONS = "SELECT DISTINCT partition FROM system.parts " +
+            "WHERE database = '" + DATABASE_NAME + "' AND table = 'trade_candles' AND active";
+    public static final String QUERY_EXPORT_CANDLES = "SELECT instrument, timeframe_ms, time, open, high, low, close, volume " +
+            "FROM " + DATABASE_NAME + ".trade_candles FINAL " +
+            "WHERE time >= ? AND time < ? " +
+            "ORDER BY instrument, timeframe_ms, time";
+    public static final String QUERY_EXPORT_ROLLUPS = "SELECT instrument, timeframe_ms, time, argMinMerge(open) AS open, " +
+            "max(high) AS high, min(low) AS low, argMaxMerge(close) AS close, " +
+            ClickhouseRollups.VOLUME_MERGE + " AS volume " +
+            "FROM " + DATABASE_NAME + ".trade_candles_rollup " +
+            "WHERE time >= ? AND time < ? " +
+            "GROUP BY instrument, timeframe_ms, time " +
+            "ORDER BY instrument, timeframe_ms, time";
+
+    private final DataBase dataBase;
+    private final Path root;
+
+    public ArchiveClickhouseRepository(DataBase dataBase) {
+        this.dataBase = dataBase;
+        this.root = Path.of(dataBase.archivePath());
+        log.info("ClickHouse archive to {} after {} days", root.toAbsolutePath(), dataBase.archiveAfterDays());
+    }
+
+    @Override
+    public void archive() throws Exception {
+        long cutoff = System.currentTimeMillis() - dataBase.archiveAfterDays() * DAY_MS;
+        long archivedBefore = CandleArchive.readArchivedBefore(root);
+        try (Connection connection = DriverManager.getConnection(ClickhouseSchema.url(dataBase), dataBase.user(),
+                dataBase.password())) {
+            for (YearMonth month : closedMonths(connection, cutoff)) {
+                long from = CandleArchive.monthStart(month);
+                long to = CandleArchive.monthStart(month.plusMonths(1));
+                if (to <= archivedBefore) {
+                    // Rows written after the month was archived are not visible to queries, keep them for inspection
+                    log.warn("Partition {} received rows after it was archived, leaving it in ClickHouse", month);
+                    continue;
+                }
+                long rows = export(connection, QUERY_EXPORT_CANDLES, from, to, month);
+                if (dataBase.hasRollups()) {
+                    rows += export(connection, QUERY_EXPORT_ROLLUPS, from, to, month);
+                }
+                CandleArchive.writeArchivedBefore(root, to);
+                archivedBefore = to;
+                dropPartitions(connection, month);
+                log.info("Archived {} candles of {}", rows, month);
+            }
+        }
+    }
+
+    private List<YearMonth> closedMonths(Connection connection, long cutoff) throws SQLException {
+        List<YearMonth> months = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(QUERY_SELECT_PARTITIONS)) {
+            while (rs.next()) {
+                String partition = rs.getString(1);
+                if (!partition.matches("\\d{6}")) {
+                    log.warn("Skipping partition {} which is not a monthly partition", partition);
+                    continue;
+                }
+                YearMonth month = YearMonth.of(Integer.parseInt(partition.substring(0, 4)), Integer.parseInt(partition.substring(4)));
+                if (CandleArchive.monthStart(month.plusMonths(1)) <= cutoff) {
+                    months.add(month);
+                }
+            }
+        }
+        months.sort(null);
+        return months;
+    }
+
+    private long export(Connection connection, String query, long from, long to, YearMonth month) throws Exception {
+        long rows = 0;
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setLong(1, from);
+            stmt.setLong(2, to);
+            try (ResultSet rs = stmt.executeQuery()) {
+                CandleArchiveWriter writer = null;
+                String instrument = null;
+                int timeframe = 0;
+                try {
+                    while (rs.next()) {
+                        String rowInstrument = rs.getString(1);
+                        int rowTimeframe = rs.getInt(2);
+                        if (writer == null || rowTimeframe != timeframe || !rowInstrument.equals(instrument)) {
+                            if (writer != null) {
+                                writer.finish();
+                            }
+                            instrument = rowInstrument;
+                            timeframe = rowTimeframe;
+                            writer = new CandleArchiveWriter(CandleArchive.file(root, instrument, timeframe, month));
+                        }
+                        writer.append(rs.getLong(3), rs.getDouble(4), rs.getDouble(5),
+                                rs.getDouble(6), rs.getDouble(7), rs.getDouble(8));
+                        rows++;
+                    }
+                    if (writer != null) {
+                        writer.finish();
+                    }
+                } finally {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void dropPartitions(Connection connection, YearMonth month) throws SQLException {
+        String partition = String.format("%04d%02d", month.getYear(), month.getMonthValue());
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE " + DATABASE_NAME + ".trade_candles DROP PARTITION " + partition);
+            for (int timeframe : dataBase.rollupTimeframes()) {
+                stmt.execute("ALTER TABLE " + DATABASE_NAME + ".trade_candles_rollup DROP PARTITION (" + timeframe + ", " + partition + ")");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
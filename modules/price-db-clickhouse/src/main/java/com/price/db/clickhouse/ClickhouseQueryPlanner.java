@@ -0,0 +1,199 @@
+package com.price.db.clickhouse;
+
+import com.price.common.db.CandleSeries;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Splits ranges spanning many candles at the monthly partition boundaries of the candle tables and runs the
+ * parts in parallel, each on its own pooled connection. Parts are started oldest first and merged in time
+ * order, so the leading part is appended as soon as it is read while later ones are still running.
+ * <p>
+ * Parallel parts share {@code parallelism} permits across all queries. A query that gets none runs its next
+ * part on the calling thread, so it never holds more connections than an unsplit query, however many requests
+ * split at the same time.
+ */
+@Slf4j
+class ClickhouseQueryPlanner implements AutoCloseable {
+    // Below this many source rows one query is cheaper than the fan-out
+    static final long MIN_SPLIT_ROWS = 100_000;
+
+    @FunctionalInterface
+    interface PartQuery {
+        CandleSeries query(long fromTimestamp, long toTimestamp) throws Exception;
+    }
+
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param parallelism parts running in the background at the same time across all queries, the pool needs
+     *                    this many connections on top of those of the callers
+     */
+    ClickhouseQueryPlanner(int parallelism) {
+        this.permits = new Semaphore(Math.max(parallelism, 1));
+    }
+
+    /**
+     * Boundaries of the parts of [from, to): from, the UTC month starts in between and to. Ranges with fewer than
+     * {@link #MIN_SPLIT_ROWS} candles of the timeframe, or within one month, stay a single part.
+     */
+    static long[] split(int timeframeMs, long fromTimestamp, long toTimestamp) {
+        if (toTimestamp <= fromTimestamp || (toTimestamp - fromTimestamp) / Math.max(timeframeMs, 1) < MIN_SPLIT_ROWS) {
+            return new long[]{fromTimestamp, toTimestamp};
+        }
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(fromTimestamp);
+        LocalDate month = Instant.ofEpochMilli(fromTimestamp).atZone(ZoneOffset.UTC).toLocalDate()
+                .with(TemporalAdjusters.firstDayOfNextMonth());
+        long bound = month.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        while (bound < toTimestamp) {
+            bounds.add(bound);
+            month = month.plusMonths(1);
+            bound = month.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        }
+        bounds.add(toTimestamp);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Runs the part query for every pair of adjacent bounds and concatenates the results into a series of
+     * {@code bucketMs}. A bucket cut by a part boundary is folded back together by {@link CandleSeries#concat}.
+     * <p>
+     * Once a part failed no further part is started. Parts still running when the query fails are interrupted
+     * and waited for, so their connections and permits are back before the failure reaches the caller.
+     */
+    CandleSeries query(String instrument, int bucketMs, long[] bounds, int capacity, PartQuery part) throws Exception {
+        int parts = bounds.length - 1;
+        if (parts == 1) {
+            return part.query(bounds[0], bounds[1]);
+        }
+        log.debug("Splitting query for {} into {} parts", instrument, parts);
+        CandleSeries series = new CandleSeries(instrument, bucketMs, capacity);
+        AtomicBoolean failed = new AtomicBoolean();
+        Deque<Part> running = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < parts || !running.isEmpty()) {
+                while (next < parts && !failed.get() && permits.tryAcquire()) {
+                    // The permit may be the one a failing part just returned
+                    if (failed.get()) {
+                        permits.release();
+                        break;
+                    }
+                    running.add(start(new Part(part, bounds[next], bounds[next + 1], failed)));
+                    next++;
+                }
+                if (!running.isEmpty()) {
+                    // Stays running until read, an interrupted wait still cancels it
+                    series.concat(running.peek().result.get());
+                    running.poll();
+                } else {
+                    // Every permit is taken by other queries, continue on the connection of the caller
+                    series.concat(part.query(bounds[next], bounds[next + 1]));
+                    next++;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            cancel(running);
+        }
+        return series;
+    }
+
+    private Part start(Part part) {
+        try {
+            executor.execute(part);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return part;
+    }
+
+    /**
+     * Interrupts the parts and waits until each has returned its permit. An interrupt of the caller is kept for
+     * after the wait.
+     */
+    private static void cancel(Deque<Part> running) {
+        running.forEach(part -> part.result.cancel(true));
+        boolean interrupted = false;
+        for (Part part : running) {
+            while (true) {
+                try {
+                    part.finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Permits not taken by a running part.
+     */
+    int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A part holding a permit. The permit is returned, and a failure flagged, before the result is published. Every
+     * executor thread runs its task, so a part cancelled before it started returns the permit without querying.
+     */
+    private final class Part implements Runnable {
+        private final FutureTask<CandleSeries> result;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean queried;
+
+        Part(PartQuery query, long fromTimestamp, long toTimestamp, AtomicBoolean failed) {
+            this.result = new FutureTask<>(() -> {
+                queried = true;
+                try {
+                    return query.query(fromTimestamp, toTimestamp);
+                } catch (Exception e) {
+                    failed.set(true);
+                    throw e;
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.run();
+            } finally {
+                if (!queried) {
+                    permits.release();
+                }
+                finished.countDown();
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.price.db.clickhouse;
 
+import com.price.common.config.DataBase;
+import com.price.common.db.ArchiveRepository;
 import com.price.common.db.QueryRepository;
 import com.price.common.db.RepositoryRegistry;
 import com.price.common.db.RepositoryContainer;
@@ -27,4 +29,14 @@ public class ClickhouseRegistry implements RepositoryRegistry {
     public Class<? extends QueryRepository> getQueryRepositoryClass() {
         return QueryClickhouseRepository.class;
     }
+
+    @Override
+    public void prepare(DataBase dataBase) {
+        ClickhouseSchema.prepare(dataBase);
+    }
+
+    @Override
+    public Class<? extends ArchiveRepository> getArchiveRepositoryClass() {
+        return ArchiveClickhouseRepository.class;
+    }
 }
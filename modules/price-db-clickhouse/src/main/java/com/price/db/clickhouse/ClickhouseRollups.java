@@ -0,0 +1,148 @@
+package com.price.db.clickhouse;
+
+import com.price.common.config.DataBase;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Higher timeframes computed inside ClickHouse. Only the base timeframe is inserted from Java;
+ * one materialized view per rolled-up timeframe folds base candles into an AggregatingMergeTree.
+ * <p>
+ * The views see every insert, including base candles written again after a restart that trade_candles later
+ * deduplicates. Volume is therefore kept per base candle, as a map from its time to the largest volume seen,
+ * and only summed when read: a candle's volume only grows while it is open, so its largest version is the
+ * final one and a re-insert is counted once.
+ */
+@Slf4j
+class ClickhouseRollups {
+    private static final String DATABASE_NAME = "prices_db";
+    private static final String ROLLUP_TABLE = DATABASE_NAME + ".trade_candles_rollup";
+    private static final String ROLLUP_SCHEMA_RESOURCE = "/clickhouse/rollup.sql";
+    private static final String VIEW_PREFIX = "trade_candles_rollup_mv_";
+    private static final String VOLUME_TYPE = "AggregateFunction(maxMap, Array(UInt64), Array(Float64))";
+
+    // Sum of the per base candle volumes
+    static final String VOLUME_MERGE = "arraySum(tupleElement(maxMapMerge(volume), 2))";
+
+    static final String SELECT_ROLLUP_CANDLES = "SELECT time, argMinMerge(open) AS open, " +
+            "max(high) AS high, min(low) AS low, argMaxMerge(close) AS close, " + VOLUME_MERGE + " AS volume " +
+            "FROM " + ROLLUP_TABLE + " " +
+            "WHERE instrument = ? AND timeframe_ms = ? " +
+            "  AND time >= ? " +
+            "  AND time < ? " +
+            "GROUP BY time ";
+
+    public static final String QUERY_SELECT_ROLLUP_CANDLES = SELECT_ROLLUP_CANDLES + "ORDER BY time ASC";
+
+    // The inner select keeps the raw candle time as ts, so argMin/argMax are not resolved against the bucket alias
+    private static final String ROLLUP_SELECT = "SELECT instrument, toUInt32(%1$d) AS timeframe_ms, bucket AS time, " +
+            "argMinState(open, ts) AS open, max(high) AS high, min(low) AS low, " +
+            "argMaxState(close, ts) AS close, maxMapState([ts], [volume]) AS volume " +
+            "FROM (SELECT instrument, intDiv(time, %1$d) * %1$d AS bucket, time AS ts, open, high, low, close, volume " +
+            "      FROM " + DATABASE_NAME + ".trade_candles WHERE timeframe_ms = %2$d) " +
+            "GROUP BY instrument, bucket";
+
+    private final int baseTimeframe;
+    private final int[] timeframes;
+
+    ClickhouseRollups(DataBase dataBase) {
+        this.baseTimeframe = dataBase.rollupBaseTimeframe();
+        this.timeframes = dataBase.rollupTimeframes();
+        if (baseTimeframe <= 0) {
+            throw new IllegalArgumentException("Invalid rollup base timeframe: " + dataBase.rollupBase());
+        }
+        for (int timeframe : timeframes) {
+            if (timeframe <= baseTimeframe || timeframe % baseTimeframe != 0) {
+                throw new IllegalArgumentException("Rollup timeframe " + timeframe +
+                        "ms must be a multiple of the base timeframe " + baseTimeframe + "ms");
+            }
+        }
+    }
+
+    void createViews(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            dropOutdatedRollups(stmt);
+            stmt.execute(loadResource(ROLLUP_SCHEMA_RESOURCE));
+            for (int timeframe : timeframes) {
+                String view = VIEW_PREFIX + timeframe;
+                if (viewExists(stmt, view)) {
+                    log.info("Rollup view {} already exists", view);
+                    continue;
+                }
+                boolean empty = isEmpty(stmt, timeframe);
+                stmt.execute("CREATE MATERIALIZED VIEW IF NOT EXISTS " + DATABASE_NAME + "." + view +
+                        " TO " + ROLLUP_TABLE + " AS " + rollupSelect(timeframe));
+                if (empty) {
+                    // New timeframe: fill it from the already stored base candles. Base candles the view also
+                    // picked up while this runs merge with the backfilled ones, every column is idempotent.
+                    log.info("Backfilling rollup {}ms from base timeframe {}ms", timeframe, baseTimeframe);
+                    stmt.execute("INSERT INTO " + ROLLUP_TABLE + " " + rollupSelect(timeframe));
+                }
+                log.info("Rollup view {} created", view);
+            }
+        }
+    }
+
+    String rollupSelect(int timeframe) {
+        return String.format(ROLLUP_SELECT, timeframe, baseTimeframe);
+    }
+
+    /**
+     * A rollup table summing volume over every insert is dropped with its views. Rollups only hold data derived
+     * from the base candles, so they are rebuilt by the backfill.
+     */
+    private void dropOutdatedRollups(Statement stmt) throws SQLException {
+        String volumeType;
+        try (ResultSet rs = stmt.executeQuery("SELECT type FROM system.columns WHERE database = '" + DATABASE_NAME +
+                "' AND table = 'trade_candles_rollup' AND name = 'volume'")) {
+            if (!rs.next() || VOLUME_TYPE.equals(volumeType = rs.getString(1))) {
+                return;
+            }
+        }
+        log.warn("Rollup volume is {}, rebuilding the rollups from the base candles", volumeType);
+        List<String> views = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT name FROM system.tables WHERE database = '" + DATABASE_NAME +
+                "' AND name LIKE '" + VIEW_PREFIX + "%'")) {
+            while (rs.next()) {
+                views.add(rs.getString(1));
+            }
+        }
+        for (String view : views) {
+            stmt.execute("DROP VIEW IF EXISTS " + DATABASE_NAME + "." + view);
+        }
+        stmt.execute("DROP TABLE IF EXISTS " + ROLLUP_TABLE);
+    }
+
+    private boolean isEmpty(Statement stmt, int timeframe) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT count() FROM " + ROLLUP_TABLE + " WHERE timeframe_ms = " + timeframe)) {
+            return rs.next() && rs.getLong(1) == 0;
+        }
+    }
+
+    private boolean viewExists(Statement stmt, String view) throws SQLException {
+        String checkQuery = "SELECT count() FROM system.tables WHERE database = '" + DATABASE_NAME + "' AND name = '" + view + "'";
+        try (ResultSet rs = stmt.executeQuery(checkQuery)) {
+            return rs.next() && rs.getInt(1) > 0;
+        }
+    }
+
+    private String loadResource(String resource) {
+        try (InputStream is = getClass().getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new RuntimeException("Schema resource not found: " + resource);
+            }
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load schema from resource: " + resource, e);
+        }
+    }
+}
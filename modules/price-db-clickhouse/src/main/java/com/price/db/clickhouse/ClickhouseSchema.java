@@ -0,0 +1,67 @@
+package com.price.db.clickhouse;
+
+import com.price.common.config.DataBase;
+import com.price.db.clickhouse.migration.SchemaMigrator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.*;
+
+/**
+ * Database, tables and rollup views of a ClickHouse {@link DataBase}. Prepared once per database before its
+ * writers connect, so migrations and view creation don't run once per writer.
+ */
+@Slf4j
+final class ClickhouseSchema {
+    private static final String DATABASE_NAME = "prices_db";
+
+    public static final String QUERY_CREATE_DB = "CREATE DATABASE " + DATABASE_NAME;
+
+    private ClickhouseSchema() {
+    }
+
+    /**
+     * Server URL of the database with compression disabled to avoid LZ4 issues.
+     */
+    static String url(DataBase dataBase) {
+        String baseUrl = dataBase.url();
+        return baseUrl + (baseUrl.contains("?") ? "&compress=0" : "?compress=0");
+    }
+
+    static void prepare(DataBase dataBase) {
+        String url = url(dataBase);
+        try {
+            // First connect without specifying a database to check/create it
+            try (Connection connection = DriverManager.getConnection(url, dataBase.user(), dataBase.password())) {
+                createDatabaseIfNotExists(connection);
+            }
+            try (Connection connection = DriverManager.getConnection(url + "/" + DATABASE_NAME,
+                    dataBase.user(), dataBase.password())) {
+                // Create or evolve tables through versioned migrations
+                new SchemaMigrator(connection).migrate();
+
+                // Higher timeframes are rolled up by ClickHouse from the base timeframe
+                if (dataBase.hasRollups()) {
+                    new ClickhouseRollups(dataBase).createViews(connection);
+                }
+            }
+            log.info("ClickHouse schema of {} is up to date", url);
+        } catch (SQLException e) {
+            log.error("Failed to prepare ClickHouse schema", e);
+            throw new RuntimeException("Failed to prepare ClickHouse schema", e);
+        }
+    }
+
+    private static void createDatabaseIfNotExists(Connection conn) throws SQLException {
+        String checkQuery = "SELECT count() FROM system.databases WHERE name = '" + DATABASE_NAME + "'";
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(checkQuery)) {
+            if (rs.next() && rs.getInt(1) == 0) {
+                log.info("Database {} does not exist, creating it", DATABASE_NAME);
+                stmt.execute(QUERY_CREATE_DB);
+                log.info("Database {} created successfully", DATABASE_NAME);
+            } else {
+                log.info("Database {} already exists", DATABASE_NAME);
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.price.db.clickhouse;
 
 import com.price.common.config.DataBase;
 import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import lombok.extern.slf4j.Slf4j;
@@ -12,7 +13,6 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 
 @Slf4j
@@ -21,17 +21,46 @@ import java.util.List;
 public class QueryClickhouseRepository implements com.price.common.db.QueryRepository {
     private static final String DATABASE_NAME = "prices_db";
 
-    public static final String QUERY_SELECT_CANDLES = "SELECT time, open, high, low, close, volume " +
+    private static final String SELECT_CANDLES = "SELECT time, open, high, low, close, volume " +
             "FROM " + DATABASE_NAME + ".trade_candles " +
             "WHERE instrument = ? AND timeframe_ms = ? " +
             "  AND time >= ? " +
-            "  AND time < ? " +
-            "ORDER BY time ASC";
+            "  AND time < ? ";
 
+    public static final String QUERY_SELECT_CANDLES = SELECT_CANDLES + "ORDER BY time ASC";
+
+    // Page of a select above, %1$s is the direction and %2$d the row limit. The sorting key ends with time,
+    // so ClickHouse reads in order in either direction and stops after the limit
+    private static final String PAGE_SUFFIX = "ORDER BY time %1$s LIMIT %2$d";
+
+    // Raw candles may still hold unmerged duplicates, which would be counted twice in an aggregate
+    private static final String SELECT_CANDLES_FINAL = "SELECT time, open, high, low, close, volume " +
+            "FROM " + DATABASE_NAME + ".trade_candles FINAL " +
+            "WHERE instrument = ? AND timeframe_ms = ? " +
+            "  AND time >= ? " +
+            "  AND time < ?";
+
+    // Folds the inner select into buckets, %1$d is the bucket size in ms, %2$s the inner select
+    private static final String QUERY_SELECT_AGGREGATED_CANDLES = "SELECT intDiv(time, %1$d) * %1$d AS bucket, " +
+            "argMin(open, time) AS o, max(high) AS h, min(low) AS l, argMax(close, time) AS c, sum(volume) AS v " +
+            "FROM (%2$s) " +
+            "GROUP BY bucket " +
+            "ORDER BY bucket ASC";
+
+    private static final int MAX_PREALLOCATED_ROWS = 1 << 16;
+    // Connections of the calling threads, each query holds at most one of them
+    private static final int MAX_POOL_SIZE = 10;
+    // Parts of split queries running in the background at once, across all queries. The pool has a connection
+    // for each of them on top of MAX_POOL_SIZE, so a fan-out never waits for a connection a caller holds
+    private static final int PARALLEL_PARTS = 4;
+
+    private final DataBase dataBase;
     private final HikariDataSource dataSource;
+    private final ClickhouseQueryPlanner planner = new ClickhouseQueryPlanner(PARALLEL_PARTS);
 
     public QueryClickhouseRepository(DataBase dataBase) {
         log.info("ClickHouseRepository configured for database: {}", DATABASE_NAME);
+        this.dataBase = dataBase;
 
         // Append database name to URL (same pattern as price-stream)
         String baseUrl = dataBase.url();
@@ -42,7 +71,7 @@ public class QueryClickhouseRepository implements com.price.common.db.QueryRepos
         config.setUsername(dataBase.user());
         config.setPassword(dataBase.password());
         config.setDriverClassName("com.clickhouse.jdbc.ClickHouseDriver");
-        config.setMaximumPoolSize(10); // Example size
+        config.setMaximumPoolSize(MAX_POOL_SIZE + PARALLEL_PARTS);
         config.setMinimumIdle(2);     // Example idle connections
         config.setIdleTimeout(600000); // 10 minutes
         config.setConnectionTimeout(30000); // 30 seconds
@@ -56,29 +85,77 @@ public class QueryClickhouseRepository implements com.price.common.db.QueryRepos
 
     @Override
     public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
-        List<Candle> candles = new ArrayList<>();
-        try (PreparedStatement stmt = getConnection().prepareStatement(QUERY_SELECT_CANDLES)) {
+        return querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp).toCandles();
+    }
+
+    @Override
+    public CandleSeries querySeries(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        // Rolled-up timeframes are not inserted from Java, they live in the materialized view target
+        String query = dataBase.isRollup(timeframeMs) ? ClickhouseRollups.QUERY_SELECT_ROLLUP_CANDLES : QUERY_SELECT_CANDLES;
+        long[] bounds = ClickhouseQueryPlanner.split(timeframeMs, fromTimestamp, toTimestamp);
+        return planner.query(instrument, timeframeMs, bounds, estimateRows(timeframeMs, fromTimestamp, toTimestamp), (from, to) -> {
+            CandleSeries series = new CandleSeries(instrument, timeframeMs, estimateRows(timeframeMs, from, to));
+            select(query, series, instrument, timeframeMs, from, to);
+            return series;
+        });
+    }
+
+    @Override
+    public CandleSeries queryAggregated(String instrument, int timeframeMs, int bucketMs,
+                                        long fromTimestamp, long toTimestamp) throws Exception {
+        String source = dataBase.isRollup(timeframeMs) ? ClickhouseRollups.QUERY_SELECT_ROLLUP_CANDLES : SELECT_CANDLES_FINAL;
+        String query = QUERY_SELECT_AGGREGATED_CANDLES.formatted(bucketMs, source);
+        // Split by the rows scanned, a bucket cut at a month start is folded back when the parts are merged
+        long[] bounds = ClickhouseQueryPlanner.split(timeframeMs, fromTimestamp, toTimestamp);
+        return planner.query(instrument, bucketMs, bounds, estimateRows(bucketMs, fromTimestamp, toTimestamp), (from, to) -> {
+            CandleSeries series = new CandleSeries(instrument, bucketMs, estimateRows(bucketMs, from, to));
+            select(query, series, instrument, timeframeMs, from, to);
+            return series;
+        });
+    }
+
+    @Override
+    public CandleSeries queryPage(String instrument, int timeframeMs, int bucketMs,
+                                  long fromTimestamp, long toTimestamp, int limit, boolean newest) throws Exception {
+        if (bucketMs != timeframeMs) {
+            // An aggregate has to see every row of a bucket, the windowed scan keeps it to about one page
+            return com.price.common.db.QueryRepository.super.queryPage(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp, limit, newest);
+        }
+        String select = dataBase.isRollup(timeframeMs) ? ClickhouseRollups.SELECT_ROLLUP_CANDLES : SELECT_CANDLES;
+        String query = select + PAGE_SUFFIX.formatted(newest ? "DESC" : "ASC", limit);
+        CandleSeries series = new CandleSeries(instrument, timeframeMs, Math.min(limit, MAX_PREALLOCATED_ROWS));
+        select(query, series, instrument, timeframeMs, fromTimestamp, toTimestamp);
+        if (newest) {
+            series.reverse();
+        }
+        return series;
+    }
+
+    /**
+     * Runs a query selecting time, open, high, low, close, volume in this order and appends the rows to the series.
+     */
+    private void select(String query, CandleSeries series, String instrument, int timeframeMs,
+                        long fromTimestamp, long toTimestamp) throws SQLException {
+        try (Connection connection = getConnection();
+             PreparedStatement stmt = connection.prepareStatement(query)) {
             stmt.setString(1, instrument);
             stmt.setInt(2, timeframeMs);
             stmt.setLong(3, fromTimestamp);
             stmt.setLong(4, toTimestamp);
 
             log.debug("Executing query: {} with params: instrument={}, timeframeMs={}, from={}, to={}",
-                    QUERY_SELECT_CANDLES, instrument, timeframeMs, fromTimestamp, toTimestamp);
+                    query, instrument, timeframeMs, fromTimestamp, toTimestamp);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    Candle candle = new Candle(
-                            instrument,
-                            timeframeMs,
-                            rs.getLong("time"),
-                            rs.getDouble("open"),
-                            rs.getDouble("high"),
-                            rs.getDouble("low"),
-                            rs.getDouble("close"),
-                            rs.getDouble("volume")
+                    series.add(
+                            rs.getLong(1),
+                            rs.getDouble(2),
+                            rs.getDouble(3),
+                            rs.getDouble(4),
+                            rs.getDouble(5),
+                            rs.getDouble(6)
                     );
-                    candles.add(candle);
                 }
             }
         } catch (SQLException e) {
@@ -87,12 +164,18 @@ public class QueryClickhouseRepository implements com.price.common.db.QueryRepos
         }
 
         log.info("Queried {} candles for instrument {} timeframe {}ms from {} to {}",
-                candles.size(), instrument, timeframeMs, fromTimestamp, toTimestamp);
-        return candles;
+                series.size(), instrument, series.timeframeMs(), fromTimestamp, toTimestamp);
+    }
+
+    // Upper bound of rows in the range, capped so a wide range with gaps doesn't preallocate too much
+    private static int estimateRows(int timeframeMs, long fromTimestamp, long toTimestamp) {
+        long rows = (toTimestamp - fromTimestamp) / Math.max(timeframeMs, 1) + 1;
+        return (int) Math.min(Math.max(rows, 1), MAX_PREALLOCATED_ROWS);
     }
 
     @Override
     public void close() {
+        planner.close();
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
             log.info("ClickHouse HikariDataSource closed.");
@@ -4,12 +4,9 @@ import com.lmax.disruptor.EventHandler;
 import com.price.common.config.DataBase;
 import com.price.common.db.CandleEvent;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Repository;
 
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.sql.*;
 
 @Slf4j
@@ -17,9 +14,7 @@ import java.sql.*;
 @Repository
 public class SaveClickhouseRepository implements com.price.common.db.SaveRepository, EventHandler<CandleEvent>, AutoCloseable {
     private static final String DATABASE_NAME = "prices_db";
-    private static final String SCHEMA_RESOURCE = "/clickhouse/schema.sql";
 
-    public static final String QUERY_CREATE_DB = "CREATE DATABASE " + DATABASE_NAME;
     public static final String QUERY_INSERT_PRICES = "INSERT INTO " + DATABASE_NAME + ".trade_candles " +
             "(instrument, timeframe_ms, time, open, high, low, close, volume) " +
             "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
@@ -30,32 +25,17 @@ public class SaveClickhouseRepository implements com.price.common.db.SaveReposit
 
     public SaveClickhouseRepository(DataBase configuration) {
         try {
-            String baseUrl = configuration.url();
-            String user = configuration.user();
-            String password = configuration.password();
-
-            // Disable compression to avoid LZ4 issues
-            String urlParams = baseUrl.contains("?") ? "&compress=0" : "?compress=0";
-            String url = baseUrl + urlParams;
-
+            String url = ClickhouseSchema.url(configuration);
             log.info("Initializing ClickHouse repository at {}", url);
 
-            // First connect without specifying a database to check/create it
-            Connection tempConnection = DriverManager.getConnection(url, user, password);
-            createDatabaseIfNotExists(tempConnection);
-            tempConnection.close();
-
-            // Now connect to our database
+            // The schema was prepared before the writers were created, see ClickhouseSchema
             String dbUrl = url + "/" + DATABASE_NAME;
-            this.connection = DriverManager.getConnection(dbUrl, user, password);
+            this.connection = DriverManager.getConnection(dbUrl, configuration.user(), configuration.password());
 
             // Ensure auto-commit is enabled
             connection.setAutoCommit(true);
             log.info("Connected to ClickHouse database: {} (autoCommit={})", DATABASE_NAME, connection.getAutoCommit());
 
-            // Create table if it doesn't exist
-            createTableIfNotExists();
-
             // Prepare insert statement
             this.insertStatement = connection.prepareStatement(QUERY_INSERT_PRICES);
 
@@ -66,46 +46,6 @@ public class SaveClickhouseRepository implements com.price.common.db.SaveReposit
         }
     }
 
-    private void createDatabaseIfNotExists(Connection conn) throws SQLException {
-        String checkQuery = "SELECT count() FROM system.databases WHERE name = '" + DATABASE_NAME + "'";
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(checkQuery)) {
-            if (rs.next() && rs.getInt(1) == 0) {
-                log.info("Database {} does not exist, creating it", DATABASE_NAME);
-                stmt.execute(QUERY_CREATE_DB);
-                log.info("Database {} created successfully", DATABASE_NAME);
-            } else {
-                log.info("Database {} already exists", DATABASE_NAME);
-            }
-        }
-    }
-
-    private void createTableIfNotExists() throws SQLException {
-        String checkQuery = "SELECT count() FROM system.tables WHERE database = '" + DATABASE_NAME + "' AND name = 'trade_candles'";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(checkQuery)) {
-            if (rs.next() && rs.getInt(1) == 0) {
-                log.info("Table trade_candles does not exist, creating it");
-                String schema = loadSchemaFromResource();
-                stmt.execute(schema);
-                log.info("Table trade_candles created successfully");
-            } else {
-                log.info("Table trade_candles already exists");
-            }
-        }
-    }
-
-    private String loadSchemaFromResource() {
-        try (InputStream is = getClass().getResourceAsStream(SCHEMA_RESOURCE)) {
-            if (is == null) {
-                throw new RuntimeException("Schema resource not found: " + SCHEMA_RESOURCE);
-            }
-            return IOUtils.toString(is, StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load schema from resource: " + SCHEMA_RESOURCE, e);
-        }
-    }
-
     @Override
     public void onEvent(CandleEvent event, long sequence, boolean endOfBatch) throws Exception {
         log.info("Processing candle event: {}", event);
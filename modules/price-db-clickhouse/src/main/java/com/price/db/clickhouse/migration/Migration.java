@@ -0,0 +1,12 @@
+package com.price.db.clickhouse.migration;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+public interface Migration {
+    int version();
+
+    String description();
+
+    void apply(Connection connection) throws SQLException;
+}
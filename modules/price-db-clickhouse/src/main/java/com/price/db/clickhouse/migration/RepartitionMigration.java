@@ -0,0 +1,223 @@
+package com.price.db.clickhouse.migration;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Moves trade_candles onto the compact layout created by the previous migration.
+ * <p>
+ * History is copied month by month while the old table keeps serving queries, then both tables
+ * are swapped atomically with EXCHANGE TABLES. Materialized views reading trade_candles are
+ * re-created so they follow the new table. Rows that reached the old table during the copy are
+ * carried over afterwards, and the old table is dropped once the new one holds at least as many rows.
+ * <p>
+ * The version is only recorded once this returns, so every step can be run again after a failure. The
+ * partition key of each table tells whether the exchange already happened, and the view definitions and
+ * the copy start are kept in trade_candles_repartition until the migration completes.
+ */
+@Slf4j
+public class RepartitionMigration implements Migration {
+    private static final String DATABASE_NAME = "prices_db";
+    private static final String TABLE_NAME = "trade_candles";
+    private static final String TABLE = DATABASE_NAME + "." + TABLE_NAME;
+    // Holds the compact layout before the exchange and the legacy layout after it
+    private static final String SWAP_TABLE_NAME = "trade_candles_compact";
+    private static final String SWAP_TABLE = DATABASE_NAME + "." + SWAP_TABLE_NAME;
+    private static final String STATE_TABLE = DATABASE_NAME + ".trade_candles_repartition";
+    private static final String COLUMNS = "instrument, timeframe_ms, time, open, high, low, close, volume";
+    private static final String COPY_START = "copy_start";
+    private static final String VIEW_PREFIX = "view:";
+    private static final long DELTA_WINDOW_MS = 24 * 3600 * 1000L;
+
+    private final int version;
+
+    public RepartitionMigration(int version) {
+        this.version = version;
+    }
+
+    @Override
+    public int version() {
+        return version;
+    }
+
+    @Override
+    public String description() {
+        return "copy trade_candles into the compact layout";
+    }
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + STATE_TABLE + " (name String, value String) " +
+                    "ENGINE = MergeTree ORDER BY name");
+            // Views dropped by a failed attempt come back first, so they keep following trade_candles
+            restoreViews(stmt);
+
+            Map<String, Table> tables = tables(stmt);
+            Table table = tables.get(TABLE_NAME);
+            if (table != null && table.legacy()) {
+                Table swap = tables.get(SWAP_TABLE_NAME);
+                if (swap == null || swap.legacy()) {
+                    throw new SQLException(SWAP_TABLE + " doesn't have the compact layout");
+                }
+                // Before the exchange it only holds a partial copy, the data is still in trade_candles
+                stmt.execute("TRUNCATE TABLE " + SWAP_TABLE);
+                saveState(connection, COPY_START, String.valueOf(System.currentTimeMillis()));
+                copyHistory(stmt);
+
+                saveViews(connection, tables);
+                for (Table view : tables.values()) {
+                    if (view.view()) {
+                        stmt.execute("DROP VIEW IF EXISTS " + DATABASE_NAME + "." + view.name());
+                    }
+                }
+                stmt.execute("EXCHANGE TABLES " + TABLE + " AND " + SWAP_TABLE);
+                restoreViews(stmt);
+                log.info("trade_candles switched to the compact layout");
+            }
+
+            if (tables(stmt).containsKey(SWAP_TABLE_NAME)) {
+                carryOver(stmt);
+            }
+            stmt.execute("DROP TABLE IF EXISTS " + STATE_TABLE);
+        }
+    }
+
+    private void copyHistory(Statement stmt) throws SQLException {
+        long minTime;
+        long maxTime;
+        try (ResultSet rs = stmt.executeQuery("SELECT count(), min(time), max(time) FROM " + TABLE)) {
+            if (!rs.next() || rs.getLong(1) == 0) {
+                return;
+            }
+            minTime = rs.getLong(2);
+            maxTime = rs.getLong(3);
+        }
+
+        YearMonth last = month(maxTime);
+        for (YearMonth month = month(minTime); !month.isAfter(last); month = month.plusMonths(1)) {
+            long from = month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+            long to = month.plusMonths(1).atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+            stmt.execute("INSERT INTO " + SWAP_TABLE + " (" + COLUMNS + ") SELECT " + COLUMNS + " FROM " + TABLE +
+                    " WHERE time >= " + from + " AND time < " + to);
+            log.info("Copied trade_candles for {} into the compact layout", month);
+        }
+    }
+
+    /**
+     * Copies rows that reached the legacy table during the copy, then drops it. Rows already in trade_candles
+     * are skipped, so this can run more than once.
+     */
+    private void carryOver(Statement stmt) throws SQLException {
+        String copyStart = readState(stmt).get(COPY_START);
+        long since = copyStart == null ? 0 : Long.parseLong(copyStart) - DELTA_WINDOW_MS;
+        stmt.execute("INSERT INTO " + TABLE + " (" + COLUMNS + ") SELECT " + COLUMNS + " FROM " + SWAP_TABLE +
+                " WHERE time >= " + since + " AND (instrument, timeframe_ms, time) NOT IN " +
+                "(SELECT instrument, timeframe_ms, time FROM " + TABLE + " WHERE time >= " + since + ")");
+
+        long legacyRows = count(stmt, SWAP_TABLE);
+        long rows = count(stmt, TABLE);
+        if (rows >= legacyRows) {
+            stmt.execute("DROP TABLE " + SWAP_TABLE);
+            log.info("Dropped legacy trade_candles layout ({} rows copied)", rows);
+        } else {
+            log.warn("Compact trade_candles has {} rows, legacy layout {}. Legacy table kept as {}",
+                    rows, legacyRows, SWAP_TABLE);
+        }
+    }
+
+    /**
+     * Stores the definitions of the materialized views before they are dropped, unless a previous attempt did.
+     */
+    private void saveViews(Connection connection, Map<String, Table> tables) throws SQLException {
+        Map<String, String> saved;
+        try (Statement stmt = connection.createStatement()) {
+            saved = readState(stmt);
+        }
+        for (Table table : tables.values()) {
+            if (table.view() && !saved.containsKey(VIEW_PREFIX + table.name())) {
+                saveState(connection, VIEW_PREFIX + table.name(), table.definition());
+            }
+        }
+    }
+
+    private void restoreViews(Statement stmt) throws SQLException {
+        Map<String, Table> tables = tables(stmt);
+        for (Map.Entry<String, String> entry : readState(stmt).entrySet()) {
+            if (entry.getKey().startsWith(VIEW_PREFIX)
+                    && !tables.containsKey(entry.getKey().substring(VIEW_PREFIX.length()))) {
+                stmt.execute(entry.getValue());
+                log.info("Re-created materialized view {}", entry.getKey().substring(VIEW_PREFIX.length()));
+            }
+        }
+    }
+
+    private void saveState(Connection connection, String name, String value) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO " + STATE_TABLE + " (name, value) VALUES (?, ?)")) {
+            stmt.setString(1, name);
+            stmt.setString(2, value);
+            stmt.executeUpdate();
+        }
+    }
+
+    private Map<String, String> readState(Statement stmt) throws SQLException {
+        Map<String, String> state = new LinkedHashMap<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT name, value FROM " + STATE_TABLE)) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                String value = rs.getString(2);
+                // Every attempt records its copy start, the latest one is the copy that was exchanged
+                if (COPY_START.equals(name) && state.containsKey(name)) {
+                    value = String.valueOf(Math.max(Long.parseLong(value), Long.parseLong(state.get(name))));
+                }
+                state.put(name, value);
+            }
+        }
+        return state;
+    }
+
+    private Map<String, Table> tables(Statement stmt) throws SQLException {
+        Map<String, Table> tables = new HashMap<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT name, engine, partition_key, create_table_query " +
+                "FROM system.tables WHERE database = '" + DATABASE_NAME + "'")) {
+            while (rs.next()) {
+                tables.put(rs.getString(1), new Table(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+            }
+        }
+        return tables;
+    }
+
+    private long count(Statement stmt, String table) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT count() FROM " + table)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static YearMonth month(long timeMs) {
+        return YearMonth.from(Instant.ofEpochMilli(timeMs).atZone(ZoneOffset.UTC));
+    }
+
+    private record Table(String name, String engine, String partitionKey, String definition) {
+
+        boolean view() {
+            return "MaterializedView".equals(engine);
+        }
+
+        // The legacy layout partitions by instrument, timeframe and day, the compact one by month only
+        boolean legacy() {
+            return partitionKey != null && partitionKey.contains("instrument");
+        }
+    }
+}
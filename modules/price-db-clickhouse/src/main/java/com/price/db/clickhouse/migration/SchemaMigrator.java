@@ -0,0 +1,69 @@
+package com.price.db.clickhouse.migration;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies pending schema migrations in version order and records them in schema_migrations.
+ */
+@Slf4j
+public class SchemaMigrator {
+    private static final String DATABASE_NAME = "prices_db";
+    private static final String MIGRATIONS_TABLE = DATABASE_NAME + ".schema_migrations";
+
+    public static final List<Migration> MIGRATIONS = List.of(
+            new SqlMigration(1, "create trade_candles", "/clickhouse/migrations/V1__create_trade_candles.sql"),
+            new SqlMigration(2, "create compact trade_candles layout", "/clickhouse/migrations/V2__create_trade_candles_compact.sql"),
+            new RepartitionMigration(3)
+    );
+
+    public static final String QUERY_CREATE_MIGRATIONS_TABLE = "CREATE TABLE IF NOT EXISTS " + MIGRATIONS_TABLE + " " +
+            "(version UInt32, description String, applied_at DateTime DEFAULT now()) " +
+            "ENGINE = MergeTree ORDER BY version";
+    public static final String QUERY_INSERT_MIGRATION = "INSERT INTO " + MIGRATIONS_TABLE + " (version, description) VALUES (?, ?)";
+
+    private final Connection connection;
+
+    public SchemaMigrator(Connection connection) {
+        this.connection = connection;
+    }
+
+    public void migrate() throws SQLException {
+        Set<Integer> applied = appliedVersions();
+        for (Migration migration : MIGRATIONS) {
+            if (applied.contains(migration.version())) {
+                continue;
+            }
+            log.info("Applying schema migration V{}: {}", migration.version(), migration.description());
+            migration.apply(connection);
+            try (PreparedStatement stmt = connection.prepareStatement(QUERY_INSERT_MIGRATION)) {
+                stmt.setInt(1, migration.version());
+                stmt.setString(2, migration.description());
+                stmt.executeUpdate();
+            }
+            log.info("Schema migration V{} applied", migration.version());
+        }
+    }
+
+    private Set<Integer> appliedVersions() throws SQLException {
+        Set<Integer> versions = new HashSet<>();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(QUERY_CREATE_MIGRATIONS_TABLE);
+            try (ResultSet rs = stmt.executeQuery("SELECT version FROM " + MIGRATIONS_TABLE)) {
+                while (rs.next()) {
+                    versions.add(rs.getInt(1));
+                }
+            }
+        }
+        log.info("Schema migrations applied so far: {}", versions);
+        return versions;
+    }
+}
@@ -0,0 +1,37 @@
+package com.price.db.clickhouse.migration;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Migration backed by a classpath SQL script. Statements are separated by a semicolon at the end of a line.
+ */
+public record SqlMigration(int version, String description, String resource) implements Migration {
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : loadResource().split(";\\s*(\\R|$)")) {
+                if (!sql.isBlank()) {
+                    stmt.execute(sql);
+                }
+            }
+        }
+    }
+
+    private String loadResource() {
+        try (InputStream is = getClass().getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new RuntimeException("Migration resource not found: " + resource);
+            }
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load migration from resource: " + resource, e);
+        }
+    }
+}
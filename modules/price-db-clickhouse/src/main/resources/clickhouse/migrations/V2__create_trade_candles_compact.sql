@@ -0,0 +1,20 @@
+CREATE TABLE IF NOT EXISTS prices_db.trade_candles_compact
+(
+    instrument       LowCardinality(String),
+    timeframe_ms     UInt32 CODEC(Delta, ZSTD(1)),
+    time             UInt64 CODEC(DoubleDelta, ZSTD(1)),
+    open             Float64 CODEC(Gorilla, ZSTD(1)),
+    high             Float64 CODEC(Gorilla, ZSTD(1)),
+    low              Float64 CODEC(Gorilla, ZSTD(1)),
+    close            Float64 CODEC(Gorilla, ZSTD(1)),
+    volume           Float64 CODEC(Gorilla, ZSTD(1)),
+    PROJECTION latest_candle
+    (
+        SELECT instrument, timeframe_ms, max(time)
+        GROUP BY instrument, timeframe_ms
+    )
+)
+ENGINE = ReplacingMergeTree()
+PARTITION BY toYYYYMM(toDateTime(intDiv(time, 1000)))
+ORDER BY (instrument, timeframe_ms, time)
+SETTINGS index_granularity = 8192, deduplicate_merge_projection_mode = 'rebuild';
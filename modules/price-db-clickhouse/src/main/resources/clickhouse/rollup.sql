@@ -0,0 +1,15 @@
+CREATE TABLE IF NOT EXISTS prices_db.trade_candles_rollup
+(
+    instrument       LowCardinality(String),
+    timeframe_ms     UInt32,
+    time             UInt64,
+    open             AggregateFunction(argMin, Float64, UInt64),
+    high             SimpleAggregateFunction(max, Float64),
+    low              SimpleAggregateFunction(min, Float64),
+    close            AggregateFunction(argMax, Float64, UInt64),
+    volume           AggregateFunction(maxMap, Array(UInt64), Array(Float64))
+)
+ENGINE = AggregatingMergeTree()
+PARTITION BY (timeframe_ms, toYYYYMM(toDateTime(intDiv(time, 1000))))
+ORDER BY (instrument, timeframe_ms, time)
+SETTINGS index_granularity = 8192;
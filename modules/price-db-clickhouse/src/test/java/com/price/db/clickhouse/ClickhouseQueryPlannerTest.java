@@ -0,0 +1,142 @@
+package com.price.db.clickhouse;
+
+import com.price.common.db.CandleSeries;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClickhouseQueryPlannerTest {
+
+    private static final int MINUTE = 60000;
+    private static final int HOUR = 60 * MINUTE;
+
+    private static long at(String instant) {
+        return Instant.parse(instant).toEpochMilli();
+    }
+
+    @Test
+    void testSplitAtMonthStarts() {
+        long from = at("2024-01-15T10:00:00Z");
+        long to = at("2024-04-02T00:00:00Z");
+
+        assertArrayEquals(new long[]{from, at("2024-02-01T00:00:00Z"), at("2024-03-01T00:00:00Z"),
+                at("2024-04-01T00:00:00Z"), to}, ClickhouseQueryPlanner.split(MINUTE, from, to));
+        // Not enough hourly candles to be worth the fan-out
+        assertArrayEquals(new long[]{from, to}, ClickhouseQueryPlanner.split(HOUR, from, to));
+    }
+
+    @Test
+    void testPartsAreMergedInTimeOrder() throws Exception {
+        long[] bounds = {0, 2L * HOUR + 30 * MINUTE, 5L * HOUR, 6L * HOUR};
+        try (ClickhouseQueryPlanner planner = new ClickhouseQueryPlanner(2)) {
+            // Each part aggregates its minutes into hours, the hour at 2h is cut between the first two parts
+            CandleSeries series = planner.query("BTCUSDT@binance", HOUR, bounds, 1, (from, to) -> {
+                CandleSeries part = new CandleSeries("BTCUSDT@binance", MINUTE);
+                for (long time = from; time < to; time += MINUTE) {
+                    part.add(time, time, time + 1, time - 1, time, 1);
+                }
+                // Finish the later parts first
+                Thread.sleep((6L * HOUR - from) / HOUR);
+                return part.aggregate(HOUR);
+            });
+
+            assertEquals(6, series.size());
+            for (int i = 0; i < 6; i++) {
+                assertEquals(i * (long) HOUR, series.time(i));
+                assertEquals(60, series.volume(i));
+            }
+            assertEquals(2L * HOUR, series.open(2));
+            assertEquals(3L * HOUR - MINUTE, series.close(2));
+        }
+    }
+
+    @Test
+    void testPartsRunOnTheCallerWhileOtherQueriesHoldThePermits() throws Exception {
+        long[] bounds = {0, HOUR, 2L * HOUR, 3L * HOUR};
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try (ClickhouseQueryPlanner planner = new ClickhouseQueryPlanner(1)) {
+            // A split query holding the only permit until released
+            Future<CandleSeries> blocked = caller.submit(() -> planner.query("BTCUSDT@binance", MINUTE, bounds, 1,
+                    (from, to) -> {
+                        if (from == 0) {
+                            started.countDown();
+                            release.await();
+                        }
+                        return new CandleSeries("BTCUSDT@binance", MINUTE);
+                    }));
+            started.await();
+
+            List<Thread> threads = new ArrayList<>();
+            CandleSeries series = planner.query("ETHUSDT@binance", MINUTE, bounds, 1, (from, to) -> {
+                threads.add(Thread.currentThread());
+                CandleSeries part = new CandleSeries("ETHUSDT@binance", MINUTE);
+                part.add(from, 1, 1, 1, 1, 1);
+                return part;
+            });
+
+            assertEquals(List.of(Thread.currentThread(), Thread.currentThread(), Thread.currentThread()), threads);
+            assertEquals(3, series.size());
+            release.countDown();
+            blocked.get();
+            assertEquals(1, planner.availablePermits());
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFailedQueryReturnsItsPermits() {
+        long[] bounds = {0, HOUR, 2L * HOUR, 3L * HOUR, 4L * HOUR};
+        try (ClickhouseQueryPlanner planner = new ClickhouseQueryPlanner(1)) {
+            assertThrows(IllegalStateException.class, () -> planner.query("BTCUSDT@binance", MINUTE, bounds, 1,
+                    (from, to) -> {
+                        throw new IllegalStateException("part at " + from);
+                    }));
+            // The failed part handed its permit back and no further part was started
+            assertEquals(1, planner.availablePermits());
+        }
+    }
+
+    @Test
+    void testFailedQueryInterruptsRunningPartsAndStartsNoMore() {
+        long[] bounds = {0, HOUR, 2L * HOUR, 3L * HOUR, 4L * HOUR};
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        List<Long> started = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean interrupted = new AtomicBoolean();
+        try (ClickhouseQueryPlanner planner = new ClickhouseQueryPlanner(2)) {
+            assertThrows(IllegalStateException.class, () -> planner.query("BTCUSDT@binance", MINUTE, bounds, 1,
+                    (from, to) -> {
+                        started.add(from);
+                        if (from == 0) {
+                            secondStarted.await();
+                            throw new IllegalStateException("part at " + from);
+                        }
+                        secondStarted.countDown();
+                        try {
+                            // Stands in for a query that only ends when its thread is interrupted
+                            new CountDownLatch(1).await();
+                        } catch (InterruptedException e) {
+                            interrupted.set(true);
+                            throw e;
+                        }
+                        return new CandleSeries("BTCUSDT@binance", MINUTE);
+                    }));
+
+            assertTrue(interrupted.get());
+            assertEquals(List.of(0L, (long) HOUR), started.stream().sorted().toList());
+            assertEquals(2, planner.availablePermits());
+        }
+    }
+}
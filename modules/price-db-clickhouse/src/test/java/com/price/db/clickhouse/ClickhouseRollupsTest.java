@@ -0,0 +1,106 @@
+package com.price.db.clickhouse;
+
+import com.price.common.config.DataBase;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ClickhouseRollupsTest {
+
+    private static final String VOLUME_TYPE = "AggregateFunction(maxMap, Array(UInt64), Array(Float64))";
+
+    private static DataBase dataBase(String base, String... rollups) {
+        return new DataBase("clickhouse", "jdbc:clickhouse://localhost:8123", "default", "", 1,
+                base, List.of(rollups), null, 0);
+    }
+
+    @Test
+    void testRollupTimeframesMustBeMultiplesOfTheBase() {
+        assertThrows(IllegalArgumentException.class, () -> new ClickhouseRollups(dataBase("5s", "7s")));
+        assertThrows(IllegalArgumentException.class, () -> new ClickhouseRollups(dataBase("5s", "5s")));
+        assertThrows(IllegalArgumentException.class, () -> new ClickhouseRollups(dataBase("1m", "30s")));
+        assertDoesNotThrow(() -> new ClickhouseRollups(dataBase("5s", "1m", "1h")));
+    }
+
+    @Test
+    void testVolumeIsKeptPerBaseCandle() {
+        String select = new ClickhouseRollups(dataBase("5s", "1m")).rollupSelect(60000);
+
+        assertTrue(select.contains("intDiv(time, 60000) * 60000 AS bucket"), select);
+        assertTrue(select.contains("WHERE timeframe_ms = 5000"), select);
+        // A base candle inserted twice maps to the same key, max keeps one of them
+        assertTrue(select.contains("maxMapState([ts], [volume]) AS volume"), select);
+        assertFalse(select.contains("sum(volume)"), select);
+        assertTrue(ClickhouseRollups.QUERY_SELECT_ROLLUP_CANDLES.contains(ClickhouseRollups.VOLUME_MERGE + " AS volume"));
+        assertTrue(ArchiveClickhouseRepository.QUERY_EXPORT_ROLLUPS.contains(ClickhouseRollups.VOLUME_MERGE + " AS volume"));
+    }
+
+    @Test
+    void testNewTimeframeIsBackfilledAfterItsViewExists() throws Exception {
+        Statement stmt = statement(VOLUME_TYPE, List.of());
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenReturn(stmt);
+
+        new ClickhouseRollups(dataBase("5s", "1m")).createViews(connection);
+
+        InOrder order = inOrder(stmt);
+        order.verify(stmt).execute(startsWith("CREATE MATERIALIZED VIEW IF NOT EXISTS prices_db.trade_candles_rollup_mv_60000"));
+        order.verify(stmt).execute(startsWith("INSERT INTO prices_db.trade_candles_rollup SELECT"));
+        verify(stmt, never()).execute(startsWith("DROP"));
+    }
+
+    @Test
+    void testRollupsSummingEveryInsertAreRebuilt() throws Exception {
+        Statement stmt = statement("SimpleAggregateFunction(sum, Float64)", List.of("trade_candles_rollup_mv_60000"));
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenReturn(stmt);
+
+        new ClickhouseRollups(dataBase("5s", "1m")).createViews(connection);
+
+        InOrder order = inOrder(stmt);
+        order.verify(stmt).execute("DROP VIEW IF EXISTS prices_db.trade_candles_rollup_mv_60000");
+        order.verify(stmt).execute("DROP TABLE IF EXISTS prices_db.trade_candles_rollup");
+        order.verify(stmt).execute(contains("CREATE TABLE IF NOT EXISTS prices_db.trade_candles_rollup"));
+        order.verify(stmt).execute(startsWith("INSERT INTO prices_db.trade_candles_rollup SELECT"));
+    }
+
+    /**
+     * A rollup table with the given volume type and views, which are gone once dropped, and no rolled-up candles.
+     */
+    private static Statement statement(String volumeType, List<String> views) throws SQLException {
+        Statement stmt = mock(Statement.class);
+        boolean[] dropped = {false};
+        when(stmt.execute(startsWith("DROP TABLE"))).thenAnswer(invocation -> dropped[0] = true);
+        when(stmt.executeQuery(anyString())).thenAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            if (sql.contains("system.columns")) {
+                return rows(volumeType);
+            } else if (sql.contains("LIKE")) {
+                return rows(views.toArray());
+            } else if (sql.contains("system.tables")) {
+                return rows(dropped[0] ? 0 : views.size());
+            }
+            return rows(0L);
+        });
+        return stmt;
+    }
+
+    private static ResultSet rows(Object... values) throws SQLException {
+        ResultSet rs = mock(ResultSet.class);
+        int[] row = {-1};
+        when(rs.next()).thenAnswer(invocation -> ++row[0] < values.length);
+        when(rs.getString(1)).thenAnswer(invocation -> String.valueOf(values[row[0]]));
+        when(rs.getLong(1)).thenAnswer(invocation -> ((Number) values[row[0]]).longValue());
+        when(rs.getInt(1)).thenAnswer(invocation -> ((Number) values[row[0]]).intValue());
+        return rs;
+    }
+}
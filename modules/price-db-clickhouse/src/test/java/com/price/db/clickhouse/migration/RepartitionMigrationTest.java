@@ -0,0 +1,262 @@
+package com.price.db.clickhouse.migration;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepartitionMigrationTest {
+
+    private static final String LEGACY_KEY = "(instrument, timeframe_ms, toDate(time / 1000))";
+    private static final String COMPACT_KEY = "toYYYYMM(toDateTime(intDiv(time, 1000)))";
+    private static final String VIEW_1M = "CREATE MATERIALIZED VIEW prices_db.trade_candles_rollup_mv_60000 " +
+            "TO prices_db.trade_candles_rollup AS SELECT 1";
+    private static final String VIEW_1H = "CREATE MATERIALIZED VIEW prices_db.trade_candles_rollup_mv_3600000 " +
+            "TO prices_db.trade_candles_rollup AS SELECT 2";
+
+    @Test
+    void testMigrationMovesHistoryAndViews() throws Exception {
+        FakeClickhouse clickhouse = new FakeClickhouse();
+
+        new RepartitionMigration(3).apply(clickhouse.connection());
+
+        clickhouse.assertMigrated();
+    }
+
+    @Test
+    void testRerunAfterEachFailedStepCompletesWithoutLosingData() throws Exception {
+        FakeClickhouse complete = new FakeClickhouse();
+        new RepartitionMigration(3).apply(complete.connection());
+        int steps = complete.statements;
+
+        for (int failAt = 1; failAt <= steps; failAt++) {
+            FakeClickhouse clickhouse = new FakeClickhouse();
+            clickhouse.failAt = failAt;
+            assertThrows(SQLException.class, () -> new RepartitionMigration(3).apply(clickhouse.connection()),
+                    "step " + failAt);
+
+            clickhouse.failAt = -1;
+            new RepartitionMigration(3).apply(clickhouse.connection());
+            clickhouse.assertMigrated();
+        }
+    }
+
+    private record Row(String instrument, int timeframe, long time) {
+    }
+
+    private static final class Table {
+        private final String engine;
+        private final String partitionKey;
+        private final String definition;
+        private final List<Row> rows = new ArrayList<>();
+
+        private Table(String engine, String partitionKey, String definition) {
+            this.engine = engine;
+            this.partitionKey = partitionKey;
+            this.definition = definition;
+        }
+    }
+
+    /**
+     * The tables of prices_db after V2, understanding the statements of the migration. Candles keep arriving in
+     * trade_candles while history is copied. Fails the statement numbered failAt, like a crash right before it.
+     */
+    private static final class FakeClickhouse {
+        private static final Pattern COPY = Pattern.compile(
+                "INSERT INTO prices_db\\.(\\w+) \\(.*\\) SELECT .* FROM prices_db\\.(\\w+) WHERE time >= (-?\\d+) AND time < (\\d+)");
+        private static final Pattern CARRY_OVER = Pattern.compile(
+                "INSERT INTO prices_db\\.(\\w+) \\(.*\\) SELECT .* FROM prices_db\\.(\\w+) WHERE time >= (-?\\d+) AND .* NOT IN .*");
+
+        private final Map<String, Table> tables = new LinkedHashMap<>();
+        private final Set<Row> candles = new HashSet<>();
+        private int statements;
+        private int failAt = -1;
+        private long live = System.currentTimeMillis();
+
+        private FakeClickhouse() {
+            tables.put("trade_candles", new Table("ReplacingMergeTree", LEGACY_KEY, null));
+            tables.put("trade_candles_compact", new Table("ReplacingMergeTree", COMPACT_KEY, null));
+            tables.put("trade_candles_rollup_mv_60000", new Table("MaterializedView", "", VIEW_1M));
+            tables.put("trade_candles_rollup_mv_3600000", new Table("MaterializedView", "", VIEW_1H));
+            for (String month : List.of("2024-01-10", "2024-02-10", "2024-03-10")) {
+                long time = Instant.parse(month + "T00:00:00Z").toEpochMilli();
+                insert("trade_candles", new Row("BTCUSDT@binance", 60000, time));
+                insert("trade_candles", new Row("ETHUSDT@binance", 60000, time + 60000));
+            }
+        }
+
+        private void insert(String table, Row row) {
+            tables.get(table).rows.add(row);
+            candles.add(row);
+        }
+
+        private void assertMigrated() {
+            Table table = tables.get("trade_candles");
+            assertEquals(COMPACT_KEY, table.partitionKey);
+            assertEquals(candles, new HashSet<>(table.rows));
+            assertEquals(table.rows.size(), new HashSet<>(table.rows).size());
+            assertEquals(VIEW_1M, tables.get("trade_candles_rollup_mv_60000").definition);
+            assertEquals(VIEW_1H, tables.get("trade_candles_rollup_mv_3600000").definition);
+            assertFalse(tables.containsKey("trade_candles_compact"));
+            assertFalse(tables.containsKey("trade_candles_repartition"));
+        }
+
+        private Connection connection() {
+            return proxy(Connection.class, (method, args) -> switch (method) {
+                case "createStatement" -> statement();
+                case "prepareStatement" -> preparedStatement((String) args[0]);
+                case "close" -> null;
+                default -> throw new UnsupportedOperationException(method);
+            });
+        }
+
+        private Statement statement() {
+            return proxy(Statement.class, (method, args) -> switch (method) {
+                case "execute" -> {
+                    execute((String) args[0]);
+                    yield false;
+                }
+                case "executeQuery" -> query((String) args[0]);
+                case "close" -> null;
+                default -> throw new UnsupportedOperationException(method);
+            });
+        }
+
+        private PreparedStatement preparedStatement(String sql) {
+            String[] values = new String[2];
+            return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+                case "setString" -> {
+                    values[(Integer) args[0] - 1] = (String) args[1];
+                    yield null;
+                }
+                case "executeUpdate" -> {
+                    step(sql);
+                    assertTrue(sql.startsWith("INSERT INTO prices_db.trade_candles_repartition"), sql);
+                    table("trade_candles_repartition").rows.add(new Row(values[0] + "\n" + values[1], 0, 0));
+                    yield 1;
+                }
+                case "close" -> null;
+                default -> throw new UnsupportedOperationException(method);
+            });
+        }
+
+        private void step(String sql) throws SQLException {
+            if (++statements == failAt) {
+                throw new SQLException("Failed before: " + sql);
+            }
+        }
+
+        private void execute(String sql) throws SQLException {
+            step(sql);
+            Matcher matcher;
+            if (sql.startsWith("CREATE TABLE IF NOT EXISTS prices_db.trade_candles_repartition")) {
+                tables.putIfAbsent("trade_candles_repartition", new Table("MergeTree", "", null));
+            } else if (sql.startsWith("TRUNCATE TABLE prices_db.")) {
+                table(name(sql, "TRUNCATE TABLE prices_db.")).rows.clear();
+            } else if ((matcher = COPY.matcher(sql)).matches()) {
+                long from = Long.parseLong(matcher.group(3));
+                long to = Long.parseLong(matcher.group(4));
+                for (Row row : table(matcher.group(2)).rows) {
+                    if (row.time() >= from && row.time() < to) {
+                        table(matcher.group(1)).rows.add(row);
+                    }
+                }
+                // A candle closes while the copy runs
+                insert("trade_candles", new Row("BTCUSDT@binance", 60000, live += 60000));
+            } else if ((matcher = CARRY_OVER.matcher(sql)).matches()) {
+                long since = Long.parseLong(matcher.group(3));
+                List<Row> target = table(matcher.group(1)).rows;
+                for (Row row : table(matcher.group(2)).rows) {
+                    if (row.time() >= since && !target.contains(row)) {
+                        target.add(row);
+                    }
+                }
+            } else if (sql.startsWith("DROP VIEW IF EXISTS prices_db.")) {
+                tables.remove(name(sql, "DROP VIEW IF EXISTS prices_db."));
+            } else if (sql.startsWith("EXCHANGE TABLES prices_db.trade_candles AND prices_db.trade_candles_compact")) {
+                Table table = tables.get("trade_candles");
+                tables.put("trade_candles", tables.get("trade_candles_compact"));
+                tables.put("trade_candles_compact", table);
+            } else if (sql.startsWith("CREATE MATERIALIZED VIEW prices_db.")) {
+                String name = name(sql, "CREATE MATERIALIZED VIEW prices_db.");
+                if (tables.containsKey(name)) {
+                    throw new SQLException("Table " + name + " already exists");
+                }
+                tables.put(name, new Table("MaterializedView", "", sql));
+            } else if (sql.startsWith("DROP TABLE IF EXISTS prices_db.")) {
+                tables.remove(name(sql, "DROP TABLE IF EXISTS prices_db."));
+            } else if (sql.startsWith("DROP TABLE prices_db.")) {
+                table(name(sql, "DROP TABLE prices_db."));
+                tables.remove(name(sql, "DROP TABLE prices_db."));
+            } else {
+                throw new UnsupportedOperationException(sql);
+            }
+        }
+
+        private ResultSet query(String sql) throws SQLException {
+            step(sql);
+            List<Object[]> rows = new ArrayList<>();
+            if (sql.startsWith("SELECT name, engine, partition_key, create_table_query FROM system.tables")) {
+                tables.forEach((name, table) -> rows.add(new Object[]{name, table.engine, table.partitionKey, table.definition}));
+            } else if (sql.startsWith("SELECT name, value FROM prices_db.trade_candles_repartition")) {
+                for (Row row : table("trade_candles_repartition").rows) {
+                    rows.add(row.instrument().split("\n", 2));
+                }
+            } else if (sql.startsWith("SELECT count(), min(time), max(time) FROM prices_db.")) {
+                List<Row> candles = table(name(sql, "SELECT count(), min(time), max(time) FROM prices_db.")).rows;
+                rows.add(new Object[]{(long) candles.size(),
+                        candles.stream().mapToLong(Row::time).min().orElse(0),
+                        candles.stream().mapToLong(Row::time).max().orElse(0)});
+            } else if (sql.startsWith("SELECT count() FROM prices_db.")) {
+                rows.add(new Object[]{(long) table(name(sql, "SELECT count() FROM prices_db.")).rows.size()});
+            } else {
+                throw new UnsupportedOperationException(sql);
+            }
+            int[] row = {-1};
+            return proxy(ResultSet.class, (method, args) -> switch (method) {
+                case "next" -> ++row[0] < rows.size();
+                case "getString" -> (String) rows.get(row[0])[(Integer) args[0] - 1];
+                case "getLong" -> (Long) rows.get(row[0])[(Integer) args[0] - 1];
+                case "close" -> null;
+                default -> throw new UnsupportedOperationException(method);
+            });
+        }
+
+        private Table table(String name) throws SQLException {
+            Table table = tables.get(name);
+            if (table == null) {
+                throw new SQLException("Table prices_db." + name + " doesn't exist");
+            }
+            return table;
+        }
+
+        private static String name(String sql, String prefix) {
+            return sql.substring(prefix.length()).split("[ (]", 2)[0];
+        }
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args) throws Exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.handle(method.getName(), args));
+    }
+}
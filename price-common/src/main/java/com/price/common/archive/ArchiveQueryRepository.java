@@ -0,0 +1,75 @@
+package com.price.common.archive;
+
+import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.db.QueryRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Reads candles from the cold archive written by an {@link com.price.common.db.ArchiveRepository}.
+ */
+@Slf4j
+public class ArchiveQueryRepository implements QueryRepository {
+    private final Path root;
+
+    private volatile long manifestModified = -1;
+    private volatile long archivedBefore;
+
+    public ArchiveQueryRepository(Path root) {
+        this.root = root;
+        log.info("Candle archive configured at {}", root.toAbsolutePath());
+    }
+
+    /**
+     * Candles older than this time are only available from the archive.
+     */
+    public long archivedBefore() {
+        Path manifest = CandleArchive.manifest(root);
+        try {
+            long modified = Files.exists(manifest) ? Files.getLastModifiedTime(manifest).toMillis() : 0;
+            if (modified != manifestModified) {
+                archivedBefore = CandleArchive.readArchivedBefore(root);
+                manifestModified = modified;
+            }
+        } catch (IOException e) {
+            log.error("Failed to read archive manifest {}", manifest, e);
+        }
+        return archivedBefore;
+    }
+
+    @Override
+    public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        return querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp).toCandles();
+    }
+
+    @Override
+    public CandleSeries querySeries(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        CandleSeries series = new CandleSeries(instrument, timeframeMs);
+        if (toTimestamp <= fromTimestamp) {
+            return series;
+        }
+        YearMonth last = CandleArchive.month(toTimestamp - 1);
+        for (YearMonth month = CandleArchive.month(fromTimestamp); !month.isAfter(last); month = month.plusMonths(1)) {
+            Path file = CandleArchive.file(root, instrument, timeframeMs, month);
+            if (!Files.exists(file)) {
+                continue;
+            }
+            try (CandleArchiveReader reader = new CandleArchiveReader(file)) {
+                reader.read(fromTimestamp, toTimestamp, series);
+            }
+        }
+        log.debug("Read {} archived candles for instrument {} timeframe {}ms from {} to {}",
+                series.size(), instrument, timeframeMs, fromTimestamp, toTimestamp);
+        return series;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,80 @@
+package com.price.common.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Layout of the cold candle archive.
+ * <p>
+ * One file per instrument, timeframe and month: {@code <root>/<instrument>/<timeframeMs>/<yyyyMM>.candles}.
+ * A file is a sequence of blocks of up to {@link #BLOCK_ROWS} candles. Each block header holds the row
+ * count, first and last time and compressed length, so readers skip blocks outside the requested range
+ * without inflating them. Inside a block the columns are stored one after another: times as deltas,
+ * doubles XOR-ed with the previous value, all deflated.
+ * <p>
+ * {@code archive.json} in the root records the time before which candles live in the archive only.
+ */
+public final class CandleArchive {
+    static final int MAGIC = 0x50534341; // "PSCA"
+    static final int VERSION = 1;
+    static final int BLOCK_ROWS = 4096;
+
+    private static final String EXTENSION = ".candles";
+    private static final String MANIFEST = "archive.json";
+    private static final String ARCHIVED_BEFORE = "archivedBefore";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern SAFE_NAME = Pattern.compile("[A-Za-z0-9@_\\-][A-Za-z0-9@._\\-]*");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private CandleArchive() {
+    }
+
+    public static Path file(Path root, String instrument, int timeframeMs, YearMonth month) {
+        if (!SAFE_NAME.matcher(instrument).matches()) {
+            throw new IllegalArgumentException("Invalid instrument name: " + instrument);
+        }
+        return root.resolve(instrument)
+                .resolve(Integer.toString(timeframeMs))
+                .resolve(MONTH_FORMAT.format(month) + EXTENSION);
+    }
+
+    public static YearMonth month(long timeMs) {
+        return YearMonth.from(Instant.ofEpochMilli(timeMs).atZone(ZoneOffset.UTC));
+    }
+
+    public static long monthStart(YearMonth month) {
+        return month.atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    public static Path manifest(Path root) {
+        return root.resolve(MANIFEST);
+    }
+
+    public static long readArchivedBefore(Path root) throws IOException {
+        Path manifest = manifest(root);
+        if (!Files.exists(manifest)) {
+            return 0;
+        }
+        Map<?, ?> values = MAPPER.readValue(manifest.toFile(), Map.class);
+        Object value = values.get(ARCHIVED_BEFORE);
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+
+    public static void writeArchivedBefore(Path root, long time) throws IOException {
+        Files.createDirectories(root);
+        Path manifest = manifest(root);
+        Path tmp = manifest.resolveSibling(MANIFEST + ".tmp");
+        MAPPER.writeValue(tmp.toFile(), Map.of(ARCHIVED_BEFORE, time));
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
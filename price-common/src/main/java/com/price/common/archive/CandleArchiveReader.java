@@ -0,0 +1,90 @@
+package com.price.common.archive;
+
+import com.price.common.db.CandleConsumer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streams candles of one archive file. Only one block is held in memory at a time.
+ */
+public class CandleArchiveReader implements AutoCloseable {
+    private final DataInputStream in;
+
+    public CandleArchiveReader(Path file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        if (in.readInt() != CandleArchive.MAGIC) {
+            in.close();
+            throw new IOException("Not a candle archive: " + file);
+        }
+        int version = in.readInt();
+        if (version != CandleArchive.VERSION) {
+            in.close();
+            throw new IOException("Unsupported candle archive version " + version + ": " + file);
+        }
+    }
+
+    /**
+     * Passes candles with {@code from <= time < to} to the consumer in time order.
+     */
+    public void read(long from, long to, CandleConsumer consumer) throws Exception {
+        while (true) {
+            int rows = in.readInt();
+            if (rows == 0) {
+                return;
+            }
+            long first = in.readLong();
+            long last = in.readLong();
+            int length = in.readInt();
+            if (last < from) {
+                in.skipNBytes(length);
+                continue;
+            }
+            if (first >= to) {
+                return;
+            }
+            readBlock(rows, first, in.readNBytes(length), from, to, consumer);
+        }
+    }
+
+    private void readBlock(int rows, long first, byte[] compressed, long from, long to, CandleConsumer consumer) throws Exception {
+        try (DataInputStream block = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)))) {
+            long[] times = new long[rows];
+            long time = first;
+            for (int i = 0; i < rows; i++) {
+                time += block.readLong();
+                times[i] = time;
+            }
+            double[] opens = readColumn(block, rows);
+            double[] highs = readColumn(block, rows);
+            double[] lows = readColumn(block, rows);
+            double[] closes = readColumn(block, rows);
+            double[] volumes = readColumn(block, rows);
+            for (int i = 0; i < rows; i++) {
+                if (times[i] >= from && times[i] < to) {
+                    consumer.accept(times[i], opens[i], highs[i], lows[i], closes[i], volumes[i]);
+                }
+            }
+        }
+    }
+
+    private double[] readColumn(DataInputStream block, int rows) throws IOException {
+        double[] column = new double[rows];
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+            previous ^= block.readLong();
+            column[i] = Double.longBitsToDouble(previous);
+        }
+        return column;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
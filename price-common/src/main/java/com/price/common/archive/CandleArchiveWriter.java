@@ -0,0 +1,106 @@
+package com.price.common.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes one archive file. Candles must be appended in ascending time order. The file only
+ * appears under its final name after {@link #finish()}; closing without finishing discards it.
+ */
+public class CandleArchiveWriter implements AutoCloseable {
+    private final Path file;
+    private final Path tmp;
+    private final DataOutputStream out;
+
+    private final long[] times = new long[CandleArchive.BLOCK_ROWS];
+    private final double[] opens = new double[CandleArchive.BLOCK_ROWS];
+    private final double[] highs = new double[CandleArchive.BLOCK_ROWS];
+    private final double[] lows = new double[CandleArchive.BLOCK_ROWS];
+    private final double[] closes = new double[CandleArchive.BLOCK_ROWS];
+    private final double[] volumes = new double[CandleArchive.BLOCK_ROWS];
+    private int size;
+    private long lastTime = Long.MIN_VALUE;
+    private boolean finished;
+
+    public CandleArchiveWriter(Path file) throws IOException {
+        this.file = file;
+        this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.createDirectories(file.getParent());
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+        out.writeInt(CandleArchive.MAGIC);
+        out.writeInt(CandleArchive.VERSION);
+    }
+
+    public void append(long time, double open, double high, double low, double close, double volume) throws IOException {
+        if (time <= lastTime) {
+            throw new IllegalArgumentException("Candles must be appended in ascending time order: " + time);
+        }
+        lastTime = time;
+        times[size] = time;
+        opens[size] = open;
+        highs[size] = high;
+        lows[size] = low;
+        closes[size] = close;
+        volumes[size] = volume;
+        if (++size == CandleArchive.BLOCK_ROWS) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (size == 0) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 8);
+        try (DataOutputStream block = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            long previous = times[0];
+            for (int i = 0; i < size; i++) {
+                block.writeLong(times[i] - previous);
+                previous = times[i];
+            }
+            writeColumn(block, opens);
+            writeColumn(block, highs);
+            writeColumn(block, lows);
+            writeColumn(block, closes);
+            writeColumn(block, volumes);
+        }
+        out.writeInt(size);
+        out.writeLong(times[0]);
+        out.writeLong(times[size - 1]);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        size = 0;
+    }
+
+    private void writeColumn(DataOutputStream block, double[] column) throws IOException {
+        // Neighbouring prices share sign, exponent and leading mantissa bits, XOR leaves mostly zeros
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            long bits = Double.doubleToRawLongBits(column[i]);
+            block.writeLong(bits ^ previous);
+            previous = bits;
+        }
+    }
+
+    public void finish() throws IOException {
+        flushBlock();
+        out.writeInt(0);
+        out.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            out.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.price.common.archive;
+
+import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.db.QueryRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves the part of a range that was moved to the archive from cold storage and the rest from hot storage.
+ */
+public class TieredQueryRepository implements QueryRepository {
+    private final QueryRepository hot;
+    private final ArchiveQueryRepository cold;
+
+    public TieredQueryRepository(QueryRepository hot, ArchiveQueryRepository cold) {
+        this.hot = hot;
+        this.cold = cold;
+    }
+
+    @Override
+    public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        long boundary = cold.archivedBefore();
+        if (fromTimestamp >= boundary) {
+            return hot.queryCandles(instrument, timeframeMs, fromTimestamp, toTimestamp);
+        }
+        if (toTimestamp <= boundary) {
+            return cold.queryCandles(instrument, timeframeMs, fromTimestamp, toTimestamp);
+        }
+        List<Candle> candles = new ArrayList<>(cold.queryCandles(instrument, timeframeMs, fromTimestamp, boundary));
+        candles.addAll(hot.queryCandles(instrument, timeframeMs, boundary, toTimestamp));
+        return candles;
+    }
+
+    @Override
+    public CandleSeries querySeries(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        long boundary = cold.archivedBefore();
+        if (fromTimestamp >= boundary) {
+            return hot.querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp);
+        }
+        if (toTimestamp <= boundary) {
+            return cold.querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp);
+        }
+        CandleSeries series = cold.querySeries(instrument, timeframeMs, fromTimestamp, boundary);
+        series.addAll(hot.querySeries(instrument, timeframeMs, boundary, toTimestamp));
+        return series;
+    }
+
+    @Override
+    public CandleSeries queryAggregated(String instrument, int timeframeMs, int bucketMs,
+                                        long fromTimestamp, long toTimestamp) throws Exception {
+        long boundary = cold.archivedBefore();
+        if (fromTimestamp >= boundary) {
+            return hot.queryAggregated(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp);
+        }
+        if (toTimestamp <= boundary) {
+            return cold.queryAggregated(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp);
+        }
+        // A bucket spanning the boundary comes back from both tiers and is folded by concat
+        CandleSeries series = cold.queryAggregated(instrument, timeframeMs, bucketMs, fromTimestamp, boundary);
+        series.concat(hot.queryAggregated(instrument, timeframeMs, bucketMs, boundary, toTimestamp));
+        return series;
+    }
+
+    /**
+     * Pages from the tier holding the requested end first and only reads the other tier for what is still
+     * missing, so a newest page of recent candles never opens the archive.
+     */
+    @Override
+    public CandleSeries queryPage(String instrument, int timeframeMs, int bucketMs,
+                                  long fromTimestamp, long toTimestamp, int limit, boolean newest) throws Exception {
+        long boundary = cold.archivedBefore();
+        if (fromTimestamp >= boundary) {
+            return hot.queryPage(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp, limit, newest);
+        }
+        if (toTimestamp <= boundary) {
+            return cold.queryPage(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp, limit, newest);
+        }
+        if (newest) {
+            CandleSeries recent = hot.queryPage(instrument, timeframeMs, bucketMs, boundary, toTimestamp, limit, true);
+            if (recent.size() >= limit) {
+                return recent;
+            }
+            CandleSeries page = cold.queryPage(instrument, timeframeMs, bucketMs, fromTimestamp, boundary,
+                    limit - recent.size(), true);
+            page.concat(recent);
+            return page;
+        }
+        CandleSeries page = cold.queryPage(instrument, timeframeMs, bucketMs, fromTimestamp, boundary, limit, false);
+        if (page.size() < limit) {
+            CandleSeries later = hot.queryPage(instrument, timeframeMs, bucketMs, boundary, toTimestamp,
+                    limit - page.size(), false);
+            page.concat(later);
+        }
+        return page;
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            hot.close();
+        } finally {
+            cold.close();
+        }
+    }
+}
@@ -1,12 +1,63 @@
 package com.price.common.config;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.price.common.Util;
+
+import java.util.List;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public record DataBase(
         String type,
         String url,
         String user,
-        String password
+        String password,
+        int writers,
+        String rollupBase,
+        List<String> rollups,
+        String archivePath,
+        int archiveAfterDays
 ) {
+
+    /**
+     * Number of partitioned writers (each with its own repository connection), at least one.
+     */
+    public int writerCount() {
+        return Math.max(1, writers);
+    }
+
+    /**
+     * Closed partitions older than archiveAfterDays are moved to compressed files under archivePath.
+     */
+    public boolean archiveEnabled() {
+        return archivePath != null && !archivePath.isBlank() && archiveAfterDays > 0;
+    }
+
+    public boolean hasRollups() {
+        return rollupBase != null && rollups != null && !rollups.isEmpty();
+    }
+
+    public int rollupBaseTimeframe() {
+        return hasRollups() ? Util.parseTimeframeToMilliseconds(rollupBase) : 0;
+    }
+
+    /**
+     * Timeframes derived by the database from the base timeframe instead of being persisted from Java.
+     */
+    public int[] rollupTimeframes() {
+        if (!hasRollups()) {
+            return new int[0];
+        }
+        return rollups.stream()
+                .mapToInt(Util::parseTimeframeToMilliseconds)
+                .toArray();
+    }
+
+    public boolean isRollup(int timeframeMs) {
+        for (int rollup : rollupTimeframes()) {
+            if (rollup == timeframeMs) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
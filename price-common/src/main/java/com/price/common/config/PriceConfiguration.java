@@ -8,7 +8,18 @@ import java.util.List;
 public record PriceConfiguration(List<Instrument> instruments,
                                  List<DataBase> dataBases,
                                  int httpPort,
-                                 int disruptorBufferSize) {
+                                 int disruptorBufferSize,
+                                 StreamSettings stream,
+                                 QuerySettings query) {
+
+    public PriceConfiguration {
+        if (stream == null) {
+            stream = StreamSettings.defaults();
+        }
+        if (query == null) {
+            query = QuerySettings.defaults();
+        }
+    }
 
     public static PriceConfiguration read() {
         String configFile = System.getenv(FileConfigurationReader.ENV_CONFIG_FILE);
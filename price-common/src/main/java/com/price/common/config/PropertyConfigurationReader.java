@@ -4,6 +4,7 @@ import com.price.common.Util;
 import org.apache.commons.lang3.math.NumberUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class PropertyConfigurationReader {
@@ -15,12 +16,34 @@ public class PropertyConfigurationReader {
     private static final String ENV_CLICKHOUSE_URL = "ps.clickhouse.url";
     private static final String ENV_CLICKHOUSE_USER = "ps.clickhouse.user";
     private static final String ENV_CLICKHOUSE_PASSWORD = "ps.clickhouse.password";
+    private static final String ENV_CLICKHOUSE_WRITERS = "ps.clickhouse.writers";
+    private static final String ENV_CLICKHOUSE_ROLLUP_BASE = "ps.clickhouse.rollup.base";
+    private static final String ENV_CLICKHOUSE_ROLLUPS = "ps.clickhouse.rollups";
+    private static final String ENV_CLICKHOUSE_ARCHIVE_PATH = "ps.clickhouse.archive.path";
+    private static final String ENV_CLICKHOUSE_ARCHIVE_DAYS = "ps.clickhouse.archive.days";
     private static final String ENV_HTTP_PORT = "ps.http.port";
+    private static final String ENV_CHECKPOINT_FILE = "ps.checkpoint.file";
+    private static final String ENV_CHECKPOINT_INTERVAL = "ps.checkpoint.interval";
+    private static final String ENV_STREAM_WATER_MARK_LOW = "ps.stream.watermark.low";
+    private static final String ENV_STREAM_WATER_MARK_HIGH = "ps.stream.watermark.high";
+    private static final String ENV_STREAM_SLOW_TIMEOUT = "ps.stream.slow.timeout";
+    private static final String ENV_STREAM_WORKERS = "ps.stream.workers";
+    private static final String ENV_STREAM_ACCEPTORS = "ps.stream.acceptors";
+    private static final String ENV_STREAM_MAX_UPDATE_RATE = "ps.stream.update.rate";
+    private static final String ENV_STREAM_SNAPSHOT_SIZE = "ps.stream.snapshot.size";
+    private static final String ENV_STREAM_UPSTREAM = "ps.stream.upstream";
+    private static final String ENV_QUERY_CACHE_SIZE = "ps.query.cache.size";
+    private static final String ENV_QUERY_CACHE_CHUNK = "ps.query.cache.chunk";
+    private static final String ENV_QUERY_CACHE_TTL = "ps.query.cache.ttl";
+    private static final String ENV_QUERY_BATCH_CONCURRENCY = "ps.query.batch.concurrency";
+    private static final String ENV_QUERY_STREAM_URL = "ps.query.stream.url";
+    private static final String ENV_QUERY_TAIL_SIZE = "ps.query.tail.size";
     private static final String INSTRUMENT_DELIMITER = ",";
     private static final String INSTRUMENT_SEPARATOR = "@";
     public static final String DEFAULT_BUFFER_SIZE = "4096";
     public static final String DEFAULT_REPOSITORY_TYPE = "com.price.stream.storage.db.ClickHouseRepository";
     public static final String DEFAULT_HTTP_PORT = "8080";
+    public static final String DEFAULT_WRITERS = "1";
 
     public PriceConfiguration read() {
         List<Instrument> instruments = parseInstruments();
@@ -28,13 +51,46 @@ public class PropertyConfigurationReader {
                 System.getenv().getOrDefault(ENV_REPOSITORY_TYPE, DEFAULT_REPOSITORY_TYPE),
                 System.getenv(ENV_CLICKHOUSE_URL),
                 System.getenv(ENV_CLICKHOUSE_USER),
-                System.getenv(ENV_CLICKHOUSE_PASSWORD)
+                System.getenv(ENV_CLICKHOUSE_PASSWORD),
+                NumberUtils.toInt(System.getenv().getOrDefault(ENV_CLICKHOUSE_WRITERS, DEFAULT_WRITERS)),
+                System.getenv(ENV_CLICKHOUSE_ROLLUP_BASE),
+                parseList(System.getenv(ENV_CLICKHOUSE_ROLLUPS)),
+                System.getenv(ENV_CLICKHOUSE_ARCHIVE_PATH),
+                NumberUtils.toInt(System.getenv(ENV_CLICKHOUSE_ARCHIVE_DAYS))
         );
         return new PriceConfiguration(
                 instruments,
                 List.of(db),
                 Integer.parseInt(System.getenv().getOrDefault(ENV_HTTP_PORT, DEFAULT_HTTP_PORT)),
-                NumberUtils.toInt(System.getenv().getOrDefault(ENV_BUFFER_SIZE, DEFAULT_BUFFER_SIZE))
+                NumberUtils.toInt(System.getenv().getOrDefault(ENV_BUFFER_SIZE, DEFAULT_BUFFER_SIZE)),
+                readStreamSettings(),
+                readQuerySettings()
+        );
+    }
+
+    private StreamSettings readStreamSettings() {
+        return new StreamSettings(
+                System.getenv(ENV_CHECKPOINT_FILE),
+                NumberUtils.toInt(System.getenv(ENV_CHECKPOINT_INTERVAL)),
+                NumberUtils.toInt(System.getenv(ENV_STREAM_WATER_MARK_LOW)),
+                NumberUtils.toInt(System.getenv(ENV_STREAM_WATER_MARK_HIGH)),
+                NumberUtils.toInt(System.getenv(ENV_STREAM_SLOW_TIMEOUT)),
+                NumberUtils.toInt(System.getenv(ENV_STREAM_WORKERS)),
+                NumberUtils.toInt(System.getenv(ENV_STREAM_ACCEPTORS)),
+                NumberUtils.toInt(System.getenv(ENV_STREAM_MAX_UPDATE_RATE)),
+                NumberUtils.toInt(System.getenv(ENV_STREAM_SNAPSHOT_SIZE)),
+                System.getenv(ENV_STREAM_UPSTREAM)
+        );
+    }
+
+    private QuerySettings readQuerySettings() {
+        return new QuerySettings(
+                NumberUtils.createLong(System.getenv(ENV_QUERY_CACHE_SIZE)),
+                NumberUtils.createInteger(System.getenv(ENV_QUERY_CACHE_CHUNK)),
+                NumberUtils.createLong(System.getenv(ENV_QUERY_CACHE_TTL)),
+                NumberUtils.createInteger(System.getenv(ENV_QUERY_BATCH_CONCURRENCY)),
+                System.getenv(ENV_QUERY_STREAM_URL),
+                NumberUtils.createInteger(System.getenv(ENV_QUERY_TAIL_SIZE))
         );
     }
 
@@ -56,6 +112,16 @@ public class PropertyConfigurationReader {
         return result;
     }
 
+    private List<String> parseList(String property) {
+        if (property == null || property.trim().isEmpty()) {
+            return List.of();
+        }
+        return Arrays.stream(property.split(INSTRUMENT_DELIMITER))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .toList();
+    }
+
     private Instrument parseInstrument(String spec) {
         spec = spec.trim();
         if (spec.isEmpty()) {
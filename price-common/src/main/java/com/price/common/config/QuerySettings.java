@@ -0,0 +1,56 @@
+package com.price.common.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * price-query specific settings, the "query" section of the configuration.
+ * Missing values fall back to the defaults, a cache size of 0 disables the candle cache.
+ * The live tail is only kept when {@code streamUrl} points at the price-stream WebSocket.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record QuerySettings(Long cacheMaxCandles,
+                            Integer cacheChunkCandles,
+                            Long cacheHeadTtlMs,
+                            Integer batchConcurrency,
+                            String streamUrl,
+                            Integer tailCandles) {
+
+    public static final long DEFAULT_CACHE_MAX_CANDLES = 2_000_000;
+    public static final int DEFAULT_CACHE_CHUNK_CANDLES = 720;
+    public static final long DEFAULT_CACHE_HEAD_TTL_MS = 1000;
+    public static final int DEFAULT_BATCH_CONCURRENCY = 8;
+    public static final int DEFAULT_TAIL_CANDLES = 64;
+
+    public QuerySettings {
+        if (cacheMaxCandles == null || cacheMaxCandles < 0) {
+            cacheMaxCandles = DEFAULT_CACHE_MAX_CANDLES;
+        }
+        if (cacheChunkCandles == null || cacheChunkCandles <= 0) {
+            cacheChunkCandles = DEFAULT_CACHE_CHUNK_CANDLES;
+        }
+        if (cacheHeadTtlMs == null || cacheHeadTtlMs < 0) {
+            cacheHeadTtlMs = DEFAULT_CACHE_HEAD_TTL_MS;
+        }
+        if (batchConcurrency == null || batchConcurrency <= 0) {
+            batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+        }
+        if (streamUrl != null && streamUrl.isBlank()) {
+            streamUrl = null;
+        }
+        if (tailCandles == null || tailCandles <= 0) {
+            tailCandles = DEFAULT_TAIL_CANDLES;
+        }
+    }
+
+    public static QuerySettings defaults() {
+        return new QuerySettings(null, null, null, null, null, null);
+    }
+
+    public boolean cacheEnabled() {
+        return cacheMaxCandles > 0;
+    }
+
+    public boolean tailEnabled() {
+        return streamUrl != null;
+    }
+}
@@ -0,0 +1,85 @@
+package com.price.common.config;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * price-stream specific settings, the "stream" section of the configuration.
+ * <p>
+ * With {@code upstreamUrl} pointing at another price-stream's WebSocket the process runs as a relay: it takes
+ * its candles from there instead of connectors and persists nothing.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record StreamSettings(String checkpointFile,
+                             int checkpointIntervalSeconds,
+                             int writeBufferLowWaterMark,
+                             int writeBufferHighWaterMark,
+                             int slowClientTimeoutSeconds,
+                             int workerThreads,
+                             int acceptorThreads,
+                             int maxUpdateRate,
+                             int snapshotCandles,
+                             String upstreamUrl) {
+
+    public static final String DEFAULT_CHECKPOINT_FILE = "state/candles.json";
+    public static final int DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 5;
+    public static final int DEFAULT_WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+    public static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+    public static final int DEFAULT_SLOW_CLIENT_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_ACCEPTOR_THREADS = 1;
+    public static final int DEFAULT_MAX_UPDATE_RATE = 10;
+    public static final int DEFAULT_SNAPSHOT_CANDLES = 1000;
+
+    public StreamSettings {
+        if (checkpointFile == null) {
+            checkpointFile = DEFAULT_CHECKPOINT_FILE;
+        }
+        if (checkpointIntervalSeconds <= 0) {
+            checkpointIntervalSeconds = DEFAULT_CHECKPOINT_INTERVAL_SECONDS;
+        }
+        if (writeBufferHighWaterMark <= 0) {
+            writeBufferHighWaterMark = DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK;
+        }
+        if (writeBufferLowWaterMark <= 0 || writeBufferLowWaterMark > writeBufferHighWaterMark) {
+            writeBufferLowWaterMark = Math.min(DEFAULT_WRITE_BUFFER_LOW_WATER_MARK, writeBufferHighWaterMark / 2);
+        }
+        if (slowClientTimeoutSeconds <= 0) {
+            slowClientTimeoutSeconds = DEFAULT_SLOW_CLIENT_TIMEOUT_SECONDS;
+        }
+        // 0 leaves the worker count to Netty, twice the available processors
+        workerThreads = Math.max(workerThreads, 0);
+        if (acceptorThreads <= 0) {
+            acceptorThreads = DEFAULT_ACCEPTOR_THREADS;
+        }
+        if (maxUpdateRate <= 0) {
+            maxUpdateRate = DEFAULT_MAX_UPDATE_RATE;
+        }
+        if (snapshotCandles <= 0) {
+            snapshotCandles = DEFAULT_SNAPSHOT_CANDLES;
+        }
+        if (upstreamUrl != null && upstreamUrl.isBlank()) {
+            upstreamUrl = null;
+        }
+    }
+
+    public static StreamSettings defaults() {
+        return new StreamSettings(null, 0, 0, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    public boolean relay() {
+        return upstreamUrl != null;
+    }
+
+    /**
+     * A relay restarts from its upstream's snapshot, it keeps no checkpoint.
+     */
+    public boolean checkpointEnabled() {
+        return !relay() && !checkpointFile.isBlank();
+    }
+
+    /**
+     * Period of the ticks that push open candles, the fastest rate a subscriber can ask for.
+     */
+    public long updateIntervalMs() {
+        return Math.max(1, 1000 / maxUpdateRate);
+    }
+}
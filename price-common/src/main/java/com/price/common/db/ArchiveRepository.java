@@ -0,0 +1,8 @@
+package com.price.common.db;
+
+public interface ArchiveRepository extends AutoCloseable {
+    /**
+     * Moves closed partitions older than the configured age from hot storage to the archive.
+     */
+    void archive() throws Exception;
+}
@@ -0,0 +1,9 @@
+package com.price.common.db;
+
+/**
+ * Receives candles one by one without materializing a {@link Candle} per row.
+ */
+@FunctionalInterface
+public interface CandleConsumer {
+    void accept(long time, double open, double high, double low, double close, double volume) throws Exception;
+}
@@ -0,0 +1,93 @@
+package com.price.common.db;
+
+/**
+ * The latest closed candles of one instrument and timeframe in preallocated primitive arrays,
+ * oldest overwritten first. Written by one thread, read by any.
+ */
+public final class CandleRing {
+    private final long[] times;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final double[] volumes;
+    // Total candles added, the next one goes to count % capacity
+    private long count;
+
+    public CandleRing(int capacity) {
+        times = new long[capacity];
+        opens = new double[capacity];
+        highs = new double[capacity];
+        lows = new double[capacity];
+        closes = new double[capacity];
+        volumes = new double[capacity];
+    }
+
+    /**
+     * Adds a candle newer than the latest one, a candle with the latest time replaces it and older ones are ignored.
+     */
+    public synchronized void add(long time, double open, double high, double low, double close, double volume) {
+        int index;
+        if (count > 0 && time <= times[slot(count - 1)]) {
+            if (time < times[slot(count - 1)]) {
+                return;
+            }
+            index = slot(count - 1);
+        } else {
+            index = slot(count++);
+        }
+        times[index] = time;
+        opens[index] = open;
+        highs[index] = high;
+        lows[index] = low;
+        closes[index] = close;
+        volumes[index] = volume;
+    }
+
+    /**
+     * Appends the candles with {@code from <= time < to} to the series, oldest first.
+     */
+    public synchronized void copyTo(CandleSeries series, long from, long to) {
+        long first = Math.max(0, count - times.length);
+        for (long i = first; i < count; i++) {
+            int index = slot(i);
+            if (times[index] >= from && times[index] < to) {
+                series.add(times[index], opens[index], highs[index], lows[index], closes[index], volumes[index]);
+            }
+        }
+    }
+
+    /**
+     * Appends the latest {@code candles} candles to the series, oldest first.
+     */
+    public synchronized void copyLast(CandleSeries series, int candles) {
+        long first = Math.max(Math.max(0, count - times.length), count - candles);
+        for (long i = first; i < count; i++) {
+            int index = slot(i);
+            series.add(times[index], opens[index], highs[index], lows[index], closes[index], volumes[index]);
+        }
+    }
+
+    /**
+     * Appends the candles newer than {@code after} to the series, oldest first. False if candles in between may
+     * have been overwritten, that is the ring no longer holds the candle at {@code after} or an older one.
+     */
+    public synchronized boolean copyAfter(CandleSeries series, long after) {
+        long first = Math.max(0, count - times.length);
+        for (long i = first; i < count; i++) {
+            int index = slot(i);
+            if (times[index] > after) {
+                series.add(times[index], opens[index], highs[index], lows[index], closes[index], volumes[index]);
+            }
+        }
+        return count > 0 && times[slot(first)] <= after;
+    }
+
+    public int capacity() {
+        return times.length;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % times.length);
+    }
+}
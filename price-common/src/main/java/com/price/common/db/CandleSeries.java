@@ -0,0 +1,267 @@
+package com.price.common.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Candles of one instrument and timeframe stored column by column in primitive arrays,
+ * the allocation-free counterpart of a {@code List<Candle>}. Rows are kept in insertion order.
+ */
+public final class CandleSeries implements CandleConsumer {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final String instrument;
+    private final int timeframeMs;
+    private long[] times;
+    private double[] opens;
+    private double[] highs;
+    private double[] lows;
+    private double[] closes;
+    private double[] volumes;
+    private int size;
+
+    public CandleSeries(String instrument, int timeframeMs) {
+        this(instrument, timeframeMs, DEFAULT_CAPACITY);
+    }
+
+    public CandleSeries(String instrument, int timeframeMs, int capacity) {
+        this.instrument = instrument;
+        this.timeframeMs = timeframeMs;
+        int initial = Math.max(capacity, 1);
+        this.times = new long[initial];
+        this.opens = new double[initial];
+        this.highs = new double[initial];
+        this.lows = new double[initial];
+        this.closes = new double[initial];
+        this.volumes = new double[initial];
+    }
+
+    public static CandleSeries of(String instrument, int timeframeMs, List<Candle> candles) {
+        CandleSeries series = new CandleSeries(instrument, timeframeMs, candles.size());
+        for (Candle candle : candles) {
+            series.add(candle.time(), candle.open(), candle.high(), candle.low(), candle.close(), candle.volume());
+        }
+        return series;
+    }
+
+    @Override
+    public void accept(long time, double open, double high, double low, double close, double volume) {
+        add(time, open, high, low, close, volume);
+    }
+
+    public void add(long time, double open, double high, double low, double close, double volume) {
+        if (size == times.length) {
+            grow(size + 1);
+        }
+        times[size] = time;
+        opens[size] = open;
+        highs[size] = high;
+        lows[size] = low;
+        closes[size] = close;
+        volumes[size] = volume;
+        size++;
+    }
+
+    /**
+     * Appends rows [from, to) of another series.
+     */
+    public void addAll(CandleSeries other, int from, int to) {
+        int count = to - from;
+        if (count <= 0) {
+            return;
+        }
+        if (size + count > times.length) {
+            grow(size + count);
+        }
+        System.arraycopy(other.times, from, times, size, count);
+        System.arraycopy(other.opens, from, opens, size, count);
+        System.arraycopy(other.highs, from, highs, size, count);
+        System.arraycopy(other.lows, from, lows, size, count);
+        System.arraycopy(other.closes, from, closes, size, count);
+        System.arraycopy(other.volumes, from, volumes, size, count);
+        size += count;
+    }
+
+    public void addAll(CandleSeries other) {
+        addAll(other, 0, other.size);
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, times.length + (times.length >> 1));
+        times = Arrays.copyOf(times, capacity);
+        opens = Arrays.copyOf(opens, capacity);
+        highs = Arrays.copyOf(highs, capacity);
+        lows = Arrays.copyOf(lows, capacity);
+        closes = Arrays.copyOf(closes, capacity);
+        volumes = Arrays.copyOf(volumes, capacity);
+    }
+
+    public String instrument() {
+        return instrument;
+    }
+
+    public int timeframeMs() {
+        return timeframeMs;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long time(int index) {
+        return times[index];
+    }
+
+    public double open(int index) {
+        return opens[index];
+    }
+
+    public double high(int index) {
+        return highs[index];
+    }
+
+    public double low(int index) {
+        return lows[index];
+    }
+
+    public double close(int index) {
+        return closes[index];
+    }
+
+    public double volume(int index) {
+        return volumes[index];
+    }
+
+    /**
+     * Copy of rows [from, to).
+     */
+    public CandleSeries slice(int from, int to) {
+        CandleSeries slice = new CandleSeries(instrument, timeframeMs, to - from);
+        slice.addAll(this, from, to);
+        return slice;
+    }
+
+    /**
+     * Reverses the row order in place, e.g. after reading newest first.
+     */
+    public void reverse() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            swap(times, i, j);
+            swap(opens, i, j);
+            swap(highs, i, j);
+            swap(lows, i, j);
+            swap(closes, i, j);
+            swap(volumes, i, j);
+        }
+    }
+
+    private static void swap(long[] array, int i, int j) {
+        long value = array[i];
+        array[i] = array[j];
+        array[j] = value;
+    }
+
+    private static void swap(double[] array, int i, int j) {
+        double value = array[i];
+        array[i] = array[j];
+        array[j] = value;
+    }
+
+    /**
+     * Index of the first row with time >= the given time, rows must be sorted by time.
+     */
+    public int indexOf(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Folds rows into epoch-aligned buckets of {@code bucketMs}: first open, highest high, lowest low,
+     * last close and summed volume. Rows must be sorted by time.
+     */
+    public CandleSeries aggregate(int bucketMs) {
+        CandleSeries result = new CandleSeries(instrument, bucketMs);
+        for (int i = 0; i < size; i++) {
+            result.fold(Math.floorDiv(times[i], bucketMs) * bucketMs, opens[i], highs[i], lows[i], closes[i], volumes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Appends a later series of the same bucket size. If the first bucket of {@code other} is the
+     * last bucket of this series, e.g. when a range was split inside a bucket, the two are folded.
+     */
+    public void concat(CandleSeries other) {
+        int from = 0;
+        if (size > 0 && other.size > 0 && other.times[0] == times[size - 1]) {
+            fold(other.times[0], other.opens[0], other.highs[0], other.lows[0], other.closes[0], other.volumes[0]);
+            from = 1;
+        }
+        addAll(other, from, other.size);
+    }
+
+    private void fold(long bucket, double open, double high, double low, double close, double volume) {
+        int last = size - 1;
+        if (last < 0 || times[last] != bucket) {
+            add(bucket, open, high, low, close, volume);
+            return;
+        }
+        highs[last] = Math.max(highs[last], high);
+        lows[last] = Math.min(lows[last], low);
+        closes[last] = close;
+        volumes[last] += volume;
+    }
+
+    /**
+     * 64-bit hash of the instrument, bucket size and every value, equal for series with equal content.
+     * Not cryptographic, meant for validators such as HTTP entity tags.
+     */
+    public long contentHash() {
+        long hash = mix(instrument.hashCode(), timeframeMs);
+        for (int i = 0; i < size; i++) {
+            hash = mix(hash, times[i]);
+            hash = mix(hash, Double.doubleToLongBits(opens[i]));
+            hash = mix(hash, Double.doubleToLongBits(highs[i]));
+            hash = mix(hash, Double.doubleToLongBits(lows[i]));
+            hash = mix(hash, Double.doubleToLongBits(closes[i]));
+            hash = mix(hash, Double.doubleToLongBits(volumes[i]));
+        }
+        // murmur3 finalizer
+        hash ^= size;
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static long mix(long hash, long value) {
+        return Long.rotateLeft(hash ^ (value * 0x9e3779b97f4a7c15L), 31) * 0xbf58476d1ce4e5b9L;
+    }
+
+    public void forEach(CandleConsumer consumer) throws Exception {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(times[i], opens[i], highs[i], lows[i], closes[i], volumes[i]);
+        }
+    }
+
+    public List<Candle> toCandles() {
+        List<Candle> candles = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            candles.add(new Candle(instrument, timeframeMs, times[i], opens[i], highs[i], lows[i], closes[i], volumes[i]));
+        }
+        return candles;
+    }
+}
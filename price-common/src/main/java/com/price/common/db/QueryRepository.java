@@ -1,7 +1,81 @@
 package com.price.common.db;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface QueryRepository extends AutoCloseable {
     List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception;
+
+    /**
+     * Same rows as {@link #queryCandles} in columnar form. Implementations should override this
+     * to fill the series straight from storage without a {@link Candle} per row.
+     */
+    default CandleSeries querySeries(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        return CandleSeries.of(instrument, timeframeMs, queryCandles(instrument, timeframeMs, fromTimestamp, toTimestamp));
+    }
+
+    /**
+     * Stored candles of {@code timeframeMs} folded into epoch-aligned buckets of {@code bucketMs}, a multiple
+     * of the timeframe. Implementations should push the aggregation down to storage.
+     */
+    default CandleSeries queryAggregated(String instrument, int timeframeMs, int bucketMs,
+                                         long fromTimestamp, long toTimestamp) throws Exception {
+        return querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp).aggregate(bucketMs);
+    }
+
+    /**
+     * At most {@code limit} candles in [from, to), the oldest ones or with {@code newest} the most recent ones,
+     * sorted by ascending time either way. {@code bucketMs} works as in {@link #queryAggregated}, pass the
+     * timeframe for stored candles.
+     * <p>
+     * The default scans windows sized for {@code limit} candles from the requested end of the range and doubles
+     * them while gaps leave the page short, so memory stays bounded by the page. Implementations should override
+     * this with an ordered, limited scan.
+     */
+    default CandleSeries queryPage(String instrument, int timeframeMs, int bucketMs,
+                                   long fromTimestamp, long toTimestamp, int limit, boolean newest) throws Exception {
+        CandleSeries page = new CandleSeries(instrument, bucketMs, limit);
+        long window = Math.max((long) limit * bucketMs, bucketMs);
+        if (newest) {
+            List<CandleSeries> parts = new ArrayList<>();
+            int count = 0;
+            long end = toTimestamp;
+            while (count < limit && end > fromTimestamp) {
+                long start = Math.max(fromTimestamp, Math.floorDiv(end - window, bucketMs) * bucketMs);
+                CandleSeries part = bucketMs == timeframeMs
+                        ? querySeries(instrument, timeframeMs, start, end)
+                        : queryAggregated(instrument, timeframeMs, bucketMs, start, end);
+                parts.add(part);
+                count += part.size();
+                end = start;
+                if (window < Long.MAX_VALUE / 4) {
+                    window *= 2;
+                }
+            }
+            int skip = Math.max(count - limit, 0);
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                CandleSeries part = parts.get(i);
+                int from = Math.min(skip, part.size());
+                page.addAll(part, from, part.size());
+                skip -= from;
+            }
+        } else {
+            long start = fromTimestamp;
+            while (page.size() < limit && start < toTimestamp) {
+                long end = Math.min(toTimestamp, Math.floorDiv(start + window, bucketMs) * bucketMs);
+                if (end <= start) {
+                    end = Math.min(toTimestamp, start + bucketMs);
+                }
+                CandleSeries part = bucketMs == timeframeMs
+                        ? querySeries(instrument, timeframeMs, start, end)
+                        : queryAggregated(instrument, timeframeMs, bucketMs, start, end);
+                page.addAll(part, 0, Math.min(part.size(), limit - page.size()));
+                start = end;
+                if (window < Long.MAX_VALUE / 4) {
+                    window *= 2;
+                }
+            }
+        }
+        return page;
+    }
 }
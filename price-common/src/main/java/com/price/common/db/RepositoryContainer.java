@@ -18,10 +18,13 @@ import java.util.concurrent.ConcurrentHashMap;
 public class RepositoryContainer implements AutoCloseable {
     private final PriceConfiguration configuration;
 
-    private final List repositories = new ArrayList<>();
+    private final List<SaveRepository> saveRepositories = new ArrayList<>();
+    private final List<QueryRepository> queryRepositories = new ArrayList<>();
     private final AutowireCapableBeanFactory beanFactory;
     private final Map<String, Class<?>> saveRepositoryClasses = new ConcurrentHashMap<>();
     private final Map<String, Class<?>> queryRepositoryClasses = new ConcurrentHashMap<>();
+    private final Map<String, Class<?>> archiveRepositoryClasses = new ConcurrentHashMap<>();
+    private final Map<String, RepositoryRegistry> registries = new ConcurrentHashMap<>();
 
     public RepositoryContainer(PriceConfiguration configuration,
                                ApplicationContext applicationContext,
@@ -29,25 +32,67 @@ public class RepositoryContainer implements AutoCloseable {
         this.configuration = configuration;
         this.beanFactory = applicationContext.getAutowireCapableBeanFactory();
         for (RepositoryRegistry registry : repositoryRegistries) {
+            registries.put(registry.getName(), registry);
             saveRepositoryClasses.put(registry.getName(), registry.getSaveRepositoryClass());
             queryRepositoryClasses.put(registry.getName(), registry.getQueryRepositoryClass());
+            if (registry.getArchiveRepositoryClass() != null) {
+                archiveRepositoryClasses.put(registry.getName(), registry.getArchiveRepositoryClass());
+            }
         }
     }
 
     public List<SaveRepository> getSaveRepositories() {
-        return getRepositories(saveRepositoryClasses);
+        return getRepositories(saveRepositoryClasses, saveRepositories);
+    }
+
+    /**
+     * Prepares the schema of the database, before any of its save repositories is created.
+     */
+    public void prepare(DataBase dataBase) {
+        RepositoryRegistry registry = registries.get(dataBase.type());
+        if (registry == null) {
+            throw new IllegalArgumentException("Unknown repository type: " + dataBase.type());
+        }
+        registry.prepare(dataBase);
+    }
+
+    public SaveRepository createSaveRepository(DataBase dataBase) {
+        Class<?> repositoryClazz = saveRepositoryClasses.get(dataBase.type());
+        if (repositoryClazz == null) {
+            throw new IllegalArgumentException("Unknown repository type: " + dataBase.type());
+        }
+        return (SaveRepository) beanFactory.getBean(repositoryClazz, dataBase);
+    }
+
+    public QueryRepository createQueryRepository(DataBase dataBase) {
+        Class<?> repositoryClazz = queryRepositoryClasses.get(dataBase.type());
+        if (repositoryClazz == null) {
+            throw new IllegalArgumentException("Unknown repository type: " + dataBase.type());
+        }
+        return (QueryRepository) beanFactory.getBean(repositoryClazz, dataBase);
+    }
+
+    /**
+     * Archive repository for the database, or null if its type does not support archiving.
+     */
+    public ArchiveRepository createArchiveRepository(DataBase dataBase) {
+        Class<?> repositoryClazz = archiveRepositoryClasses.get(dataBase.type());
+        if (repositoryClazz == null) {
+            return null;
+        }
+        return (ArchiveRepository) beanFactory.getBean(repositoryClazz, dataBase);
     }
 
     public List<QueryRepository> getQueryRepositories() {
-        return getRepositories(queryRepositoryClasses);
+        return getRepositories(queryRepositoryClasses, queryRepositories);
     }
 
     @SuppressWarnings("unchecked")
-    private <T> List<T> getRepositories(Map<String, Class<?>> classMap) {
+    private <T> List<T> getRepositories(Map<String, Class<?>> classMap, List<T> repositories) {
         if (repositories.isEmpty()) {
             for (DataBase dataBase : configuration.dataBases()) {
                 Class<?> repositoryClazz = classMap.get(dataBase.type());
-                repositories.add(beanFactory.getBean(repositoryClazz, dataBase));
+                repositories.add((T) beanFactory.getBean(repositoryClazz, dataBase));
             }
         }
         return repositories;
@@ -1,7 +1,20 @@
 package com.price.common.db;
 
+import com.price.common.config.DataBase;
+
 public interface RepositoryRegistry {
     String getName();
     Class<? extends SaveRepository> getSaveRepositoryClass();
     Class<? extends QueryRepository> getQueryRepositoryClass();
+
+    default Class<? extends ArchiveRepository> getArchiveRepositoryClass() {
+        return null;
+    }
+
+    /**
+     * Creates or migrates the schema of the database. Called once per database before its save repositories
+     * are created.
+     */
+    default void prepare(DataBase dataBase) {
+    }
 }
@@ -0,0 +1,170 @@
+package com.price.common.history;
+
+import com.price.common.db.CandleSeries;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary encoding of a history response, the compact alternative to the {@code {s,t,o,h,l,c,v}} JSON.
+ * <p>
+ * All values are little-endian:
+ * <pre>
+ * int32   magic "PSHC"
+ * uint8   version
+ * uint8   flags, bit 0 = body is deflated
+ * uint16  instrument length, followed by the UTF-8 instrument
+ * int32   timeframe in milliseconds
+ * int32   rows
+ * uint8[6] encoding of t, o, h, l, c, v
+ * body    six columns of rows * 8 bytes: t as int64 milliseconds, o/h/l/c/v as float64
+ * </pre>
+ * Column encodings: {@link #PLAIN} stores the value, {@link #DELTA} stores the difference to the previous
+ * row ({@code t} only) and {@link #XOR} stores the raw bits XOR'd with the previous row (prices and volume).
+ * Both turn slowly changing columns into long runs of zero bytes, which is what makes deflate effective.
+ */
+public final class HistoryCodec {
+    public static final String MEDIA_TYPE = "application/vnd.price.candles";
+    public static final String MEDIA_TYPE_DEFLATE = "application/vnd.price.candles+deflate";
+
+    public static final int MAGIC = 0x43485350; // "PSHC" read as little-endian
+    public static final int VERSION = 1;
+    public static final int FLAG_DEFLATE = 1;
+
+    public static final byte PLAIN = 0;
+    public static final byte DELTA = 1;
+    public static final byte XOR = 2;
+
+    private static final int COLUMNS = 6;
+
+    private HistoryCodec() {
+    }
+
+    /**
+     * Writes the series uncompressed with plain columns, or deflated with delta/XOR columns.
+     * The stream is flushed but not closed.
+     */
+    public static void write(CandleSeries series, boolean compress, OutputStream output) throws IOException {
+        byte[] instrument = series.instrument() == null ? new byte[0] : series.instrument().getBytes(StandardCharsets.UTF_8);
+        byte[] encodings = new byte[COLUMNS];
+        if (compress) {
+            encodings[0] = DELTA;
+            for (int column = 1; column < COLUMNS; column++) {
+                encodings[column] = XOR;
+            }
+        }
+
+        DataOutputStream header = new DataOutputStream(output);
+        header.writeInt(Integer.reverseBytes(MAGIC));
+        header.writeByte(VERSION);
+        header.writeByte(compress ? FLAG_DEFLATE : 0);
+        header.writeShort(Short.reverseBytes((short) instrument.length));
+        header.write(instrument);
+        header.writeInt(Integer.reverseBytes(series.timeframeMs()));
+        header.writeInt(Integer.reverseBytes(series.size()));
+        header.write(encodings);
+        header.flush();
+
+        if (compress) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DeflaterOutputStream deflated = new DeflaterOutputStream(output, deflater, 65536);
+                writeBody(series, encodings, new DataOutputStream(deflated));
+                deflated.finish();
+            } finally {
+                deflater.end();
+            }
+        } else {
+            writeBody(series, encodings, new DataOutputStream(new BufferedOutputStream(output, 65536)));
+        }
+        output.flush();
+    }
+
+    private static void writeBody(CandleSeries series, byte[] encodings, DataOutputStream out) throws IOException {
+        int size = series.size();
+        long previousTime = 0;
+        for (int i = 0; i < size; i++) {
+            long time = series.time(i);
+            out.writeLong(Long.reverseBytes(encodings[0] == DELTA ? time - previousTime : time));
+            previousTime = time;
+        }
+        for (int column = 1; column < COLUMNS; column++) {
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                long bits = Double.doubleToRawLongBits(value(series, column, i));
+                out.writeLong(Long.reverseBytes(encodings[column] == XOR ? bits ^ previous : bits));
+                previous = bits;
+            }
+        }
+        out.flush();
+    }
+
+    private static double value(CandleSeries series, int column, int index) {
+        return switch (column) {
+            case 1 -> series.open(index);
+            case 2 -> series.high(index);
+            case 3 -> series.low(index);
+            case 4 -> series.close(index);
+            default -> series.volume(index);
+        };
+    }
+
+    /**
+     * Reads a response written by {@link #write}. The stream is not closed.
+     */
+    public static CandleSeries read(InputStream input) throws IOException {
+        DataInputStream header = new DataInputStream(input);
+        if (Integer.reverseBytes(header.readInt()) != MAGIC) {
+            throw new IOException("Not a candle history response");
+        }
+        int version = header.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported candle history version " + version);
+        }
+        int flags = header.readUnsignedByte();
+        byte[] instrument = header.readNBytes(Short.toUnsignedInt(Short.reverseBytes(header.readShort())));
+        int timeframeMs = Integer.reverseBytes(header.readInt());
+        int rows = Integer.reverseBytes(header.readInt());
+        byte[] encodings = header.readNBytes(COLUMNS);
+        if (rows < 0 || encodings.length != COLUMNS) {
+            throw new IOException("Corrupt candle history header");
+        }
+
+        InputStream body = (flags & FLAG_DEFLATE) != 0 ? new InflaterInputStream(input) : input;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(body, 65536));
+        long[] times = new long[rows];
+        long time = 0;
+        for (int i = 0; i < rows; i++) {
+            long value = Long.reverseBytes(in.readLong());
+            time = encodings[0] == DELTA ? time + value : value;
+            times[i] = time;
+        }
+        double[][] columns = new double[COLUMNS - 1][rows];
+        for (int column = 1; column < COLUMNS; column++) {
+            long previous = 0;
+            for (int i = 0; i < rows; i++) {
+                long bits = Long.reverseBytes(in.readLong());
+                if (encodings[column] == XOR) {
+                    bits ^= previous;
+                }
+                columns[column - 1][i] = Double.longBitsToDouble(bits);
+                previous = bits;
+            }
+        }
+
+        CandleSeries series = new CandleSeries(new String(instrument, StandardCharsets.UTF_8), timeframeMs, rows);
+        for (int i = 0; i < rows; i++) {
+            series.add(times[i], columns[0][i], columns[1][i], columns[2][i], columns[3][i], columns[4][i]);
+        }
+        return series;
+    }
+}
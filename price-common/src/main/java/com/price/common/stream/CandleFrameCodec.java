@@ -0,0 +1,80 @@
+package com.price.common.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary WebSocket frames of price-stream, the compact alternative to the JSON {@code [{i,t,f,o,h,l,c,v}]}
+ * messages for clients negotiating the {@link #SUBPROTOCOL} subprotocol.
+ * <p>
+ * A frame holds one or more fixed-size records, all values little-endian:
+ * <pre>
+ * uint8    type, 1 = closed candle, 2 = update of a candle that is still open
+ * uint8    flags, 0
+ * uint16   reserved, 0
+ * int32    instrument id, sent in the SUBSCRIBED reply to the subscription
+ * int32    timeframe in milliseconds
+ * int64    candle start time in milliseconds
+ * float64  open, high, low, close, volume
+ * </pre>
+ * Records of unknown types are skipped, so new ones can be added without breaking existing readers.
+ */
+public final class CandleFrameCodec {
+    public static final String SUBPROTOCOL = "price.candles.v1";
+
+    public static final int RECORD_SIZE = 60;
+    public static final byte CANDLE = 1;
+    public static final byte OPEN_CANDLE = 2;
+
+    @FunctionalInterface
+    public interface Handler {
+        void candle(boolean closed, int instrumentId, int timeframeMs, long time,
+                    double open, double high, double low, double close, double volume);
+    }
+
+    private CandleFrameCodec() {
+    }
+
+    /**
+     * Writes one record of the given type at the buffer's position, which must have {@link #RECORD_SIZE} bytes
+     * remaining.
+     */
+    public static void write(ByteBuffer buffer, byte type, int instrumentId, int timeframeMs, long time,
+                             double open, double high, double low, double close, double volume) {
+        ByteBuffer out = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        out.put(type);
+        out.put((byte) 0);
+        out.putShort((short) 0);
+        out.putInt(instrumentId);
+        out.putInt(timeframeMs);
+        out.putLong(time);
+        out.putDouble(open);
+        out.putDouble(high);
+        out.putDouble(low);
+        out.putDouble(close);
+        out.putDouble(volume);
+    }
+
+    /**
+     * Reads the records from the frame's position to its limit, returns the number of candles passed to the handler.
+     */
+    public static int read(ByteBuffer frame, Handler handler) {
+        if (frame.remaining() % RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("Not a candle frame, " + frame.remaining() + " bytes");
+        }
+        ByteBuffer in = frame.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int candles = 0;
+        for (int offset = 0; offset < in.limit(); offset += RECORD_SIZE) {
+            byte type = in.get(offset);
+            if (type != CANDLE && type != OPEN_CANDLE) {
+                continue;
+            }
+            handler.candle(type == CANDLE, in.getInt(offset + 4), in.getInt(offset + 8), in.getLong(offset + 12),
+                    in.getDouble(offset + 20), in.getDouble(offset + 28), in.getDouble(offset + 36),
+                    in.getDouble(offset + 44), in.getDouble(offset + 52));
+            candles++;
+        }
+        frame.position(frame.limit());
+        return candles;
+    }
+}
@@ -0,0 +1,254 @@
+package com.price.common.stream;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client of a price-stream {@code /stream} WebSocket, used by the live tail of price-query and by relays.
+ * Subscribes to a fixed list of streams and hands every candle received to a {@link Handler}.
+ * <p>
+ * Asks for the binary {@link CandleFrameCodec} subprotocol and reads JSON candles from a price-stream that
+ * doesn't offer it. Reconnects with backoff while price-stream is unavailable and resumes each stream after the
+ * last closed candle it got, so price-stream replays the candles published in between.
+ */
+@Slf4j
+public class StreamClient implements WebSocket.Listener, AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final long MIN_RECONNECT_DELAY_MS = 500;
+    private static final long MAX_RECONNECT_DELAY_MS = 30_000;
+
+    @FunctionalInterface
+    public interface Handler {
+        void candle(String instrument, int timeframeMs, boolean closed, long time,
+                    double open, double high, double low, double close, double volume);
+    }
+
+    public record Stream(String instrument, int timeframe) {
+    }
+
+    // Candle events of price-stream: instrument, start time, timeframe, OHLCV and whether the candle is still open
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private record StreamEvent(String i, long t, long f, double o, double h, double l, double c, double v, boolean p) {
+    }
+
+    private final String name;
+    private final String url;
+    private final List<Stream> streams;
+    private final Map<String, Object> options;
+    private final Handler handler;
+    private final StringBuilder message = new StringBuilder();
+    // Instruments by the id price-stream gave them, binary frames only carry the id
+    private final Map<Integer, String> instrumentIds = new ConcurrentHashMap<>();
+    // Start time of the latest closed candle per stream, kept across reconnects
+    private final Map<Stream, Long> lastCandles = new ConcurrentHashMap<>();
+    private ByteBuffer frame = ByteBuffer.allocate(CandleFrameCodec.RECORD_SIZE * 16);
+    private ScheduledExecutorService scheduler;
+    private HttpClient httpClient;
+    private volatile WebSocket webSocket;
+    private volatile boolean closed;
+    private volatile long reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+
+    /**
+     * @param name    names the client thread and its log messages
+     * @param options further fields of every SUBSCRIBE request, e.g. the update rate or the snapshot size
+     */
+    public StreamClient(String name, String url, List<Stream> streams, Map<String, Object> options, Handler handler) {
+        this.name = name;
+        this.url = url;
+        this.streams = List.copyOf(streams);
+        this.options = Map.copyOf(options);
+        this.handler = handler;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name(name).factory());
+        httpClient = HttpClient.newBuilder().executor(scheduler).build();
+        connect();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        WebSocket current = webSocket;
+        if (current != null) {
+            current.abort();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void connect() {
+        if (closed) {
+            return;
+        }
+        httpClient.newWebSocketBuilder()
+                .subprotocols(CandleFrameCodec.SUBPROTOCOL)
+                .buildAsync(URI.create(url), this)
+                .thenCompose(this::subscribe)
+                .whenComplete((ws, error) -> {
+                    if (error != null) {
+                        log.warn("{} connection to {} failed: {}", name, url, error.getMessage());
+                        reconnect();
+                    }
+                });
+    }
+
+    private CompletableFuture<WebSocket> subscribe(WebSocket ws) {
+        if (!CandleFrameCodec.SUBPROTOCOL.equals(ws.getSubprotocol())) {
+            log.warn("{} {} doesn't offer the {} subprotocol, reading JSON candles", name, url,
+                    CandleFrameCodec.SUBPROTOCOL);
+        }
+        webSocket = ws;
+        instrumentIds.clear();
+        // The next send may only start when the previous one completed
+        CompletableFuture<WebSocket> sent = CompletableFuture.completedFuture(ws);
+        for (Stream stream : streams) {
+            String subscription = subscription(stream);
+            sent = sent.thenCompose(w -> w.sendText(subscription, true));
+        }
+        return sent.thenApply(w -> {
+            log.info("{} subscribed to {}", name, url);
+            reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+            return w;
+        });
+    }
+
+    /**
+     * A new stream starts as the options ask, a known one resumes after its last closed candle.
+     */
+    String subscription(Stream stream) {
+        Map<String, Object> request = new HashMap<>(options);
+        request.put("type", "SUBSCRIBE");
+        request.put("instrument", stream.instrument());
+        request.put("timeframe", stream.timeframe());
+        Long last = lastCandles.get(stream);
+        if (last != null) {
+            request.put("resume", last);
+        }
+        try {
+            return MAPPER.writeValueAsString(request);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void reconnect() {
+        if (closed) {
+            return;
+        }
+        long delay = reconnectDelayMs;
+        reconnectDelayMs = Math.min(reconnectDelayMs * 2, MAX_RECONNECT_DELAY_MS);
+        scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+        message.append(data);
+        if (last) {
+            try {
+                JsonNode node = MAPPER.readTree(message.toString());
+                if (node.isObject()) {
+                    handleReply(node);
+                } else {
+                    for (StreamEvent event : MAPPER.treeToValue(node, StreamEvent[].class)) {
+                        candle(event.i(), (int) event.f(), !event.p(), event.t(),
+                                event.o(), event.h(), event.l(), event.c(), event.v());
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Failed to read {} message", name, e);
+            } finally {
+                message.setLength(0);
+            }
+        }
+        ws.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket ws, ByteBuffer data, boolean last) {
+        if (frame.remaining() < data.remaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(frame.capacity() * 2, frame.position() + data.remaining()));
+            frame = larger.put(frame.flip());
+        }
+        frame.put(data);
+        if (last) {
+            try {
+                CandleFrameCodec.read(frame.flip(), this::binaryCandle);
+            } catch (Exception e) {
+                log.error("Failed to read {} frame", name, e);
+            } finally {
+                frame.clear();
+            }
+        }
+        ws.request(1);
+        return null;
+    }
+
+    /**
+     * SUBSCRIBED carries the instrument id of a binary subscription, RESUMED whether the replay is complete.
+     */
+    private void handleReply(JsonNode reply) {
+        String type = reply.path("type").asText();
+        switch (type) {
+            case "SUBSCRIBED" -> instrumentIds.put(reply.path("id").asInt(), reply.path("instrument").asText());
+            case "RESUMED" -> {
+                if (!reply.path("complete").asBoolean()) {
+                    log.warn("{} replay of {} {} no longer reaches back to the last candle received", name,
+                            reply.path("instrument").asText(), reply.path("timeframe").asInt());
+                }
+            }
+            default -> log.warn("Ignoring {} message of type '{}'", name, type);
+        }
+    }
+
+    private void binaryCandle(boolean closed, int instrumentId, int timeframeMs, long time,
+                              double open, double high, double low, double close, double volume) {
+        String instrument = instrumentIds.get(instrumentId);
+        if (instrument != null) {
+            candle(instrument, timeframeMs, closed, time, open, high, low, close, volume);
+        }
+    }
+
+    private void candle(String instrument, int timeframeMs, boolean closed, long time,
+                        double open, double high, double low, double close, double volume) {
+        handler.candle(instrument, timeframeMs, closed, time, open, high, low, close, volume);
+        if (closed) {
+            lastCandles.merge(new Stream(instrument, timeframeMs), time, Math::max);
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket ws, int statusCode, String reason) {
+        log.warn("{} connection closed: {} {}", name, statusCode, reason);
+        message.setLength(0);
+        frame.clear();
+        reconnect();
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket ws, Throwable error) {
+        log.warn("{} connection error: {}", name, error.getMessage());
+        message.setLength(0);
+        frame.clear();
+        reconnect();
+    }
+}
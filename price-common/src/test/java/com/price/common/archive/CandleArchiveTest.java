@@ -0,0 +1,158 @@
+package com.price.common.archive;
+
+import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.db.QueryRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandleArchiveTest {
+
+    private static final String INSTRUMENT = "BTCUSDT@binance";
+    private static final int TIMEFRAME_MS = 60000;
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testRoundTripAcrossBlocks() throws Exception {
+        int rows = CandleArchive.BLOCK_ROWS * 2 + 17;
+        Path file = writeMonth(YearMonth.of(2024, 1), rows);
+
+        List<long[]> times = new ArrayList<>();
+        List<double[]> values = new ArrayList<>();
+        try (CandleArchiveReader reader = new CandleArchiveReader(file)) {
+            reader.read(Long.MIN_VALUE, Long.MAX_VALUE, (time, open, high, low, close, volume) -> {
+                times.add(new long[]{time});
+                values.add(new double[]{open, high, low, close, volume});
+            });
+        }
+
+        assertEquals(rows, times.size());
+        long start = CandleArchive.monthStart(YearMonth.of(2024, 1));
+        for (int i = 0; i < rows; i++) {
+            assertEquals(start + (long) i * TIMEFRAME_MS, times.get(i)[0]);
+            assertArrayEquals(new double[]{100 + i * 0.01, 101 + i * 0.01, 99 + i * 0.01, 100.5 + i * 0.01, i}, values.get(i));
+        }
+    }
+
+    @Test
+    void testReadRangeIsHalfOpen() throws Exception {
+        Path file = writeMonth(YearMonth.of(2024, 1), CandleArchive.BLOCK_ROWS * 3);
+        long start = CandleArchive.monthStart(YearMonth.of(2024, 1));
+        long from = start + (long) (CandleArchive.BLOCK_ROWS + 5) * TIMEFRAME_MS;
+        long to = from + 10L * TIMEFRAME_MS;
+
+        List<Long> times = new ArrayList<>();
+        try (CandleArchiveReader reader = new CandleArchiveReader(file)) {
+            reader.read(from, to, (time, open, high, low, close, volume) -> times.add(time));
+        }
+
+        assertEquals(10, times.size());
+        assertEquals(from, times.getFirst());
+        assertEquals(to - TIMEFRAME_MS, times.getLast());
+    }
+
+    @Test
+    void testQueryRepositorySpansMonths() throws Exception {
+        writeMonth(YearMonth.of(2024, 1), 100);
+        writeMonth(YearMonth.of(2024, 2), 100);
+        ArchiveQueryRepository repository = new ArchiveQueryRepository(root);
+
+        long from = CandleArchive.monthStart(YearMonth.of(2024, 2)) - 10L * TIMEFRAME_MS;
+        long to = CandleArchive.monthStart(YearMonth.of(2024, 2)) + 10L * TIMEFRAME_MS;
+        List<Candle> candles = repository.queryCandles(INSTRUMENT, TIMEFRAME_MS, from, to);
+
+        // January only has its first 100 minutes, so just the February candles match
+        assertEquals(10, candles.size());
+        assertEquals(CandleArchive.monthStart(YearMonth.of(2024, 2)), candles.getFirst().time());
+    }
+
+    @Test
+    void testTieredPagesContinueInTheOtherTier() throws Exception {
+        writeMonth(YearMonth.of(2024, 1), 100);
+        long boundary = CandleArchive.monthStart(YearMonth.of(2024, 2));
+        CandleArchive.writeArchivedBefore(root, boundary);
+        List<Long> hotQueries = new ArrayList<>();
+        // Hot storage holds the first 5 minutes of February
+        QueryRepository hot = new QueryRepository() {
+            @Override
+            public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) {
+                hotQueries.add(fromTimestamp);
+                List<Candle> candles = new ArrayList<>();
+                long end = Math.min(toTimestamp, boundary + 5L * TIMEFRAME_MS);
+                for (long time = Math.max(fromTimestamp, boundary); time < end; time += TIMEFRAME_MS) {
+                    candles.add(new Candle(instrument, timeframeMs, time, 1, 1, 1, 1, 1));
+                }
+                return candles;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        TieredQueryRepository repository = new TieredQueryRepository(hot, new ArchiveQueryRepository(root));
+        long from = CandleArchive.monthStart(YearMonth.of(2024, 1));
+        long to = boundary + 10L * TIMEFRAME_MS;
+
+        CandleSeries recent = repository.queryPage(INSTRUMENT, TIMEFRAME_MS, TIMEFRAME_MS, from, to, 3, true);
+        assertEquals(3, recent.size());
+        assertEquals(boundary + 2L * TIMEFRAME_MS, recent.time(0));
+        assertTrue(hotQueries.stream().allMatch(time -> time >= boundary));
+
+        CandleSeries newest = repository.queryPage(INSTRUMENT, TIMEFRAME_MS, TIMEFRAME_MS, from, to, 8, true);
+        assertEquals(8, newest.size());
+        assertEquals(from + 97L * TIMEFRAME_MS, newest.time(0));
+        assertEquals(boundary + 4L * TIMEFRAME_MS, newest.time(7));
+
+        CandleSeries oldest = repository.queryPage(INSTRUMENT, TIMEFRAME_MS, TIMEFRAME_MS, from, to, 102, false);
+        assertEquals(102, oldest.size());
+        assertEquals(from, oldest.time(0));
+        assertEquals(boundary + TIMEFRAME_MS, oldest.time(101));
+    }
+
+    @Test
+    void testUnfinishedWriterLeavesNoFile() throws Exception {
+        Path file = CandleArchive.file(root, INSTRUMENT, TIMEFRAME_MS, YearMonth.of(2024, 1));
+        try (CandleArchiveWriter writer = new CandleArchiveWriter(file)) {
+            writer.append(0, 1, 1, 1, 1, 1);
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void testManifest() throws Exception {
+        assertEquals(0, CandleArchive.readArchivedBefore(root));
+        CandleArchive.writeArchivedBefore(root, 1706745600000L);
+        assertEquals(1706745600000L, CandleArchive.readArchivedBefore(root));
+        assertEquals(1706745600000L, new ArchiveQueryRepository(root).archivedBefore());
+    }
+
+    @Test
+    void testInstrumentCannotEscapeRoot() {
+        assertThrows(IllegalArgumentException.class,
+                () -> CandleArchive.file(root, "../etc", TIMEFRAME_MS, YearMonth.of(2024, 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> CandleArchive.file(root, "a/b", TIMEFRAME_MS, YearMonth.of(2024, 1)));
+    }
+
+    private Path writeMonth(YearMonth month, int rows) throws Exception {
+        Path file = CandleArchive.file(root, INSTRUMENT, TIMEFRAME_MS, month);
+        long start = CandleArchive.monthStart(month);
+        try (CandleArchiveWriter writer = new CandleArchiveWriter(file)) {
+            for (int i = 0; i < rows; i++) {
+                writer.append(start + (long) i * TIMEFRAME_MS, 100 + i * 0.01, 101 + i * 0.01, 99 + i * 0.01, 100.5 + i * 0.01, i);
+            }
+            writer.finish();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,62 @@
+package com.price.common.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandleRingTest {
+
+    @Test
+    void testOldestCandlesAreOverwritten() {
+        CandleRing ring = new CandleRing(3);
+        for (long time = 0; time < 5; time++) {
+            ring.add(time, 1, 2, 0.5, 1.5, time);
+        }
+
+        CandleSeries series = new CandleSeries("BTCUSDT@binance", 1);
+        ring.copyTo(series, 0, Long.MAX_VALUE);
+        assertEquals(3, series.size());
+        assertEquals(2, series.time(0));
+        assertEquals(4, series.time(2));
+    }
+
+    @Test
+    void testCopyLast() {
+        CandleRing ring = new CandleRing(4);
+        ring.add(1, 1, 2, 0.5, 1.5, 10);
+        ring.add(2, 1, 2, 0.5, 1.5, 10);
+        // Same time replaces, older is ignored
+        ring.add(2, 1, 3, 0.5, 1.5, 20);
+        ring.add(1, 1, 2, 0.5, 1.5, 30);
+
+        CandleSeries last = new CandleSeries("BTCUSDT@binance", 1);
+        ring.copyLast(last, 1);
+        assertEquals(1, last.size());
+        assertEquals(2, last.time(0));
+        assertEquals(20, last.volume(0));
+
+        CandleSeries all = new CandleSeries("BTCUSDT@binance", 1);
+        ring.copyLast(all, 10);
+        assertEquals(2, all.size());
+        assertEquals(1, all.time(0));
+    }
+
+    @Test
+    void testCopyAfter() {
+        CandleRing ring = new CandleRing(3);
+        for (long time = 0; time < 5; time++) {
+            ring.add(time, 1, 2, 0.5, 1.5, time);
+        }
+
+        CandleSeries gap = new CandleSeries("BTCUSDT@binance", 1);
+        assertTrue(ring.copyAfter(gap, 2));
+        assertEquals(2, gap.size());
+        assertEquals(3, gap.time(0));
+        assertTrue(ring.copyAfter(new CandleSeries("BTCUSDT@binance", 1), 4));
+
+        // Candle 1 was overwritten, the ring can't tell what followed the client's last one
+        CandleSeries partial = new CandleSeries("BTCUSDT@binance", 1);
+        assertFalse(ring.copyAfter(partial, 0));
+        assertEquals(3, partial.size());
+    }
+}
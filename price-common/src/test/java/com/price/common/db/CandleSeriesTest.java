@@ -0,0 +1,79 @@
+package com.price.common.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class CandleSeriesTest {
+
+    @Test
+    void testAggregate() {
+        CandleSeries series = new CandleSeries("BTCUSDT@binance", 60000);
+        series.add(0, 10, 12, 9, 11, 1);
+        series.add(60000, 11, 15, 10, 14, 2);
+        series.add(120000, 14, 14, 8, 9, 3);
+        series.add(180000, 9, 10, 7, 8, 4);
+
+        CandleSeries aggregated = series.aggregate(180000);
+
+        assertEquals(180000, aggregated.timeframeMs());
+        assertEquals(2, aggregated.size());
+        assertCandle(aggregated, 0, 0, 10, 15, 8, 9, 6);
+        assertCandle(aggregated, 1, 180000, 9, 10, 7, 8, 4);
+    }
+
+    @Test
+    void testConcatFoldsSharedBucket() {
+        CandleSeries first = new CandleSeries("BTCUSDT@binance", 3600000);
+        first.add(0, 10, 12, 9, 11, 1);
+        CandleSeries second = new CandleSeries("BTCUSDT@binance", 3600000);
+        second.add(0, 11, 13, 10, 12, 2);
+        second.add(3600000, 12, 12, 11, 11, 3);
+
+        first.concat(second);
+
+        assertEquals(2, first.size());
+        assertCandle(first, 0, 0, 10, 13, 9, 12, 3);
+        assertCandle(first, 1, 3600000, 12, 12, 11, 11, 3);
+    }
+
+    @Test
+    void testIndexOf() {
+        CandleSeries series = new CandleSeries("BTCUSDT@binance", 60000, 1);
+        for (int i = 0; i < 100; i++) {
+            series.add(i * 60000L, 1, 1, 1, 1, 1);
+        }
+        assertEquals(0, series.indexOf(-1));
+        assertEquals(10, series.indexOf(600000));
+        assertEquals(11, series.indexOf(600001));
+        assertEquals(100, series.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testContentHash() {
+        CandleSeries series = new CandleSeries("BTCUSDT@binance", 60000);
+        series.add(0, 10, 12, 9, 11, 1);
+        series.add(60000, 11, 15, 10, 14, 2);
+        CandleSeries copy = new CandleSeries("BTCUSDT@binance", 60000, 1);
+        copy.addAll(series);
+        CandleSeries changed = new CandleSeries("BTCUSDT@binance", 60000);
+        changed.add(0, 10, 12, 9, 11, 1);
+        changed.add(60000, 11, 15, 10, 14, 2.5);
+
+        assertEquals(series.contentHash(), copy.contentHash());
+        assertNotEquals(series.contentHash(), changed.contentHash());
+        assertNotEquals(series.contentHash(), series.slice(0, 1).contentHash());
+        assertNotEquals(series.contentHash(), new CandleSeries("ETHUSDT@binance", 60000).contentHash());
+    }
+
+    private static void assertCandle(CandleSeries series, int index, long time,
+                                     double open, double high, double low, double close, double volume) {
+        assertEquals(time, series.time(index));
+        assertEquals(open, series.open(index));
+        assertEquals(high, series.high(index));
+        assertEquals(low, series.low(index));
+        assertEquals(close, series.close(index));
+        assertEquals(volume, series.volume(index));
+    }
+}
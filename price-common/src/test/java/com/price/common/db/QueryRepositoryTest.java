@@ -0,0 +1,84 @@
+package com.price.common.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryRepositoryTest {
+
+    private static final int MINUTE = 60000;
+
+    // One candle per minute in [0, 100) and [1000, 1010) minutes
+    private final List<Long> times = new ArrayList<>();
+    private int queries;
+
+    private final QueryRepository repository = new QueryRepository() {
+        @Override
+        public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) {
+            queries++;
+            List<Candle> candles = new ArrayList<>();
+            for (long time : times) {
+                if (time >= fromTimestamp && time < toTimestamp) {
+                    candles.add(new Candle(instrument, timeframeMs, time, 1, 2, 0, 1, 1));
+                }
+            }
+            return candles;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    QueryRepositoryTest() {
+        for (long minute = 0; minute < 100; minute++) {
+            times.add(minute * MINUTE);
+        }
+        for (long minute = 1000; minute < 1010; minute++) {
+            times.add(minute * MINUTE);
+        }
+    }
+
+    @Test
+    void testNewestPageCrossesGap() throws Exception {
+        CandleSeries page = repository.queryPage("BTCUSDT@binance", MINUTE, MINUTE, 0, 2000L * MINUTE, 30, true);
+
+        assertEquals(30, page.size());
+        assertEquals(80L * MINUTE, page.time(0));
+        assertEquals(99L * MINUTE, page.time(19));
+        assertEquals(1000L * MINUTE, page.time(20));
+        assertEquals(1009L * MINUTE, page.time(29));
+        assertTrue(queries < 10, "queries " + queries);
+    }
+
+    @Test
+    void testOldestPage() throws Exception {
+        CandleSeries page = repository.queryPage("BTCUSDT@binance", MINUTE, MINUTE, 90L * MINUTE, 2000L * MINUTE, 15, false);
+
+        assertEquals(15, page.size());
+        assertEquals(90L * MINUTE, page.time(0));
+        assertEquals(99L * MINUTE, page.time(9));
+        assertEquals(1000L * MINUTE, page.time(10));
+        assertEquals(1004L * MINUTE, page.time(14));
+    }
+
+    @Test
+    void testAggregatedPage() throws Exception {
+        CandleSeries page = repository.queryPage("BTCUSDT@binance", MINUTE, 10 * MINUTE, 0, 2000L * MINUTE, 3, true);
+
+        assertEquals(3, page.size());
+        assertEquals(80L * MINUTE, page.time(0));
+        assertEquals(90L * MINUTE, page.time(1));
+        assertEquals(1000L * MINUTE, page.time(2));
+        assertEquals(10, page.volume(2));
+    }
+
+    @Test
+    void testShortRangeReturnsEverything() throws Exception {
+        CandleSeries page = repository.queryPage("BTCUSDT@binance", MINUTE, MINUTE, 95L * MINUTE, 1002L * MINUTE, 100, true);
+        assertEquals(7, page.size());
+    }
+}
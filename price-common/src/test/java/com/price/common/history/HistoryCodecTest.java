@@ -0,0 +1,94 @@
+package com.price.common.history;
+
+import com.price.common.db.CandleSeries;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryCodecTest {
+
+    @Test
+    void testPlainRoundTrip() throws IOException {
+        CandleSeries series = series(1000);
+        byte[] bytes = encode(series, false);
+
+        assertSeriesEquals(series, HistoryCodec.read(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    void testDeflateRoundTripIsSmaller() throws IOException {
+        CandleSeries series = series(1000);
+        byte[] plain = encode(series, false);
+        byte[] deflated = encode(series, true);
+
+        assertSeriesEquals(series, HistoryCodec.read(new ByteArrayInputStream(deflated)));
+        assertTrue(deflated.length < plain.length / 2, "deflated " + deflated.length + " plain " + plain.length);
+    }
+
+    @Test
+    void testPlainColumnsAreLittleEndian() throws IOException {
+        CandleSeries series = series(2);
+        ByteBuffer buffer = ByteBuffer.wrap(encode(series, false)).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(HistoryCodec.MAGIC, buffer.getInt());
+        assertEquals(HistoryCodec.VERSION, buffer.get());
+        assertEquals(0, buffer.get());
+        byte[] instrument = new byte[buffer.getShort()];
+        buffer.get(instrument);
+        assertEquals("BTCUSDT@BINANCE", new String(instrument));
+        assertEquals(60000, buffer.getInt());
+        assertEquals(2, buffer.getInt());
+        buffer.position(buffer.position() + 6);
+        assertEquals(series.time(0), buffer.getLong());
+        assertEquals(series.time(1), buffer.getLong());
+        assertEquals(series.open(0), buffer.getDouble());
+    }
+
+    @Test
+    void testEmptySeries() throws IOException {
+        CandleSeries series = new CandleSeries("BTCUSDT@BINANCE", 60000);
+        assertEquals(0, HistoryCodec.read(new ByteArrayInputStream(encode(series, true))).size());
+    }
+
+    @Test
+    void testRejectsForeignData() {
+        assertThrows(IOException.class, () -> HistoryCodec.read(new ByteArrayInputStream("{\"s\":\"ok\"}".getBytes())));
+    }
+
+    private static CandleSeries series(int rows) {
+        CandleSeries series = new CandleSeries("BTCUSDT@BINANCE", 60000);
+        double price = 42000;
+        for (int i = 0; i < rows; i++) {
+            double next = price + (i % 7 - 3) * 0.5;
+            series.add(1672531200000L + i * 60000L, price, Math.max(price, next) + 1, Math.min(price, next) - 1, next, i % 10);
+            price = next;
+        }
+        return series;
+    }
+
+    private static byte[] encode(CandleSeries series, boolean compress) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        HistoryCodec.write(series, compress, output);
+        return output.toByteArray();
+    }
+
+    private static void assertSeriesEquals(CandleSeries expected, CandleSeries actual) {
+        assertEquals(expected.instrument(), actual.instrument());
+        assertEquals(expected.timeframeMs(), actual.timeframeMs());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.time(i), actual.time(i));
+            assertEquals(expected.open(i), actual.open(i));
+            assertEquals(expected.high(i), actual.high(i));
+            assertEquals(expected.low(i), actual.low(i));
+            assertEquals(expected.close(i), actual.close(i));
+            assertEquals(expected.volume(i), actual.volume(i));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.price.common.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandleFrameCodecTest {
+
+    private record Candle(boolean closed, int id, int timeframeMs, long time, double o, double h, double l, double c, double v) {
+    }
+
+    @Test
+    void testRoundTrip() {
+        ByteBuffer frame = ByteBuffer.allocate(2 * CandleFrameCodec.RECORD_SIZE);
+        CandleFrameCodec.write(frame, CandleFrameCodec.CANDLE, 3, 60000, 1672531200000L, 1, 2, 0.5, 1.5, 10);
+        CandleFrameCodec.write(frame, CandleFrameCodec.OPEN_CANDLE, 7, 3600000, 1672531200000L, 42000.5, 42050, 41990, 42010.2, 150000);
+        frame.flip();
+
+        List<Candle> candles = new ArrayList<>();
+        assertEquals(2, CandleFrameCodec.read(frame, (closed, id, tf, t, o, h, l, c, v) ->
+                candles.add(new Candle(closed, id, tf, t, o, h, l, c, v))));
+
+        assertEquals(List.of(new Candle(true, 3, 60000, 1672531200000L, 1, 2, 0.5, 1.5, 10),
+                new Candle(false, 7, 3600000, 1672531200000L, 42000.5, 42050, 41990, 42010.2, 150000)), candles);
+        assertFalse(frame.hasRemaining());
+    }
+
+    @Test
+    void testRecordsAreLittleEndian() {
+        ByteBuffer frame = ByteBuffer.allocate(CandleFrameCodec.RECORD_SIZE);
+        CandleFrameCodec.write(frame, CandleFrameCodec.CANDLE, 3, 60000, 1672531200000L, 1, 2, 0.5, 1.5, 10);
+        ByteBuffer buffer = frame.flip().order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(CandleFrameCodec.CANDLE, buffer.get(0));
+        assertEquals(3, buffer.getInt(4));
+        assertEquals(60000, buffer.getInt(8));
+        assertEquals(1672531200000L, buffer.getLong(12));
+        assertEquals(1.0, buffer.getDouble(20));
+        assertEquals(10.0, buffer.getDouble(52));
+    }
+
+    @Test
+    void testUnknownRecordsAreSkipped() {
+        ByteBuffer frame = ByteBuffer.allocate(2 * CandleFrameCodec.RECORD_SIZE);
+        CandleFrameCodec.write(frame, CandleFrameCodec.CANDLE, 3, 60000, 1672531200000L, 1, 2, 0.5, 1.5, 10);
+        CandleFrameCodec.write(frame, CandleFrameCodec.CANDLE, 4, 60000, 1672531200000L, 1, 2, 0.5, 1.5, 10);
+        frame.put(0, (byte) 99);
+        frame.flip();
+
+        List<Integer> ids = new ArrayList<>();
+        assertEquals(1, CandleFrameCodec.read(frame, (closed, id, tf, t, o, h, l, c, v) -> ids.add(id)));
+        assertEquals(List.of(4), ids);
+    }
+
+    @Test
+    void testRejectsPartialRecords() {
+        assertThrows(IllegalArgumentException.class,
+                () -> CandleFrameCodec.read(ByteBuffer.allocate(CandleFrameCodec.RECORD_SIZE + 1), (closed, id, tf, t, o, h, l, c, v) -> {
+                }));
+    }
+}
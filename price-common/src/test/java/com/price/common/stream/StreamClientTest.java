@@ -0,0 +1,87 @@
+package com.price.common.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamClientTest {
+
+    private static final String INSTRUMENT = "BTCUSDT@BINANCE";
+    private static final long MINUTE = 1735516800000L;
+
+    private record Candle(String instrument, int timeframeMs, boolean closed, long time,
+                          double o, double h, double l, double c, double v) {
+    }
+
+    // Only request() is called on the socket a message arrived on
+    private final WebSocket webSocket = (WebSocket) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{WebSocket.class}, (proxy, method, args) -> null);
+    private final List<Candle> candles = new ArrayList<>();
+
+    private StreamClient client(Map<String, Object> options) {
+        return new StreamClient("test", "ws://localhost/stream", List.of(new StreamClient.Stream(INSTRUMENT, 60000)),
+                options, (instrument, timeframeMs, closed, time, o, h, l, c, v) ->
+                candles.add(new Candle(instrument, timeframeMs, closed, time, o, h, l, c, v)));
+    }
+
+    @Test
+    void testJsonCandles() {
+        StreamClient client = client(Map.of());
+        client.onText(webSocket, "[{\"i\":\"" + INSTRUMENT + "\",\"t\":" + MINUTE + ",\"f\":60000,", false);
+        client.onText(webSocket, "\"o\":1.0,\"h\":2.0,\"l\":0.5,\"c\":1.5,\"v\":10.0},{\"i\":\"" + INSTRUMENT
+                + "\",\"t\":" + (MINUTE + 60000) + ",\"f\":60000,\"o\":1.5,\"h\":1.5,\"l\":1.5,\"c\":1.5,\"v\":1.0,"
+                + "\"p\":true,\"r\":3}]", true);
+
+        assertEquals(List.of(new Candle(INSTRUMENT, 60000, true, MINUTE, 1, 2, 0.5, 1.5, 10),
+                new Candle(INSTRUMENT, 60000, false, MINUTE + 60000, 1.5, 1.5, 1.5, 1.5, 1)), candles);
+    }
+
+    @Test
+    void testBinaryCandlesOfSubscribedInstruments() {
+        StreamClient client = client(Map.of());
+        client.onText(webSocket,
+                "{\"type\":\"SUBSCRIBED\",\"instrument\":\"" + INSTRUMENT + "\",\"timeframe\":60000,\"id\":7}", true);
+        ByteBuffer frame = ByteBuffer.allocate(CandleFrameCodec.RECORD_SIZE * 2);
+        CandleFrameCodec.write(frame, CandleFrameCodec.CANDLE, 7, 60000, MINUTE, 1, 2, 0.5, 1.5, 10);
+        // Not subscribed, skipped
+        CandleFrameCodec.write(frame, CandleFrameCodec.CANDLE, 8, 60000, MINUTE, 1, 2, 0.5, 1.5, 10);
+        frame.flip();
+        client.onBinary(webSocket, frame.slice(0, 20), false);
+        client.onBinary(webSocket, frame.slice(20, frame.limit() - 20), true);
+
+        assertEquals(List.of(new Candle(INSTRUMENT, 60000, true, MINUTE, 1, 2, 0.5, 1.5, 10)), candles);
+    }
+
+    @Test
+    void testUnknownRepliesAreIgnored() {
+        StreamClient client = client(Map.of());
+        client.onText(webSocket, "{\"type\":\"ERROR\",\"message\":\"Unknown instrument\"}", true);
+        client.onText(webSocket, "not json", true);
+
+        assertTrue(candles.isEmpty());
+    }
+
+    @Test
+    void testSubscriptionResumesAfterTheLastClosedCandle() {
+        StreamClient client = client(Map.of("snapshot", 100));
+        StreamClient.Stream stream = new StreamClient.Stream(INSTRUMENT, 60000);
+        String subscription = client.subscription(stream);
+        assertTrue(subscription.contains("\"type\":\"SUBSCRIBE\""), subscription);
+        assertTrue(subscription.contains("\"snapshot\":100"), subscription);
+        assertFalse(subscription.contains("resume"), subscription);
+
+        client.onText(webSocket, "[{\"i\":\"" + INSTRUMENT + "\",\"t\":" + MINUTE
+                + ",\"f\":60000,\"o\":1.0,\"h\":2.0,\"l\":0.5,\"c\":1.5,\"v\":10.0}]", true);
+        client.onText(webSocket, "[{\"i\":\"" + INSTRUMENT + "\",\"t\":" + (MINUTE + 60000)
+                + ",\"f\":60000,\"o\":1.5,\"h\":1.5,\"l\":1.5,\"c\":1.5,\"v\":1.0,\"p\":true}]", true);
+
+        assertTrue(client.subscription(stream).contains("\"resume\":" + MINUTE));
+    }
+}
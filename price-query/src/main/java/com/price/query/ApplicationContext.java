@@ -1,11 +1,16 @@
 package com.price.query;
 
+import com.price.common.archive.ArchiveQueryRepository;
+import com.price.common.archive.TieredQueryRepository;
+import com.price.common.config.DataBase;
 import com.price.common.db.RepositoryContainer;
 import com.price.common.config.PriceConfiguration;
 import com.price.common.db.QueryRepository;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
+
 @Configuration
 public class ApplicationContext {
 
@@ -15,7 +20,13 @@ public class ApplicationContext {
     }
 
     @Bean(name = "queryRepository")
-    public QueryRepository getQueryRepository(RepositoryContainer repositoryContainer) {
-        return repositoryContainer.getQueryRepositories().getFirst();
+    public QueryRepository getQueryRepository(PriceConfiguration configuration, RepositoryContainer repositoryContainer) {
+        QueryRepository repository = repositoryContainer.getQueryRepositories().getFirst();
+        DataBase dataBase = configuration.dataBases().getFirst();
+        if (dataBase.archiveEnabled()) {
+            // Ranges past hot storage are read from the cold archive
+            return new TieredQueryRepository(repository, new ArchiveQueryRepository(Path.of(dataBase.archivePath())));
+        }
+        return repository;
     }
 }
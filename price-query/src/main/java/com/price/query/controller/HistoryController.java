@@ -1,61 +1,183 @@
 package com.price.query.controller;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.price.query.converter.CandleSeriesJsonConverter;
+import com.price.query.dto.CandlePage;
+import com.price.query.dto.HistoryCursor;
+import com.price.query.dto.HistoryRequest;
 import com.price.query.dto.HistoryResponse;
+import com.price.query.service.HistoryBatchService;
 import com.price.query.service.HistoryService;
-import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.Objects;
 
 @RestController
 public class HistoryController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final int MAX_BATCH_SIZE = 100;
+    static final Duration SETTLED_MAX_AGE = Duration.ofDays(365);
+    static final Duration CLOSED_MAX_AGE = Duration.ofMinutes(1);
+    static final Duration HEAD_MAX_AGE = Duration.ofSeconds(1);
 
     private final HistoryService historyService;
+    private final HistoryBatchService historyBatchService;
+    private final ObjectMapper objectMapper;
+    private final JsonFactory jsonFactory;
 
-    public HistoryController(HistoryService historyService) {
+    public HistoryController(HistoryService historyService, HistoryBatchService historyBatchService, ObjectMapper objectMapper) {
         this.historyService = historyService;
+        this.historyBatchService = historyBatchService;
+        this.objectMapper = objectMapper;
+        this.jsonFactory = objectMapper.getFactory();
     }
 
+    /**
+     * Whole range by default. {@code countback} returns the last candles before {@code to}, {@code limit} the first
+     * ones from {@code from}; both answer with the {@value #NEXT_CURSOR_HEADER} header while more candles follow,
+     * which is passed back as {@code cursor} to get the next page.
+     */
     @GetMapping("/history")
-    public ResponseEntity<HistoryResponse> getHistory(
-            @RequestParam String symbol,
-            @RequestParam String interval,
-            @RequestParam long from,
-            @RequestParam long to) {
+    public ResponseEntity<?> getHistory(
+            @RequestParam(required = false) String symbol,
+            @RequestParam(required = false) String interval,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(defaultValue = "0") int maxPoints,
+            @RequestParam(defaultValue = "0") int countback,
+            @RequestParam(defaultValue = "0") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         try {
-            List<Candle> candles = historyService.getCandles(symbol, interval, from * 1000, to * 1000);
-            HistoryResponse response = buildHistoryResponse(candles);
-            return ResponseEntity.ok(response);
+            HistoryCursor page = cursor != null ? HistoryCursor.decode(cursor) : null;
+            if (page == null) {
+                require("symbol", symbol);
+                require("interval", interval);
+                require("to", to);
+                if (countback > 0 && limit > 0) {
+                    throw new IllegalArgumentException("countback and limit can't be combined");
+                }
+                if (countback <= 0) {
+                    require("from", from);
+                }
+                if (countback > 0 || limit > 0) {
+                    if (maxPoints > 0) {
+                        throw new IllegalArgumentException("maxPoints can't be combined with countback or limit");
+                    }
+                    // countback has priority over from, as in the TradingView UDF protocol
+                    page = countback > 0
+                            ? new HistoryCursor(symbol, interval,
+                                    HistoryService.countbackFrom(interval, to * 1000, countback), to * 1000, countback, true)
+                            : new HistoryCursor(symbol, interval, from * 1000, to * 1000, limit, false);
+                }
+            }
+
+            // Serialized by CandleSeriesJsonConverter or CandleSeriesBinaryConverter, depending on Accept
+            if (page == null) {
+                CandleSeries candles = historyService.getCandles(symbol, interval, from * 1000, to * 1000, maxPoints);
+                boolean settled = historyService.isSettled(symbol, candles, from * 1000, to * 1000, Integer.MAX_VALUE);
+                return cacheable(candles, settled, to * 1000, accept).body(candles);
+            }
+            CandlePage result = historyService.getPage(page.symbol(), page.interval(), page.from(), page.to(),
+                    page.limit(), page.newest());
+            boolean settled = historyService.isSettled(page.symbol(), result.candles(), page.from(), page.to(),
+                    page.limit());
+            ResponseEntity.BodyBuilder response = cacheable(result.candles(), settled, page.to(), accept);
+            if (result.next() != null) {
+                response.header(NEXT_CURSOR_HEADER, page.next(result.next()).encode());
+            }
+            return response.body(result.candles());
         } catch (IllegalArgumentException e) {
-            return ResponseEntity.badRequest().body(HistoryResponse.error(e.getMessage()));
+            // Errors are always JSON, also when a binary format was requested
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).cacheControl(CacheControl.noStore())
+                    .body(HistoryResponse.error(e.getMessage()));
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(HistoryResponse.error("Internal server error"));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).contentType(MediaType.APPLICATION_JSON)
+                    .cacheControl(CacheControl.noStore()).body(HistoryResponse.error("Internal server error"));
+        }
+    }
+
+    /**
+     * A settled range is immutable. A closed one that may still be completed by a late write or a backfill is
+     * cached for a minute, one holding the live head briefly, both revalidated once expired. The entity tag lets
+     * clients and proxies revalidate with If-None-Match, answered with 304 by Spring MVC when it matches.
+     */
+    private static ResponseEntity.BodyBuilder cacheable(CandleSeries candles, boolean settled, long to, String accept) {
+        CacheControl cacheControl;
+        if (settled) {
+            cacheControl = CacheControl.maxAge(SETTLED_MAX_AGE).cachePublic().immutable();
+        } else if (HistoryService.isClosed(to, candles.timeframeMs(), System.currentTimeMillis())) {
+            cacheControl = CacheControl.maxAge(CLOSED_MAX_AGE).cachePublic().mustRevalidate();
+        } else {
+            cacheControl = CacheControl.maxAge(HEAD_MAX_AGE).cachePublic().mustRevalidate();
         }
+        // A strong tag identifies one representation, which is chosen by Accept
+        String eTag = "\"" + Long.toHexString(candles.contentHash()) + "-"
+                + Integer.toHexString(Objects.hashCode(accept)) + "\"";
+        return ResponseEntity.ok().cacheControl(cacheControl).eTag(eTag).varyBy(HttpHeaders.ACCEPT);
     }
 
-    private HistoryResponse buildHistoryResponse(List<Candle> candles) {
-        List<Long> times = new ArrayList<>();
-        List<Double> opens = new ArrayList<>();
-        List<Double> highs = new ArrayList<>();
-        List<Double> lows = new ArrayList<>();
-        List<Double> closes = new ArrayList<>();
-        List<Double> volumes = new ArrayList<>();
-
-        for (Candle candle : candles) {
-            times.add(candle.time() / 1000); // Convert milliseconds to seconds
-            opens.add(candle.open());
-            highs.add(candle.high());
-            lows.add(candle.low());
-            closes.add(candle.close());
-            volumes.add(candle.volume());
+    private static void require(String name, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing required parameter: " + name);
         }
+    }
 
-        return HistoryResponse.success(times, opens, highs, lows, closes, volumes);
+    /**
+     * Runs all requests concurrently and streams one JSON object per line as each completes,
+     * {@code i} being the index of the request in the batch.
+     */
+    @PostMapping("/history/batch")
+    public ResponseEntity<StreamingResponseBody> getHistoryBatch(@RequestBody List<HistoryRequest> requests) {
+        if (requests.isEmpty() || requests.size() > MAX_BATCH_SIZE) {
+            HistoryResponse error = HistoryResponse.error("Batch must contain 1 to " + MAX_BATCH_SIZE + " requests");
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .body(output -> objectMapper.writeValue(StreamUtils.nonClosing(output), error));
+        }
+        StreamingResponseBody body = output -> {
+            try (JsonGenerator generator = jsonFactory.createGenerator(StreamUtils.nonClosing(output), JsonEncoding.UTF8)) {
+                historyBatchService.getCandles(requests, (index, series, error) -> {
+                    HistoryRequest request = requests.get(index);
+                    generator.writeStartObject();
+                    generator.writeNumberField("i", index);
+                    generator.writeStringField("symbol", request.symbol());
+                    generator.writeStringField("interval", request.interval());
+                    if (error == null) {
+                        CandleSeriesJsonConverter.writeFields(generator, series);
+                    } else {
+                        generator.writeStringField("s", "error");
+                        generator.writeStringField("errmsg", error instanceof IllegalArgumentException
+                                ? error.getMessage() : "Internal server error");
+                    }
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                    generator.flush();
+                });
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("History batch failed", e);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 }
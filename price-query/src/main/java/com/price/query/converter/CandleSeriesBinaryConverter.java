@@ -0,0 +1,50 @@
+package com.price.query.converter;
+
+import com.price.common.db.CandleSeries;
+import com.price.common.history.HistoryCodec;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link CandleSeries} in the {@link HistoryCodec} binary format, selected by
+ * {@code Accept: application/vnd.price.candles} (plain columns) or
+ * {@code Accept: application/vnd.price.candles+deflate} (delta/XOR columns, deflated).
+ */
+@Component
+@Order(2)
+public class CandleSeriesBinaryConverter extends AbstractHttpMessageConverter<CandleSeries> {
+    public static final MediaType CANDLES = MediaType.parseMediaType(HistoryCodec.MEDIA_TYPE);
+    public static final MediaType CANDLES_DEFLATE = MediaType.parseMediaType(HistoryCodec.MEDIA_TYPE_DEFLATE);
+
+    public CandleSeriesBinaryConverter() {
+        super(CANDLES, CANDLES_DEFLATE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return CandleSeries.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected CandleSeries readInternal(Class<? extends CandleSeries> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("CandleSeries can only be written", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(CandleSeries series, HttpOutputMessage outputMessage) throws IOException {
+        boolean compress = CANDLES_DEFLATE.isCompatibleWith(outputMessage.getHeaders().getContentType());
+        HistoryCodec.write(series, compress, outputMessage.getBody());
+    }
+}
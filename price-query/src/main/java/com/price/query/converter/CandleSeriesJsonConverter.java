@@ -0,0 +1,102 @@
+package com.price.query.converter;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.price.common.db.CandleSeries;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link CandleSeries} as the {@code {s,t,o,h,l,c,v}} history JSON straight from its primitive
+ * columns, without building a response object or boxing a value.
+ */
+// Ordered before the binary converter so JSON stays the default for Accept: */*
+@Component
+@Order(1)
+public class CandleSeriesJsonConverter extends AbstractHttpMessageConverter<CandleSeries> {
+    private final JsonFactory jsonFactory;
+
+    public CandleSeriesJsonConverter(ObjectMapper objectMapper) {
+        super(MediaType.APPLICATION_JSON);
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return CandleSeries.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected CandleSeries readInternal(Class<? extends CandleSeries> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("CandleSeries can only be written", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(CandleSeries series, HttpOutputMessage outputMessage) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(
+                StreamUtils.nonClosing(outputMessage.getBody()), JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            writeFields(generator, series);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes the history fields into the current JSON object.
+     */
+    public static void writeFields(JsonGenerator generator, CandleSeries series) throws IOException {
+        int size = series.size();
+        generator.writeStringField("s", "ok");
+
+        generator.writeArrayFieldStart("t");
+        for (int i = 0; i < size; i++) {
+            generator.writeNumber(series.time(i) / 1000); // Convert milliseconds to seconds
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("o");
+        for (int i = 0; i < size; i++) {
+            generator.writeNumber(series.open(i));
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("h");
+        for (int i = 0; i < size; i++) {
+            generator.writeNumber(series.high(i));
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("l");
+        for (int i = 0; i < size; i++) {
+            generator.writeNumber(series.low(i));
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("c");
+        for (int i = 0; i < size; i++) {
+            generator.writeNumber(series.close(i));
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("v");
+        for (int i = 0; i < size; i++) {
+            generator.writeNumber(series.volume(i));
+        }
+        generator.writeEndArray();
+    }
+}
@@ -0,0 +1,9 @@
+package com.price.query.dto;
+
+import com.price.common.db.CandleSeries;
+
+/**
+ * A page of a limited history scan, {@code next} is the boundary of the following page or null on the last one.
+ */
+public record CandlePage(CandleSeries candles, Long next) {
+}
@@ -0,0 +1,51 @@
+package com.price.query.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.regex.Pattern;
+
+/**
+ * Continuation of a paged {@code /history} scan, handed to clients as an opaque string.
+ * Times are in milliseconds.
+ */
+public record HistoryCursor(String symbol,
+                            String interval,
+                            long from,
+                            long to,
+                            int limit,
+                            boolean newest) {
+
+    private static final String VERSION = "1";
+    private static final String SEPARATOR = "|";
+
+    /**
+     * Cursor of the page after the one that ended at {@code next}.
+     */
+    public HistoryCursor next(long next) {
+        return newest
+                ? new HistoryCursor(symbol, interval, from, next, limit, true)
+                : new HistoryCursor(symbol, interval, next, to, limit, false);
+    }
+
+    public String encode() {
+        // Symbol last, it is the only field that may contain the separator
+        String value = String.join(SEPARATOR, VERSION, Long.toString(from), Long.toString(to),
+                Integer.toString(limit), newest ? "1" : "0", interval, symbol);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static HistoryCursor decode(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] fields = value.split(Pattern.quote(SEPARATOR), 7);
+            if (fields.length != 7 || !VERSION.equals(fields[0])) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new HistoryCursor(fields[6], fields[5], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Integer.parseInt(fields[3]), "1".equals(fields[4]));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException and malformed Base64 included
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
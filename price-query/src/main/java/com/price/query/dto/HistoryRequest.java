@@ -0,0 +1,30 @@
+package com.price.query.dto;
+
+/**
+ * One entry of a {@code /history/batch} request, same fields as the {@code /history} parameters.
+ */
+public record HistoryRequest(String symbol,
+                             String interval,
+                             Long from,
+                             Long to,
+                             int maxPoints) {
+
+    /**
+     * Rejects an entry missing a field or ending before it starts, reported on the entry's own line.
+     */
+    public void validate() {
+        require("symbol", symbol);
+        require("interval", interval);
+        require("from", from);
+        require("to", to);
+        if (from > to) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+    }
+
+    private static void require(String name, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing required parameter: " + name);
+        }
+    }
+}
@@ -46,19 +46,6 @@ public class HistoryResponse {
     private final List<Double> volumes = new ArrayList<>();
 
 
-    public static HistoryResponse success(List<Long> times, List<Double> opens, List<Double> highs,
-                                          List<Double> lows, List<Double> closes, List<Double> volumes) {
-        return HistoryResponse.builder()
-                .status("ok")
-                .times(times)
-                .opens(opens)
-                .highs(highs)
-                .lows(lows)
-                .closes(closes)
-                .volumes(volumes)
-                .build();
-    }
-
     public static HistoryResponse error(String errorMessage) {
         return HistoryResponse.builder()
                 .status("error")
@@ -0,0 +1,214 @@
+package com.price.query.service;
+
+import com.price.common.config.QuerySettings;
+import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.db.QueryRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Read-through cache in front of a {@link QueryRepository}.
+ * <p>
+ * Candles are cached in fixed, epoch-aligned windows of {@code cacheChunkCandles} candles per
+ * (instrument, timeframe), aggregated candles per (instrument, timeframe, bucket). A request is
+ * assembled from cached chunks and only the missing ones are fetched, contiguous missing chunks in
+ * a single repository query. Chunks whose window ended more
+ * than {@link #CLOSE_GRACE_MS} before they were loaded never change and stay until evicted, the
+ * head chunk is reloaded once it is older than {@code cacheHeadTtlMs}. The cache is bounded by the
+ * total number of cached candles and evicts least recently used chunks.
+ * <p>
+ * Chunks without candles are kept in a separate, count-bounded LRU, so scanning sparse or empty ranges
+ * doesn't evict candles. Requests spanning more than {@link #MAX_REQUEST_CHUNKS} chunks bypass the cache.
+ */
+@Slf4j
+public class CachingQueryRepository implements QueryRepository {
+    // Time a closed candle needs to reach storage
+    static final long CLOSE_GRACE_MS = 5000;
+    // Longer requests go straight to the repository, their chunks would only push everything else out
+    static final int MAX_REQUEST_CHUNKS = 256;
+    static final int MAX_EMPTY_CHUNKS = 4096;
+
+    private final QueryRepository repository;
+    private final long maxCandles;
+    private final int chunkCandles;
+    private final long headTtlMs;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<ChunkKey, CandleChunk> chunks = new LinkedHashMap<>(1024, 0.75f, true);
+    // Guarded by chunks as well
+    private final LinkedHashMap<ChunkKey, CandleChunk> emptyChunks = new LinkedHashMap<>(1024, 0.75f, true);
+    private long cachedCandles;
+
+    public CachingQueryRepository(QueryRepository repository, QuerySettings settings) {
+        this(repository, settings, System::currentTimeMillis);
+    }
+
+    CachingQueryRepository(QueryRepository repository, QuerySettings settings, LongSupplier clock) {
+        this.repository = repository;
+        this.maxCandles = settings.cacheMaxCandles();
+        this.chunkCandles = settings.cacheChunkCandles();
+        this.headTtlMs = settings.cacheHeadTtlMs();
+        this.clock = clock;
+        log.info("Candle cache enabled: {} candles max, {} candles per chunk, head TTL {}ms",
+                maxCandles, chunkCandles, headTtlMs);
+    }
+
+    @Override
+    public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        return querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp).toCandles();
+    }
+
+    @Override
+    public CandleSeries querySeries(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        return query(instrument, timeframeMs, timeframeMs, fromTimestamp, toTimestamp);
+    }
+
+    @Override
+    public CandleSeries queryAggregated(String instrument, int timeframeMs, int bucketMs,
+                                        long fromTimestamp, long toTimestamp) throws Exception {
+        return query(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp);
+    }
+
+    /**
+     * Not cached, a page has no fixed range to assemble from chunks. The repository runs it as one ordered,
+     * limited scan instead of the windows of the default.
+     */
+    @Override
+    public CandleSeries queryPage(String instrument, int timeframeMs, int bucketMs,
+                                  long fromTimestamp, long toTimestamp, int limit, boolean newest) throws Exception {
+        return repository.queryPage(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp, limit, newest);
+    }
+
+    /**
+     * Candles of timeframeMs folded into buckets of bucketMs, stored candles when both are equal.
+     * Chunks are multiples of the bucket, so every bucket is loaded whole from a single query.
+     */
+    private CandleSeries query(String instrument, int timeframeMs, int bucketMs, long fromTimestamp, long toTimestamp) throws Exception {
+        CandleSeries result = new CandleSeries(instrument, bucketMs);
+        long now = clock.getAsLong();
+        long end = Math.min(toTimestamp, now + bucketMs);
+        if (end <= fromTimestamp) {
+            return result;
+        }
+
+        long span = (long) chunkCandles * bucketMs;
+        long first = Math.floorDiv(fromTimestamp, span);
+        long last = Math.floorDiv(end - 1, span);
+        if (last - first >= MAX_REQUEST_CHUNKS) {
+            log.debug("Range of {} chunks for instrument {} timeframe {}ms bucket {}ms bypasses the cache",
+                    last - first + 1, instrument, timeframeMs, bucketMs);
+            return bucketMs == timeframeMs
+                    ? repository.querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp)
+                    : repository.queryAggregated(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp);
+        }
+        CandleChunk[] found = new CandleChunk[(int) (last - first + 1)];
+        synchronized (chunks) {
+            for (int i = 0; i < found.length; i++) {
+                ChunkKey key = new ChunkKey(instrument, timeframeMs, bucketMs, first + i);
+                CandleChunk chunk = chunks.get(key);
+                if (chunk == null) {
+                    chunk = emptyChunks.get(key);
+                }
+                if (chunk != null && chunk.isFresh(now, headTtlMs)) {
+                    found[i] = chunk;
+                }
+            }
+        }
+
+        int misses = 0;
+        for (int i = 0; i < found.length; ) {
+            if (found[i] != null) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < found.length && found[j] == null) {
+                j++;
+            }
+            load(instrument, timeframeMs, bucketMs, span, first + i, first + j, now, found, i);
+            misses += j - i;
+            i = j;
+        }
+
+        for (CandleChunk chunk : found) {
+            chunk.appendTo(result, fromTimestamp, toTimestamp);
+        }
+        log.debug("Served {} candles for instrument {} timeframe {}ms bucket {}ms from {} chunks, {} loaded",
+                result.size(), instrument, timeframeMs, bucketMs, found.length, misses);
+        return result;
+    }
+
+    /**
+     * Loads chunks [fromIndex, toIndex) with one repository query and stores them in found[offset...].
+     */
+    private void load(String instrument, int timeframeMs, int bucketMs, long span, long fromIndex, long toIndex,
+                      long now, CandleChunk[] found, int offset) throws Exception {
+        CandleSeries series = bucketMs == timeframeMs
+                ? repository.querySeries(instrument, timeframeMs, fromIndex * span, toIndex * span)
+                : repository.queryAggregated(instrument, timeframeMs, bucketMs, fromIndex * span, toIndex * span);
+        int position = 0;
+        for (long index = fromIndex; index < toIndex; index++) {
+            long start = index * span;
+            long end = start + span;
+            int from = position;
+            position = series.indexOf(end);
+            CandleChunk chunk = new CandleChunk(start, end, series, from, position, now, now >= end + CLOSE_GRACE_MS);
+            found[offset + (int) (index - fromIndex)] = chunk;
+            put(new ChunkKey(instrument, timeframeMs, bucketMs, index), chunk);
+        }
+    }
+
+    private void put(ChunkKey key, CandleChunk chunk) {
+        synchronized (chunks) {
+            CandleChunk previous = chunks.remove(key);
+            if (previous != null) {
+                cachedCandles -= previous.size();
+            }
+            emptyChunks.remove(key);
+            if (chunk.size() == 0) {
+                emptyChunks.put(key, chunk);
+                if (emptyChunks.size() > MAX_EMPTY_CHUNKS) {
+                    Iterator<CandleChunk> iterator = emptyChunks.values().iterator();
+                    iterator.next();
+                    iterator.remove();
+                }
+                return;
+            }
+            chunks.put(key, chunk);
+            cachedCandles += chunk.size();
+            Iterator<CandleChunk> iterator = chunks.values().iterator();
+            while (cachedCandles > maxCandles && iterator.hasNext()) {
+                CandleChunk eldest = iterator.next();
+                if (eldest == chunk) {
+                    break;
+                }
+                cachedCandles -= eldest.size();
+                iterator.remove();
+            }
+        }
+    }
+
+    long cachedCandles() {
+        synchronized (chunks) {
+            return cachedCandles;
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (chunks) {
+            chunks.clear();
+            emptyChunks.clear();
+            cachedCandles = 0;
+        }
+        repository.close();
+    }
+
+    private record ChunkKey(String instrument, int timeframeMs, int bucketMs, long index) {
+    }
+}
@@ -0,0 +1,69 @@
+package com.price.query.service;
+
+import com.price.common.db.CandleSeries;
+
+import java.util.Arrays;
+
+/**
+ * Candles of one (instrument, timeframe) inside a fixed time window, kept as primitive columns.
+ */
+final class CandleChunk {
+    private final long start;
+    private final long end;
+    private final long loadedAt;
+    private final boolean closed;
+    private final long[] times;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final double[] volumes;
+
+    /**
+     * @param series candles sorted by time, rows [from, to) are inside [start, end)
+     * @param closed whether the window is over and its candles can no longer change
+     */
+    CandleChunk(long start, long end, CandleSeries series, int from, int to, long loadedAt, boolean closed) {
+        this.start = start;
+        this.end = end;
+        this.loadedAt = loadedAt;
+        this.closed = closed;
+        this.times = new long[to - from];
+        this.opens = new double[to - from];
+        this.highs = new double[to - from];
+        this.lows = new double[to - from];
+        this.closes = new double[to - from];
+        this.volumes = new double[to - from];
+        for (int i = from; i < to; i++) {
+            times[i - from] = series.time(i);
+            opens[i - from] = series.open(i);
+            highs[i - from] = series.high(i);
+            lows[i - from] = series.low(i);
+            closes[i - from] = series.close(i);
+            volumes[i - from] = series.volume(i);
+        }
+    }
+
+    long start() {
+        return start;
+    }
+
+    long end() {
+        return end;
+    }
+
+    int size() {
+        return times.length;
+    }
+
+    boolean isFresh(long now, long headTtlMs) {
+        return closed || now - loadedAt < headTtlMs;
+    }
+
+    void appendTo(CandleSeries result, long from, long to) {
+        int first = Arrays.binarySearch(times, from);
+        for (int i = first < 0 ? -first - 1 : first; i < times.length && times[i] < to; i++) {
+            result.add(times[i], opens[i], highs[i], lows[i], closes[i], volumes[i]);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.price.query.service;
+
+import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.db.QueryRepository;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-flight in front of a {@link QueryRepository}: concurrent identical queries share the one that
+ * is already running. The first caller runs the query on its own thread, later callers wait for its
+ * result or get its exception. If the running caller is interrupted, waiting callers don't inherit the
+ * cancellation and one of them runs the query again.
+ * <p>
+ * Callers of a coalesced query receive the same {@link CandleSeries} and must not modify it.
+ */
+@Slf4j
+public class CoalescingQueryRepository implements QueryRepository {
+    private final QueryRepository repository;
+    private final ConcurrentHashMap<QueryKey, CompletableFuture<CandleSeries>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public CoalescingQueryRepository(QueryRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        return querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp).toCandles();
+    }
+
+    @Override
+    public CandleSeries querySeries(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+        return query(new QueryKey(instrument, timeframeMs, timeframeMs, fromTimestamp, toTimestamp, 0, false),
+                () -> repository.querySeries(instrument, timeframeMs, fromTimestamp, toTimestamp));
+    }
+
+    @Override
+    public CandleSeries queryAggregated(String instrument, int timeframeMs, int bucketMs,
+                                        long fromTimestamp, long toTimestamp) throws Exception {
+        return query(new QueryKey(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp, 0, false),
+                () -> repository.queryAggregated(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp));
+    }
+
+    @Override
+    public CandleSeries queryPage(String instrument, int timeframeMs, int bucketMs,
+                                  long fromTimestamp, long toTimestamp, int limit, boolean newest) throws Exception {
+        return query(new QueryKey(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp, limit, newest),
+                () -> repository.queryPage(instrument, timeframeMs, bucketMs, fromTimestamp, toTimestamp, limit, newest));
+    }
+
+    private CandleSeries query(QueryKey key, Query query) throws Exception {
+        while (true) {
+            CompletableFuture<CandleSeries> running = new CompletableFuture<>();
+            CompletableFuture<CandleSeries> existing = inFlight.putIfAbsent(key, running);
+            if (existing == null) {
+                return run(key, running, query);
+            }
+            waiting.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (CancellationException e) {
+                log.debug("Coalesced query {} was cancelled, retrying", key);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    private CandleSeries run(QueryKey key, CompletableFuture<CandleSeries> running, Query query) throws Exception {
+        try {
+            CandleSeries series = query.run();
+            running.complete(series);
+            return series;
+        } catch (InterruptedException e) {
+            running.cancel(false);
+            throw e;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                running.cancel(false);
+            } else {
+                running.completeExceptionally(e);
+            }
+            throw e;
+        } catch (Throwable e) {
+            running.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, running);
+        }
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    // Callers waiting for a query another caller runs
+    int waiting() {
+        return waiting.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        repository.close();
+    }
+
+    @FunctionalInterface
+    private interface Query {
+        CandleSeries run() throws Exception;
+    }
+
+    // limit and newest only identify pages, 0 and false for whole ranges
+    private record QueryKey(String instrument, int timeframeMs, int bucketMs, long fromTimestamp, long toTimestamp,
+                            int limit, boolean newest) {
+    }
+}
@@ -0,0 +1,80 @@
+package com.price.query.service;
+
+import com.price.common.config.PriceConfiguration;
+import com.price.common.db.CandleSeries;
+import com.price.query.dto.HistoryRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the queries of a batch concurrently, one virtual thread per request, with at most
+ * {@code batchConcurrency} queries in flight across all batches.
+ */
+@Slf4j
+@Service
+public class HistoryBatchService {
+
+    @FunctionalInterface
+    public interface ResultHandler {
+        /**
+         * Called on the caller's thread in completion order, with either the series or the error.
+         */
+        void accept(int index, CandleSeries series, Exception error) throws Exception;
+    }
+
+    private final HistoryService historyService;
+    private final Semaphore permits;
+
+    public HistoryBatchService(HistoryService historyService, PriceConfiguration configuration) {
+        this.historyService = historyService;
+        this.permits = new Semaphore(configuration.query().batchConcurrency(), true);
+    }
+
+    public void getCandles(List<HistoryRequest> requests, ResultHandler handler) throws Exception {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < requests.size(); i++) {
+                int index = i;
+                HistoryRequest request = requests.get(i);
+                completion.submit(() -> query(index, request));
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                Result result = completion.take().get();
+                handler.accept(result.index(), result.series(), result.error());
+            }
+        } finally {
+            // Interrupts queries still running when the handler failed, e.g. the client went away
+            executor.shutdownNow();
+        }
+    }
+
+    private Result query(int index, HistoryRequest request) throws InterruptedException {
+        try {
+            request.validate();
+        } catch (IllegalArgumentException e) {
+            return new Result(index, null, e);
+        }
+        permits.acquire();
+        try {
+            CandleSeries series = historyService.getCandles(request.symbol(), request.interval(),
+                    request.from() * 1000, request.to() * 1000, request.maxPoints());
+            return new Result(index, series, null);
+        } catch (Exception e) {
+            log.debug("Batch query {} for {} {} failed", index, request.symbol(), request.interval(), e);
+            return new Result(index, null, e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private record Result(int index, CandleSeries series, Exception error) {
+    }
+}
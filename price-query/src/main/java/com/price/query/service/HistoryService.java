@@ -1,28 +1,202 @@
 package com.price.query.service;
 
-import com.price.common.db.Candle;
+import com.price.common.config.Instrument;
+import com.price.common.config.PriceConfiguration;
+import com.price.common.config.QuerySettings;
+import com.price.common.db.CandleSeries;
 import com.price.common.db.QueryRepository;
+import com.price.query.dto.CandlePage;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class HistoryService {
+    public static final int MAX_PAGE_SIZE = 50_000;
+    // A countback page looks back at most this many times its own span, which leaves room for gaps
+    static final int COUNTBACK_LOOKBACK = 16;
+    // A range is settled once a candle at least this much newer than its end is stored
+    static final long SETTLE_MARGIN_MS = 10 * 60 * 1000;
+
+    private record SourceKey(String instrument, int timeframeMs) {
+    }
 
     private final QueryRepository repository;
+    private final LiveTail liveTail;
+    // Stored timeframes by instrument full name, sorted ascending
+    private final Map<String, int[]> storedTimeframes = new HashMap<>();
+    // Latest stored candle seen in a query result, by instrument and stored timeframe
+    private final Map<SourceKey, Long> storedUntil = new ConcurrentHashMap<>();
 
-    public HistoryService(@Qualifier("queryRepository") QueryRepository repository) {
-        this.repository = repository;
+    public HistoryService(@Qualifier("queryRepository") QueryRepository repository, LiveTail liveTail,
+                          PriceConfiguration configuration) {
+        QuerySettings settings = configuration.query();
+        this.liveTail = liveTail;
+        // Identical concurrent requests share one query, misses of the cache included
+        this.repository = new CoalescingQueryRepository(
+                settings.cacheEnabled() ? new CachingQueryRepository(repository, settings) : repository);
+        for (Instrument instrument : configuration.instruments()) {
+            int[] timeframes = instrument.timeframes().clone();
+            Arrays.sort(timeframes);
+            storedTimeframes.put(instrument.fullName(), timeframes);
+        }
     }
 
-    public List<Candle> getCandles(String instrument, String interval, long from, long to) throws Exception {
+    /**
+     * Candles of the requested interval. Intervals that are not stored are aggregated from the largest stored
+     * timeframe dividing them. With maxPoints > 0 the interval is widened to a multiple of itself so the range
+     * holds at most maxPoints candles, every candle still covering the full OHLC of its period.
+     * Candles that closed but aren't stored yet are taken from the live tail.
+     */
+    public CandleSeries getCandles(String instrument, String interval, long from, long to, int maxPoints) throws Exception {
         int timeframeMs = parseTimeframeToMilliseconds(interval);
-        return repository.queryCandles(instrument, timeframeMs, from, to);
+        int[] stored = storedTimeframes.get(instrument);
+        int bucketMs = bucket(timeframeMs, stored, from, to, maxPoints);
+        int sourceMs = source(instrument, interval, stored, timeframeMs, bucketMs);
+        if (sourceMs == bucketMs) {
+            CandleSeries series = repository.querySeries(instrument, bucketMs, from, to);
+            stored(instrument, sourceMs, series);
+            return liveTail.merge(instrument, sourceMs, series, from, to);
+        }
+        // Start at a bucket boundary so the first candle is complete
+        long alignedFrom = Math.floorDiv(from, bucketMs) * bucketMs;
+        CandleSeries series = repository.queryAggregated(instrument, sourceMs, bucketMs, alignedFrom, to);
+        stored(instrument, sourceMs, series);
+        return liveTail.merge(instrument, sourceMs, series, alignedFrom, to);
+    }
+
+    /**
+     * One page of candles of the interval in [from, to): the oldest {@code limit} ones, or with {@code newest} the
+     * latest ones. {@link CandlePage#next()} is where the following page starts (ascending) or ends (newest),
+     * null when the range is exhausted.
+     */
+    public CandlePage getPage(String instrument, String interval, long from, long to, int limit, boolean newest) throws Exception {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        int timeframeMs = parseTimeframeToMilliseconds(interval);
+        int sourceMs = source(instrument, interval, storedTimeframes.get(instrument), timeframeMs, timeframeMs);
+        long alignedFrom = Math.floorDiv(from, timeframeMs) * timeframeMs;
+        // One extra candle tells whether another page follows
+        CandleSeries page = repository.queryPage(instrument, sourceMs, timeframeMs, alignedFrom, to, limit + 1, newest);
+        stored(instrument, sourceMs, page);
+        // The newest page ends at the latest stored candle, an oldest-first page only when storage ran out
+        if (newest || page.size() <= limit) {
+            page = liveTail.merge(instrument, sourceMs, page, alignedFrom, to);
+            if (page.size() > limit + 1) {
+                page = newest ? page.slice(page.size() - limit - 1, page.size()) : page.slice(0, limit + 1);
+            }
+        }
+        if (page.size() <= limit) {
+            return new CandlePage(page, null);
+        }
+        if (newest) {
+            return new CandlePage(page.slice(1, page.size()), page.time(1));
+        }
+        return new CandlePage(page.slice(0, limit), page.time(limit));
+    }
+
+    /**
+     * Start of the range a countback of {@code countback} candles ending at {@code to} is read from. Without a
+     * bound the scan of an instrument with little history would walk back to the epoch.
+     */
+    public static long countbackFrom(String interval, long to, int countback) {
+        int timeframeMs = parseTimeframeToMilliseconds(interval);
+        long lookback = (long) Math.max(countback, 1) * timeframeMs * COUNTBACK_LOOKBACK;
+        return Math.max(0, Math.floorDiv(to - lookback, timeframeMs) * timeframeMs);
+    }
+
+    /**
+     * Whether a result for [from, to) is final and can be cached for good: it holds a candle for every bucket of
+     * the range, or {@code limit} candles for a page, and a stored candle at least {@link #SETTLE_MARGIN_MS}
+     * newer than the range was seen. An empty or short result may still be filled by a late write or a backfill.
+     */
+    public boolean isSettled(String instrument, CandleSeries candles, long from, long to, int limit) {
+        int bucketMs = candles.timeframeMs();
+        long buckets = Math.ceilDiv(Math.max(to - Math.floorDiv(from, bucketMs) * bucketMs, 0), bucketMs);
+        if (candles.isEmpty() || candles.size() < Math.min(limit, buckets)) {
+            return false;
+        }
+        int[] stored = storedTimeframes.get(instrument);
+        int sourceMs = stored == null ? bucketMs : largestDivisor(stored, bucketMs);
+        Long until = storedUntil.get(new SourceKey(instrument, sourceMs == 0 ? bucketMs : sourceMs));
+        return until != null && until >= Math.ceilDiv(to, bucketMs) * bucketMs + SETTLE_MARGIN_MS;
+    }
+
+    /**
+     * Whether every candle of {@code timeframeMs} starting before {@code to} has closed and had the time to reach
+     * storage, so a result for a range ending at {@code to} can't change anymore.
+     */
+    public static boolean isClosed(long to, int timeframeMs, long now) {
+        return now >= Math.ceilDiv(to, timeframeMs) * timeframeMs + CachingQueryRepository.CLOSE_GRACE_MS;
+    }
+
+    /**
+     * Advances the stored high-water mark of the source timeframe to the last candle of a repository result,
+     * the start of its bucket for aggregated results.
+     */
+    private void stored(String instrument, int sourceMs, CandleSeries series) {
+        if (!series.isEmpty()) {
+            storedUntil.merge(new SourceKey(instrument, sourceMs), series.time(series.size() - 1), Math::max);
+        }
+    }
+
+    /**
+     * Stored timeframe the bucket is read or aggregated from. Instruments missing from the configuration
+     * are assumed to store the requested timeframe.
+     */
+    private static int source(String instrument, String interval, int[] stored, int timeframeMs, int bucketMs) {
+        if (stored == null) {
+            return timeframeMs;
+        }
+        int sourceMs = largestDivisor(stored, bucketMs);
+        if (sourceMs == 0) {
+            throw new IllegalArgumentException("Interval " + interval + " can't be derived from the stored timeframes of " + instrument);
+        }
+        return sourceMs;
+    }
+
+    /**
+     * The candle size to return: the timeframe itself, or with maxPoints a multiple of it that keeps the range
+     * within maxPoints candles, rounded up to a stored timeframe so fewer source candles are folded.
+     */
+    static int bucket(int timeframeMs, int[] stored, long from, long to, int maxPoints) {
+        long points = Math.ceilDiv(Math.max(to - from, 0), timeframeMs);
+        if (maxPoints <= 0 || points <= maxPoints) {
+            return timeframeMs;
+        }
+        long bucket = timeframeMs * Math.ceilDiv(points, maxPoints);
+        if (stored != null) {
+            long step = timeframeMs;
+            for (int candidate : stored) {
+                if (candidate % timeframeMs == 0 && candidate <= bucket) {
+                    step = candidate;
+                }
+            }
+            bucket = Math.ceilDiv(bucket, step) * step;
+        }
+        long limit = Integer.MAX_VALUE / timeframeMs * (long) timeframeMs;
+        return (int) Math.min(bucket, limit);
+    }
+
+    /**
+     * Largest timeframe in the sorted array that divides the bucket, 0 if there is none.
+     */
+    static int largestDivisor(int[] timeframes, int bucketMs) {
+        for (int i = timeframes.length - 1; i >= 0; i--) {
+            if (timeframes[i] > 0 && timeframes[i] <= bucketMs && bucketMs % timeframes[i] == 0) {
+                return timeframes[i];
+            }
+        }
+        return 0;
     }
 
-    private int parseTimeframeToMilliseconds(String timeframe) {
+    private static int parseTimeframeToMilliseconds(String timeframe) {
         int value = NumberUtils.toInt(timeframe, -1);
         if (value > 0) {
             return value;
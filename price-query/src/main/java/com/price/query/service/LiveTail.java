@@ -0,0 +1,58 @@
+package com.price.query.service;
+
+import com.price.common.config.PriceConfiguration;
+import com.price.common.db.CandleRing;
+import com.price.common.db.CandleSeries;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The last {@code tailCandles} closed candles per instrument and timeframe as published by price-stream,
+ * available before they are persisted. Query results are completed with the candles they don't have yet.
+ */
+@Service
+public class LiveTail {
+
+    private record TailKey(String instrument, int timeframeMs) {
+    }
+
+    private final int capacity;
+    private final Map<TailKey, CandleRing> rings = new ConcurrentHashMap<>();
+
+    public LiveTail(PriceConfiguration configuration) {
+        this.capacity = configuration.query().tailCandles();
+    }
+
+    public void add(String instrument, int timeframeMs, long time, double open, double high, double low, double close, double volume) {
+        rings.computeIfAbsent(new TailKey(instrument, timeframeMs), k -> new CandleRing(capacity))
+                .add(time, open, high, low, close, volume);
+    }
+
+    /**
+     * The series followed by the tail candles of {@code timeframeMs} in [from, to) that are newer than its last
+     * bucket, aggregated to the bucket size of the series. Tail candles of a bucket the series already holds are
+     * left out, it may contain part of them. The series is not modified, it may be shared by coalesced queries.
+     */
+    public CandleSeries merge(String instrument, int timeframeMs, CandleSeries series, long from, long to) {
+        CandleRing ring = rings.get(new TailKey(instrument, timeframeMs));
+        if (ring == null) {
+            return series;
+        }
+        int bucketMs = series.timeframeMs();
+        long start = series.isEmpty() ? from : Math.max(from, series.time(series.size() - 1) + bucketMs);
+        CandleSeries tail = new CandleSeries(instrument, timeframeMs);
+        ring.copyTo(tail, start, to);
+        if (tail.isEmpty()) {
+            return series;
+        }
+        if (bucketMs != timeframeMs) {
+            tail = tail.aggregate(bucketMs);
+        }
+        CandleSeries merged = new CandleSeries(series.instrument(), bucketMs, series.size() + tail.size());
+        merged.addAll(series);
+        merged.addAll(tail);
+        return merged;
+    }
+}
@@ -0,0 +1,63 @@
+package com.price.query.service;
+
+import com.price.common.config.Instrument;
+import com.price.common.config.PriceConfiguration;
+import com.price.common.config.QuerySettings;
+import com.price.common.stream.StreamClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Subscribes to every configured instrument and timeframe on the price-stream {@code /stream} WebSocket and
+ * feeds the closed candles into {@link LiveTail}. A {@link StreamClient} reconnects and resumes each
+ * subscription after the last candle it got, so price-stream replays the candles published in between; older
+ * ones than its replay buffer holds are read from storage as before.
+ */
+@Service
+public class LiveTailClient {
+    private final LiveTail liveTail;
+    private final QuerySettings settings;
+    private final List<Instrument> instruments;
+    private StreamClient client;
+
+    public LiveTailClient(LiveTail liveTail, PriceConfiguration configuration) {
+        this.liveTail = liveTail;
+        this.settings = configuration.query();
+        this.instruments = configuration.instruments();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!settings.tailEnabled()) {
+            return;
+        }
+        List<StreamClient.Stream> streams = new ArrayList<>();
+        for (Instrument instrument : instruments) {
+            for (int timeframe : instrument.timeframes()) {
+                streams.add(new StreamClient.Stream(instrument.fullName(), timeframe));
+            }
+        }
+        client = new StreamClient("live-tail", settings.streamUrl(), streams, Map.of(), this::addCandle);
+        client.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private void addCandle(String instrument, int timeframeMs, boolean closed, long time,
+                           double open, double high, double low, double close, double volume) {
+        // Open candles come with snapshots and replays, the tail holds closed candles
+        if (closed) {
+            liveTail.add(instrument, timeframeMs, time, open, high, low, close, volume);
+        }
+    }
+}
@@ -1,20 +1,39 @@
 package com.price.query.controller;
 
+import com.price.query.dto.CandlePage;
+import com.price.query.service.HistoryBatchService;
 import com.price.query.service.HistoryService;
-import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.history.HistoryCodec;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
-import java.util.Collections;
-import java.util.List;
+import java.io.ByteArrayInputStream;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(HistoryController.class)
@@ -26,14 +45,88 @@ class HistoryControllerTest {
     @MockBean
     private HistoryService historyService;
 
+    @MockBean
+    private HistoryBatchService historyBatchService;
+
     @Test
     void testGetHistory() throws Exception {
-        Candle candle = new Candle("BTCUSDT", 60000, 1672531200000L, 40000, 41000, 39000, 40500, 100);
-        List<Candle> candles = Collections.singletonList(candle);
+        CandleSeries candles = new CandleSeries("BTCUSDT", 60000);
+        candles.add(1672531200000L, 40000, 41000, 39000, 40500, 100);
+
+        when(historyService.getCandles(anyString(), anyString(), anyLong(), anyLong(), anyInt())).thenReturn(candles);
+
+        mockMvc.perform(get("/history")
+                        .param("symbol", "BTCUSDT")
+                        .param("interval", "1m")
+                        .param("from", "1672531200")
+                        .param("to", "1672534800"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.s").value("ok"))
+                .andExpect(jsonPath("$.t[0]").value(1672531200))
+                .andExpect(jsonPath("$.o[0]").value(40000.0))
+                .andExpect(jsonPath("$.h[0]").value(41000.0))
+                .andExpect(jsonPath("$.l[0]").value(39000.0))
+                .andExpect(jsonPath("$.c[0]").value(40500.0))
+                .andExpect(jsonPath("$.v[0]").value(100.0));
+    }
+
+    @Test
+    void testGetHistoryBinary() throws Exception {
+        CandleSeries candles = new CandleSeries("BTCUSDT", 60000);
+        candles.add(1672531200000L, 40000, 41000, 39000, 40500, 100);
+
+        when(historyService.getCandles(anyString(), anyString(), anyLong(), anyLong(), anyInt())).thenReturn(candles);
+
+        byte[] body = mockMvc.perform(get("/history")
+                        .accept(HistoryCodec.MEDIA_TYPE_DEFLATE)
+                        .param("symbol", "BTCUSDT")
+                        .param("interval", "1m")
+                        .param("from", "1672531200")
+                        .param("to", "1672534800"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(HistoryCodec.MEDIA_TYPE_DEFLATE))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        CandleSeries decoded = HistoryCodec.read(new ByteArrayInputStream(body));
+        assertEquals(1, decoded.size());
+        assertEquals(1672531200000L, decoded.time(0));
+        assertEquals(40500, decoded.close(0));
+    }
 
-        when(historyService.getCandles(anyString(), anyString(), anyLong(), anyLong())).thenReturn(candles);
+    @Test
+    void testGetHistorySettledRangeIsImmutable() throws Exception {
+        CandleSeries candles = new CandleSeries("BTCUSDT", 60000);
+        candles.add(1672531200000L, 40000, 41000, 39000, 40500, 100);
+
+        when(historyService.getCandles(anyString(), anyString(), anyLong(), anyLong(), anyInt())).thenReturn(candles);
+        when(historyService.isSettled("BTCUSDT", candles, 1672531200000L, 1672534800000L, Integer.MAX_VALUE))
+                .thenReturn(true);
+
+        String eTag = mockMvc.perform(get("/history")
+                        .param("symbol", "BTCUSDT")
+                        .param("interval", "1m")
+                        .param("from", "1672531200")
+                        .param("to", "1672534800"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertNotNull(eTag);
+        mockMvc.perform(get("/history")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                        .param("symbol", "BTCUSDT")
+                        .param("interval", "1m")
+                        .param("from", "1672531200")
+                        .param("to", "1672534800"))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
 
+        // Another representation has another tag
         mockMvc.perform(get("/history")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                        .accept(HistoryCodec.MEDIA_TYPE)
                         .param("symbol", "BTCUSDT")
                         .param("interval", "1m")
                         .param("from", "1672531200")
@@ -41,6 +134,40 @@ class HistoryControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    void testGetHistoryUnsettledRangeIsRevalidated() throws Exception {
+        CandleSeries candles = new CandleSeries("BTCUSDT", 60000);
+
+        when(historyService.getCandles(anyString(), anyString(), anyLong(), anyLong(), anyInt())).thenReturn(candles);
+
+        // Closed, but storage may not have caught up with it yet
+        mockMvc.perform(get("/history")
+                        .param("symbol", "BTCUSDT")
+                        .param("interval", "1m")
+                        .param("from", "1672531200")
+                        .param("to", "1672534800"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=60, must-revalidate, public"));
+    }
+
+    @Test
+    void testGetHistoryLiveHeadIsShortLived() throws Exception {
+        long now = System.currentTimeMillis();
+        CandleSeries candles = new CandleSeries("BTCUSDT", 60000);
+        candles.add(now / 60000 * 60000, 40000, 41000, 39000, 40500, 100);
+
+        when(historyService.getCandles(anyString(), anyString(), anyLong(), anyLong(), anyInt())).thenReturn(candles);
+
+        mockMvc.perform(get("/history")
+                        .param("symbol", "BTCUSDT")
+                        .param("interval", "1m")
+                        .param("from", String.valueOf(now / 1000 - 3600))
+                        .param("to", String.valueOf(now / 1000 + 60)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=1, must-revalidate, public"))
+                .andExpect(header().exists(HttpHeaders.ETAG));
+    }
+
     @Test
     void testGetHistoryBadRequest() throws Exception {
         mockMvc.perform(get("/history")
@@ -49,4 +176,87 @@ class HistoryControllerTest {
                         .param("from", "1672531200"))
                 .andExpect(status().isBadRequest());
     }
+
+    @Test
+    void testGetHistoryCountbackPages() throws Exception {
+        CandleSeries candles = new CandleSeries("BTCUSDT", 60000);
+        candles.add(1672534500000L, 40000, 41000, 39000, 40500, 100);
+
+        when(historyService.getPage("BTCUSDT", "1m", 1672246800000L, 1672534800000L, 300, true))
+                .thenReturn(new CandlePage(candles, 1672534500000L));
+
+        String cursor = mockMvc.perform(get("/history")
+                        .param("symbol", "BTCUSDT")
+                        .param("interval", "1m")
+                        .param("to", "1672534800")
+                        .param("countback", "300"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.t[0]").value(1672534500))
+                .andExpect(header().exists(HistoryController.NEXT_CURSOR_HEADER))
+                .andReturn().getResponse().getHeader(HistoryController.NEXT_CURSOR_HEADER);
+
+        when(historyService.getPage("BTCUSDT", "1m", 1672246800000L, 1672534500000L, 300, true))
+                .thenReturn(new CandlePage(new CandleSeries("BTCUSDT", 60000), null));
+
+        mockMvc.perform(get("/history").param("cursor", cursor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.s").value("ok"))
+                .andExpect(header().doesNotExist(HistoryController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    void testGetHistoryPagingBadRequest() throws Exception {
+        mockMvc.perform(get("/history")
+                        .param("symbol", "BTCUSDT")
+                        .param("interval", "1m")
+                        .param("to", "1672534800")
+                        .param("countback", "300")
+                        .param("limit", "300"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/history").param("cursor", "not a cursor"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.s").value("error"));
+    }
+
+    @Test
+    void testGetHistoryBatch() throws Exception {
+        CandleSeries candles = new CandleSeries("BTCUSDT", 60000);
+        candles.add(1672531200000L, 40000, 41000, 39000, 40500, 100);
+
+        doAnswer(invocation -> {
+            HistoryBatchService.ResultHandler handler = invocation.getArgument(1);
+            handler.accept(1, null, new IllegalArgumentException("Invalid timeframe unit: x"));
+            handler.accept(0, candles, null);
+            return null;
+        }).when(historyBatchService).getCandles(anyList(), any());
+
+        MvcResult result = mockMvc.perform(post("/history/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                [{"symbol":"BTCUSDT","interval":"1m","from":1672531200,"to":1672534800},
+                                 {"symbol":"BTCUSDT","interval":"1x","from":1672531200,"to":1672534800}]
+                                """))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String[] lines = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString().split("\n");
+
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("{\"i\":1,"));
+        assertTrue(lines[0].contains("\"s\":\"error\""));
+        assertTrue(lines[1].startsWith("{\"i\":0,"));
+        assertTrue(lines[1].contains("\"t\":[1672531200]"));
+    }
+
+    @Test
+    void testGetHistoryBatchEmpty() throws Exception {
+        mockMvc.perform(post("/history/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+    }
 }
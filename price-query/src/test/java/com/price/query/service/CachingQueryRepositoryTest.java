@@ -0,0 +1,142 @@
+package com.price.query.service;
+
+import com.price.common.config.QuerySettings;
+import com.price.common.db.Candle;
+import com.price.common.db.QueryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CachingQueryRepositoryTest {
+
+    private static final String INSTRUMENT = "BTCUSDT@BINANCE";
+    private static final int TIMEFRAME_MS = 60000;
+    private static final int CHUNK = 10;
+    private static final long SPAN = (long) CHUNK * TIMEFRAME_MS;
+
+    private final List<long[]> queries = new ArrayList<>();
+    private long now;
+    private long firstCandle;
+
+    private final QueryRepository source = new QueryRepository() {
+        @Override
+        public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) {
+            queries.add(new long[]{fromTimestamp, toTimestamp});
+            List<Candle> candles = new ArrayList<>();
+            for (long time = Math.max(fromTimestamp, firstCandle); time < toTimestamp && time < now; time += timeframeMs) {
+                candles.add(new Candle(instrument, timeframeMs, time, 1, 2, 0.5, 1.5, time));
+            }
+            return candles;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @BeforeEach
+    void setUp() {
+        now = 100 * SPAN;
+    }
+
+    @Test
+    void testClosedChunksAreServedFromCache() throws Exception {
+        CachingQueryRepository cache = cache(1000);
+
+        List<Candle> first = cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 3 * TIMEFRAME_MS, 25 * TIMEFRAME_MS);
+        List<Candle> second = cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 3 * TIMEFRAME_MS, 25 * TIMEFRAME_MS);
+
+        assertEquals(22, first.size());
+        assertEquals(first, second);
+        assertEquals(3 * TIMEFRAME_MS, first.getFirst().time());
+        assertEquals(24 * TIMEFRAME_MS, first.getLast().time());
+        // One query covering the three aligned chunks
+        assertEquals(1, queries.size());
+        assertEquals(0, queries.getFirst()[0]);
+        assertEquals(3 * SPAN, queries.getFirst()[1]);
+    }
+
+    @Test
+    void testOnlyMissingChunksAreFetched() throws Exception {
+        CachingQueryRepository cache = cache(1000);
+
+        cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, SPAN, 2 * SPAN);
+        List<Candle> candles = cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 0, 3 * SPAN);
+
+        assertEquals(3 * CHUNK, candles.size());
+        assertEquals(3, queries.size());
+        assertEquals(0, queries.get(1)[0]);
+        assertEquals(SPAN, queries.get(1)[1]);
+        assertEquals(2 * SPAN, queries.get(2)[0]);
+        assertEquals(3 * SPAN, queries.get(2)[1]);
+    }
+
+    @Test
+    void testHeadChunkExpires() throws Exception {
+        CachingQueryRepository cache = cache(1000);
+        long from = now - 3 * TIMEFRAME_MS;
+
+        assertEquals(3, cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, from, now + SPAN).size());
+        assertEquals(3, cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, from, now + SPAN).size());
+        assertEquals(1, queries.size());
+
+        now += QuerySettings.DEFAULT_CACHE_HEAD_TTL_MS + TIMEFRAME_MS;
+        assertEquals(5, cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, from, now + SPAN).size());
+        assertEquals(2, queries.size());
+    }
+
+    @Test
+    void testLeastRecentlyUsedChunksAreEvicted() throws Exception {
+        CachingQueryRepository cache = cache(2 * CHUNK);
+
+        cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 0, SPAN);
+        cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, SPAN, 2 * SPAN);
+        cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 0, SPAN);
+        cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 2 * SPAN, 3 * SPAN);
+        assertEquals(2 * CHUNK, cache.cachedCandles());
+
+        cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 0, SPAN);
+        assertEquals(3, queries.size());
+        cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, SPAN, 2 * SPAN);
+        assertEquals(4, queries.size());
+    }
+
+    @Test
+    void testEmptyChunksDontEvictCandles() throws Exception {
+        CachingQueryRepository cache = cache(2 * CHUNK);
+        firstCandle = 50 * SPAN;
+        cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 50 * SPAN, 52 * SPAN);
+
+        // Scanning the empty history before the first candle
+        assertEquals(0, cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 0, 50 * SPAN).size());
+        assertEquals(0, cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 0, 50 * SPAN).size());
+        assertEquals(2, queries.size());
+
+        assertEquals(2 * CHUNK, cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 50 * SPAN, 52 * SPAN).size());
+        assertEquals(2, queries.size());
+        assertEquals(2 * CHUNK, cache.cachedCandles());
+    }
+
+    @Test
+    void testLongRangesBypassTheCache() throws Exception {
+        CachingQueryRepository cache = cache(1000);
+        now = 1000 * SPAN;
+        long to = (CachingQueryRepository.MAX_REQUEST_CHUNKS + 1) * SPAN;
+
+        assertEquals(to / TIMEFRAME_MS, cache.queryCandles(INSTRUMENT, TIMEFRAME_MS, 0, to).size());
+
+        // One query for the exact range, nothing cached
+        assertEquals(1, queries.size());
+        assertEquals(0, queries.getFirst()[0]);
+        assertEquals(to, queries.getFirst()[1]);
+        assertEquals(0, cache.cachedCandles());
+    }
+
+    private CachingQueryRepository cache(long maxCandles) {
+        return new CachingQueryRepository(source, new QuerySettings(maxCandles, CHUNK, null, null, null, null), () -> now);
+    }
+}
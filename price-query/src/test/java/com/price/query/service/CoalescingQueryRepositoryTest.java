@@ -0,0 +1,160 @@
+package com.price.query.service;
+
+import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.db.QueryRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoalescingQueryRepositoryTest {
+
+    private static final String INSTRUMENT = "BTCUSDT@binance";
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger pages = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile Exception failure;
+
+    private final QueryRepository source = new QueryRepository() {
+        @Override
+        public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CandleSeries querySeries(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) throws Exception {
+            block();
+            return new CandleSeries(instrument, timeframeMs);
+        }
+
+        @Override
+        public CandleSeries queryPage(String instrument, int timeframeMs, int bucketMs,
+                                      long fromTimestamp, long toTimestamp, int limit, boolean newest) throws Exception {
+            block();
+            pages.incrementAndGet();
+            return new CandleSeries(instrument, bucketMs);
+        }
+
+        private void block() throws Exception {
+            if (calls.incrementAndGet() == 1) {
+                started.countDown();
+                release.await();
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final CoalescingQueryRepository repository = new CoalescingQueryRepository(source);
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Test
+    void testIdenticalQueriesShareOneCall() throws Exception {
+        List<Future<CandleSeries>> futures = submit(5, 0);
+        started.await();
+        awaitWaiters(4);
+        release.countDown();
+
+        CandleSeries first = futures.getFirst().get(5, TimeUnit.SECONDS);
+        for (Future<CandleSeries> future : futures) {
+            assertSame(first, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, repository.inFlight());
+    }
+
+    @Test
+    void testDifferentQueriesAreNotCoalesced() throws Exception {
+        List<Future<CandleSeries>> futures = submit(1, 0);
+        started.await();
+        repository.querySeries(INSTRUMENT, 60000, 0, 120000);
+        release.countDown();
+        futures.getFirst().get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void testErrorIsPropagatedToWaiters() throws Exception {
+        failure = new IllegalArgumentException("boom");
+        List<Future<CandleSeries>> futures = submit(3, 0);
+        started.await();
+        awaitWaiters(2);
+        release.countDown();
+
+        for (Future<CandleSeries> future : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, e.getCause());
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, repository.inFlight());
+    }
+
+    @Test
+    void testWaitersRetryWhenRunningQueryIsInterrupted() throws Exception {
+        Future<CandleSeries> leader = submit(1, 0).getFirst();
+        started.await();
+        List<Future<CandleSeries>> waiters = submit(2, 0);
+        awaitWaiters(2);
+
+        leader.cancel(true);
+        for (Future<CandleSeries> waiter : waiters) {
+            assertNotNull(waiter.get(5, TimeUnit.SECONDS));
+        }
+        // One of the waiters ran the query again instead of failing
+        assertTrue(calls.get() >= 2);
+    }
+
+    @Test
+    void testPagesAreCoalescedAndForwarded() throws Exception {
+        List<Future<CandleSeries>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(executor.submit(() -> repository.queryPage(INSTRUMENT, 60000, 60000, 0, 600000, 5, true)));
+        }
+        started.await();
+        awaitWaiters(2);
+        // Another page of the same range is a different query
+        assertNotNull(repository.queryPage(INSTRUMENT, 60000, 60000, 0, 600000, 5, false));
+        release.countDown();
+
+        for (Future<CandleSeries> future : futures) {
+            assertSame(futures.getFirst().get(5, TimeUnit.SECONDS), future.get(5, TimeUnit.SECONDS));
+        }
+        // The repository's own page query ran, not the default windowed scan
+        assertEquals(2, pages.get());
+        assertEquals(2, calls.get());
+    }
+
+    private List<Future<CandleSeries>> submit(int count, long from) {
+        List<Future<CandleSeries>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(() -> repository.querySeries(INSTRUMENT, 60000, from, 60000)));
+        }
+        return futures;
+    }
+
+    private void awaitWaiters(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (repository.waiting() < count) {
+            assertTrue(System.nanoTime() < deadline, "waiters: " + repository.waiting());
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.price.query.service;
+
+import com.price.common.config.PriceConfiguration;
+import com.price.common.config.QuerySettings;
+import com.price.common.db.CandleSeries;
+import com.price.query.dto.HistoryRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HistoryBatchServiceTest {
+
+    private final HistoryService historyService = mock(HistoryService.class);
+    private final HistoryBatchService batchService = new HistoryBatchService(historyService, new PriceConfiguration(
+            List.of(), List.of(), 8080, 1024, null, new QuerySettings(null, null, null, 2, null, null)));
+
+    @Test
+    void testResultsAndErrorsAreReportedPerRequest() throws Exception {
+        CandleSeries series = new CandleSeries("BTCUSDT@binance", 60000);
+        when(historyService.getCandles(eq("BTCUSDT@binance"), anyString(), anyLong(), anyLong(), anyInt())).thenReturn(series);
+        when(historyService.getCandles(eq("BAD"), anyString(), anyLong(), anyLong(), anyInt()))
+                .thenThrow(new IllegalArgumentException("Invalid timeframe unit: x"));
+
+        Map<Integer, Object> results = new ConcurrentHashMap<>();
+        batchService.getCandles(List.of(
+                new HistoryRequest("BTCUSDT@binance", "1m", 0L, 60L, 0),
+                new HistoryRequest("BAD", "1x", 0L, 60L, 0)
+        ), (index, result, error) -> results.put(index, error == null ? result : error));
+
+        assertSame(series, results.get(0));
+        assertInstanceOf(IllegalArgumentException.class, results.get(1));
+    }
+
+    @Test
+    void testMissingAndInvertedRangesAreRejectedPerRequest() throws Exception {
+        CandleSeries series = new CandleSeries("BTCUSDT@binance", 60000);
+        when(historyService.getCandles(anyString(), anyString(), anyLong(), anyLong(), anyInt())).thenReturn(series);
+
+        Map<Integer, Object> results = new ConcurrentHashMap<>();
+        batchService.getCandles(List.of(
+                new HistoryRequest("BTCUSDT@binance", "1m", null, 60L, 0),
+                new HistoryRequest("BTCUSDT@binance", "1m", 120L, 60L, 0),
+                new HistoryRequest("BTCUSDT@binance", "1m", 0L, 60L, 0)
+        ), (index, result, error) -> results.put(index, error == null ? result : error));
+
+        assertEquals("Missing required parameter: from", ((Exception) results.get(0)).getMessage());
+        assertEquals("from must not be after to", ((Exception) results.get(1)).getMessage());
+        assertSame(series, results.get(2));
+        // Only the valid request reached the repository
+        verify(historyService, times(1)).getCandles(anyString(), anyString(), anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    void testConcurrencyIsBounded() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(historyService.getCandles(anyString(), anyString(), anyLong(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return new CandleSeries(invocation.getArgument(0), 60000);
+        });
+
+        List<HistoryRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(new HistoryRequest("S" + i, "1m", 0L, 60L, 0));
+        }
+        List<Integer> completed = new ArrayList<>();
+        batchService.getCandles(requests, (index, series, error) -> completed.add(index));
+
+        assertEquals(10, completed.size());
+        assertTrue(maxRunning.get() <= 2, "max running " + maxRunning.get());
+    }
+}
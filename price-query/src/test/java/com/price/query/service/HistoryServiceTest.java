@@ -0,0 +1,210 @@
+package com.price.query.service;
+
+import com.price.common.archive.ArchiveQueryRepository;
+import com.price.common.archive.TieredQueryRepository;
+import com.price.common.config.Instrument;
+import com.price.common.config.PriceConfiguration;
+import com.price.common.config.QuerySettings;
+import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.db.QueryRepository;
+import com.price.query.dto.CandlePage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryServiceTest {
+
+    private static final String INSTRUMENT = "BTCUSDT@binance";
+    private static final int MINUTE = 60000;
+    private static final int HOUR = 60 * MINUTE;
+
+    private final List<String> queries = new ArrayList<>();
+
+    private final QueryRepository repository = new QueryRepository() {
+        @Override
+        public List<Candle> queryCandles(String instrument, int timeframeMs, long fromTimestamp, long toTimestamp) {
+            queries.add("series " + timeframeMs + " " + fromTimestamp);
+            return List.of();
+        }
+
+        @Override
+        public CandleSeries queryAggregated(String instrument, int timeframeMs, int bucketMs, long fromTimestamp, long toTimestamp) {
+            queries.add("aggregated " + timeframeMs + " " + bucketMs + " " + fromTimestamp);
+            return new CandleSeries(instrument, bucketMs);
+        }
+
+        @Override
+        public CandleSeries queryPage(String instrument, int timeframeMs, int bucketMs,
+                                      long fromTimestamp, long toTimestamp, int limit, boolean newest) {
+            queries.add("page " + timeframeMs + " " + bucketMs + " " + limit + " " + newest);
+            CandleSeries page = new CandleSeries(instrument, bucketMs);
+            for (int i = 0; i < Math.min(limit, 5); i++) {
+                page.add(fromTimestamp + (long) i * bucketMs, 1, 1, 1, 1, 1);
+            }
+            return page;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final PriceConfiguration configuration = new PriceConfiguration(
+            List.of(new Instrument("BTCUSDT", "binance", new int[]{HOUR, MINUTE, 5000})),
+            List.of(), 8080, 1024, null, new QuerySettings(0L, null, null, null, null, null));
+    private final LiveTail liveTail = new LiveTail(configuration);
+    private final HistoryService service = new HistoryService(repository, liveTail, configuration);
+
+    @Test
+    void testStoredTimeframeIsQueriedDirectly() throws Exception {
+        service.getCandles(INSTRUMENT, "1m", 0, 10L * MINUTE, 0);
+        assertEquals(List.of("series 60000 0"), queries);
+    }
+
+    @Test
+    void testDerivedTimeframeUsesLargestStoredDivisor() throws Exception {
+        service.getCandles(INSTRUMENT, "4h", HOUR, 10L * HOUR, 0);
+        service.getCandles(INSTRUMENT, "15m", 0, HOUR, 0);
+        // The 4h range start is moved back to the bucket boundary
+        assertEquals(List.of("aggregated 3600000 14400000 0", "aggregated 60000 900000 0"), queries);
+    }
+
+    @Test
+    void testUnderivableTimeframeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> service.getCandles(INSTRUMENT, "7s", 0, MINUTE, 0));
+    }
+
+    @Test
+    void testUnknownInstrumentKeepsRequestedTimeframe() throws Exception {
+        service.getCandles("ETHUSDT@binance", "7m", 0, HOUR, 0);
+        assertEquals(List.of("series 420000 0"), queries);
+    }
+
+    @Test
+    void testMaxPointsWidensToStoredTimeframe() throws Exception {
+        long year = 365L * 24 * HOUR;
+        service.getCandles(INSTRUMENT, "1m", 0, year, 800);
+        // 525600 minutes / 800 = 657m, rounded up to whole hours
+        assertEquals(List.of("aggregated 3600000 39600000 0"), queries);
+    }
+
+    @Test
+    void testRangeIsClosedOnceItsLastCandleIsStored() {
+        // The candle at 59m of [0, 1h) closes at 1h and has CLOSE_GRACE_MS to reach storage
+        assertFalse(HistoryService.isClosed(HOUR, MINUTE, HOUR));
+        assertTrue(HistoryService.isClosed(HOUR, MINUTE, HOUR + CachingQueryRepository.CLOSE_GRACE_MS));
+        // A range ending inside a candle includes it
+        assertFalse(HistoryService.isClosed(HOUR + 1, MINUTE, HOUR + CachingQueryRepository.CLOSE_GRACE_MS));
+        assertFalse(HistoryService.isClosed(HOUR, 4 * HOUR, 2 * HOUR));
+    }
+
+    @Test
+    void testPageReportsNextBoundary() throws Exception {
+        CandlePage newest = service.getPage(INSTRUMENT, "1m", 0, HOUR, 3, true);
+        // One candle more than the page came back, the oldest one is left for the next page
+        assertEquals(3, newest.candles().size());
+        assertEquals(MINUTE, newest.candles().time(0));
+        assertEquals(MINUTE, newest.next());
+
+        CandlePage oldest = service.getPage(INSTRUMENT, "4h", 0, 100L * HOUR, 2, false);
+        assertEquals(2, oldest.candles().size());
+        assertEquals(8L * HOUR, oldest.next());
+
+        CandlePage last = service.getPage(INSTRUMENT, "1m", 0, HOUR, 10, true);
+        assertEquals(5, last.candles().size());
+        assertNull(last.next());
+
+        assertEquals(List.of("page 60000 60000 4 true", "page 3600000 14400000 3 false", "page 60000 60000 11 true"), queries);
+        assertThrows(IllegalArgumentException.class, () -> service.getPage(INSTRUMENT, "1m", 0, HOUR, 0, true));
+    }
+
+    @Test
+    void testPageReachesStorageThroughCacheAndArchive(@TempDir Path archive) throws Exception {
+        // Wired as by ApplicationContext and HistoryService with the cache and the archive enabled
+        PriceConfiguration cached = new PriceConfiguration(configuration.instruments(), List.of(), 8080, 1024, null,
+                QuerySettings.defaults());
+        HistoryService wired = new HistoryService(new TieredQueryRepository(repository, new ArchiveQueryRepository(archive)),
+                new LiveTail(cached), cached);
+
+        CandlePage page = wired.getPage(INSTRUMENT, "1m", 0, HOUR, 3, true);
+
+        assertEquals(3, page.candles().size());
+        // One ordered, limited scan instead of the windows of the default
+        assertEquals(List.of("page 60000 60000 4 true"), queries);
+    }
+
+    @Test
+    void testCountbackLooksBackABoundedRange() {
+        // Aligned down to the candle holding the start of the lookback
+        long lookback = 300L * MINUTE * HistoryService.COUNTBACK_LOOKBACK;
+        assertEquals(HOUR, HistoryService.countbackFrom("1m", HOUR + lookback + 1, 300));
+        assertEquals(0, HistoryService.countbackFrom("1d", HOUR, 300));
+    }
+
+    @Test
+    void testRangeSettlesBehindTheLatestStoredCandle() throws Exception {
+        CandleSeries candles = new CandleSeries(INSTRUMENT, MINUTE);
+        for (int i = 0; i < 60; i++) {
+            candles.add((long) i * MINUTE, 1, 1, 1, 1, 1);
+        }
+        // Nothing newer than the range was stored yet
+        assertFalse(service.isSettled(INSTRUMENT, candles, 0, HOUR, Integer.MAX_VALUE));
+
+        // An empty result doesn't move the mark, a page of the stub holds 5 candles from its start
+        service.getCandles(INSTRUMENT, "1m", HOUR, 2 * HOUR, 0);
+        assertFalse(service.isSettled(INSTRUMENT, candles, 0, HOUR, Integer.MAX_VALUE));
+        service.getPage(INSTRUMENT, "1m", HOUR + 10L * MINUTE, 2 * HOUR, 10, false);
+        assertTrue(service.isSettled(INSTRUMENT, candles, 0, HOUR, Integer.MAX_VALUE));
+        // Aggregated from the stored minutes as well
+        assertTrue(service.isSettled(INSTRUMENT, candles.aggregate(15 * MINUTE), 0, HOUR, Integer.MAX_VALUE));
+
+        // A short range or page may still be completed
+        assertFalse(service.isSettled(INSTRUMENT, candles.slice(1, 60), 0, HOUR, Integer.MAX_VALUE));
+        assertFalse(service.isSettled(INSTRUMENT, candles.slice(0, 30), 0, HOUR, 31));
+        assertTrue(service.isSettled(INSTRUMENT, candles.slice(0, 30), 0, HOUR, 30));
+        assertFalse(service.isSettled(INSTRUMENT, new CandleSeries(INSTRUMENT, MINUTE), 0, HOUR, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testLiveTailCompletesNewestPage() throws Exception {
+        // Storage has the candles up to 3m, the stream already closed 4m to 6m
+        liveTail.add(INSTRUMENT, MINUTE, 4L * MINUTE, 1, 1, 1, 1, 1);
+        liveTail.add(INSTRUMENT, MINUTE, 5L * MINUTE, 2, 2, 2, 2, 2);
+        liveTail.add(INSTRUMENT, MINUTE, 6L * MINUTE, 3, 3, 3, 3, 3);
+
+        CandlePage page = service.getPage(INSTRUMENT, "1m", 0, HOUR, 3, true);
+
+        assertEquals(3, page.candles().size());
+        assertEquals(4L * MINUTE, page.candles().time(0));
+        assertEquals(6L * MINUTE, page.candles().time(2));
+        assertEquals(4L * MINUTE, page.next());
+    }
+
+    @Test
+    void testBucket() {
+        int[] stored = {5000, MINUTE, HOUR};
+        assertEquals(MINUTE, HistoryService.bucket(MINUTE, stored, 0, 100L * MINUTE, 0));
+        assertEquals(MINUTE, HistoryService.bucket(MINUTE, stored, 0, 100L * MINUTE, 100));
+        assertEquals(2 * MINUTE, HistoryService.bucket(MINUTE, stored, 0, 101L * MINUTE, 100));
+        assertEquals(50 * MINUTE, HistoryService.bucket(MINUTE, stored, 0, 1000L * MINUTE, 20));
+        assertEquals(2 * HOUR, HistoryService.bucket(MINUTE, stored, 0, 1000L * MINUTE, 10));
+        assertEquals(3 * MINUTE, HistoryService.bucket(MINUTE, null, 0, 300L * MINUTE, 100));
+        long tooWide = 100L * 365 * 24 * HOUR;
+        assertTrue(HistoryService.bucket(MINUTE, stored, 0, tooWide, 1) % MINUTE == 0);
+    }
+
+    @Test
+    void testLargestDivisor() {
+        int[] stored = {5000, MINUTE, HOUR};
+        assertEquals(HOUR, HistoryService.largestDivisor(stored, 4 * HOUR));
+        assertEquals(MINUTE, HistoryService.largestDivisor(stored, 90 * MINUTE));
+        assertEquals(5000, HistoryService.largestDivisor(stored, 15000));
+        assertEquals(0, HistoryService.largestDivisor(stored, 7000));
+    }
+}
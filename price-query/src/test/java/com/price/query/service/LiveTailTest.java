@@ -0,0 +1,59 @@
+package com.price.query.service;
+
+import com.price.common.config.PriceConfiguration;
+import com.price.common.config.QuerySettings;
+import com.price.common.db.CandleSeries;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveTailTest {
+
+    private static final String INSTRUMENT = "BTCUSDT@binance";
+    private static final int MINUTE = 60000;
+
+    private final LiveTail liveTail = new LiveTail(new PriceConfiguration(List.of(), List.of(), 8080, 1024, null,
+            new QuerySettings(null, null, null, null, "ws://localhost:8081/stream", 4)));
+
+    @Test
+    void testMergeAppendsCandlesNewerThanStored() {
+        for (int i = 0; i < 6; i++) {
+            liveTail.add(INSTRUMENT, MINUTE, i * (long) MINUTE, i, i, i, i, i);
+        }
+        CandleSeries stored = new CandleSeries(INSTRUMENT, MINUTE);
+        stored.add(0, 0, 0, 0, 0, 0);
+        stored.add(3L * MINUTE, 3, 3, 3, 3, 3);
+
+        CandleSeries merged = liveTail.merge(INSTRUMENT, MINUTE, stored, 0, 5L * MINUTE);
+
+        assertEquals(3, merged.size());
+        assertEquals(4L * MINUTE, merged.time(2));
+        // Shared with other callers, so left untouched
+        assertEquals(2, stored.size());
+        // Only the last 4 candles are kept
+        assertEquals(4, liveTail.merge(INSTRUMENT, MINUTE, new CandleSeries(INSTRUMENT, MINUTE), 0, Long.MAX_VALUE).size());
+        assertSame(stored, liveTail.merge(INSTRUMENT, 5000, stored, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testMergeAggregatesIntoLaterBucketsOnly() {
+        for (int i = 0; i < 4; i++) {
+            liveTail.add(INSTRUMENT, MINUTE, i * (long) MINUTE, 10 + i, 20 + i, 5 - i, 11 + i, 1);
+        }
+        // The 2m bucket at 0 was partially stored, the tail can't tell which part
+        CandleSeries stored = new CandleSeries(INSTRUMENT, 2 * MINUTE);
+        stored.add(0, 10, 20, 5, 11, 1);
+
+        CandleSeries merged = liveTail.merge(INSTRUMENT, MINUTE, stored, 0, Long.MAX_VALUE);
+
+        assertEquals(2, merged.size());
+        assertEquals(2L * MINUTE, merged.time(1));
+        assertEquals(12, merged.open(1));
+        assertEquals(23, merged.high(1));
+        assertEquals(2, merged.low(1));
+        assertEquals(14, merged.close(1));
+        assertEquals(2, merged.volume(1));
+    }
+}
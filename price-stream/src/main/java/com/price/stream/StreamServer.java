@@ -4,7 +4,10 @@ import com.price.common.config.PriceConfiguration;
 import com.price.stream.market.ConnectorFactory;
 import com.price.stream.market.MarketDataProcessorFactory;
 import com.price.stream.market.NonDriftingTimer;
+import com.price.stream.relay.UpstreamClient;
 import com.price.stream.service.StreamService;
+import com.price.stream.state.CheckpointService;
+import com.price.stream.storage.ArchiveScheduler;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -21,10 +24,16 @@ import org.springframework.context.annotation.Bean;
 public class StreamServer {
     public static void main(String[] args) {
         ConfigurableApplicationContext context = SpringApplication.run(StreamServer.class, args);
+        // Open candles must be restored before market data starts flowing
+        context.getBean(CheckpointService.class).restore();
         context.getBean(NonDriftingTimer.class).start();
         context.getBean(MarketDataProcessorFactory.class).start();
+        // Only one of them has anything to start: connectors on a core node, the upstream feed on a relay
         context.getBean(ConnectorFactory.class).start();
+        context.getBean(UpstreamClient.class).start();
         context.getBean(StreamService.class).start();
+        context.getBean(CheckpointService.class).start();
+        context.getBean(ArchiveScheduler.class).start();
     }
 
     @Bean
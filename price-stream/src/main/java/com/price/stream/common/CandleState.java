@@ -0,0 +1,7 @@
+package com.price.stream.common;
+
+/**
+ * Immutable copy of an open candle, used to checkpoint and restore aggregator state.
+ */
+public record CandleState(long time, double open, double high, double low, double close, long volume) {
+}
@@ -0,0 +1,10 @@
+package com.price.stream.common;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Candles a resuming client missed, encoded as one message. Not complete when the replay buffer no longer reaches
+ * back to the client's last candle, the client has to fill the gap from history.
+ */
+public record Replay(ByteBuf content, boolean complete) {
+}
@@ -17,9 +17,19 @@ public class MarketDataEvent extends TraceableEvent {
     private double price;
     private long volume;
     private Type type;
+    // CANDLE events only: timestamp is the candle's start time and price its close
+    private int timeframe;
+    private double open;
+    private double high;
+    private double low;
+    private boolean closed;
 
     public enum Type {
         DATA,
-        TIMER
+        TIMER,
+        // Sub-second tick pushing open candles to subscribers that asked for updates
+        UPDATE,
+        // Candle aggregated by the upstream price-stream of a relay
+        CANDLE
     }
 }
@@ -1,4 +1,14 @@
 package com.price.stream.event.client;
 
-public record InstrumentEvent(String i, long t, long f, double o, double h, double l, double c, double v) {
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Candle sent to JSON clients, {@code p} marks an update of a candle that is still open and left out otherwise.
+ */
+public record InstrumentEvent(String i, long t, long f, double o, double h, double l, double c, double v,
+                              @JsonInclude(JsonInclude.Include.NON_DEFAULT) boolean p) {
+
+    public InstrumentEvent(String i, long t, long f, double o, double h, double l, double c, double v) {
+        this(i, t, f, o, h, l, c, v, false);
+    }
 }
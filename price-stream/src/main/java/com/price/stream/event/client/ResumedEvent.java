@@ -0,0 +1,12 @@
+package com.price.stream.event.client;
+
+/**
+ * Reply to a subscription resuming after a candle, sent ahead of the replayed candles. {@code complete} is false
+ * when candles between the client's last one and the replay were already dropped from the replay buffer.
+ */
+public record ResumedEvent(String type, String instrument, int timeframe, boolean complete) {
+
+    public ResumedEvent(String instrument, int timeframe, boolean complete) {
+        this("RESUMED", instrument, timeframe, complete);
+    }
+}
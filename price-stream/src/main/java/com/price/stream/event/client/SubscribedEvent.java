@@ -0,0 +1,11 @@
+package com.price.stream.event.client;
+
+/**
+ * Reply to a subscription of a binary client, tells it the instrument id used in the candle frames.
+ */
+public record SubscribedEvent(String type, String instrument, int timeframe, int id) {
+
+    public SubscribedEvent(String instrument, int timeframe, int id) {
+        this("SUBSCRIBED", instrument, timeframe, id);
+    }
+}
@@ -4,6 +4,8 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 
+import java.util.List;
+
 @Getter
 public class SubscriptionEvent {
 
@@ -15,14 +17,33 @@ public class SubscriptionEvent {
     private final Type type;
     private final String instrument;
     private final int timeframe;
+    // Bulk requests list several instruments or timeframes, a single one is taken from the fields above
+    private final List<String> instruments;
+    private final List<Integer> timeframes;
+    // Open candle updates per second, 0 for closed candles only
+    private final int rate;
+    // Recent candles to send before the live ones, 0 for none
+    private final int snapshot;
+    // Start time of the last closed candle a reconnecting client got, only the candles after it are sent; 0 for none
+    private final long resume;
 
     @JsonCreator
     public SubscriptionEvent(
             @JsonProperty("type") Type type,
             @JsonProperty("instrument") String instrument,
-            @JsonProperty("timeframe") int timeframe) {
+            @JsonProperty("timeframe") int timeframe,
+            @JsonProperty("instruments") List<String> instruments,
+            @JsonProperty("timeframes") List<Integer> timeframes,
+            @JsonProperty("rate") int rate,
+            @JsonProperty("snapshot") int snapshot,
+            @JsonProperty("resume") long resume) {
         this.type = type;
         this.instrument = instrument;
         this.timeframe = timeframe;
+        this.instruments = instruments != null ? instruments : instrument != null ? List.of(instrument) : List.of();
+        this.timeframes = timeframes != null ? timeframes : List.of(timeframe);
+        this.rate = rate;
+        this.snapshot = snapshot;
+        this.resume = resume;
     }
 }
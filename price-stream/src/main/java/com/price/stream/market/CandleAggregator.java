@@ -1,11 +1,18 @@
 package com.price.stream.market;
 
 import com.lmax.disruptor.EventHandler;
+import com.price.common.db.CandleRing;
+import com.price.common.db.CandleSeries;
 import com.price.stream.common.CandleProcessor;
+import com.price.stream.common.CandleState;
+import com.price.stream.common.Replay;
 import com.price.stream.common.SubscriptionKey;
 import com.price.common.config.Instrument;
 import com.price.stream.event.buffer.MarketDataEvent;
+import com.price.stream.service.CandleBroadcaster;
 import com.price.stream.service.SubscriptionProcessor;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
@@ -14,8 +21,12 @@ import java.util.concurrent.CopyOnWriteArrayList;
 @Slf4j
 public class CandleAggregator implements EventHandler<MarketDataEvent> {
     private final Instrument instrument;
+    @Getter
     private final SubscriptionKey subscriptionKey;
     private final List<CandleProcessor> candleProcessors;
+    private final CandleBroadcaster broadcaster;
+    // Latest closed candles, sent to clients subscribing with a snapshot
+    private final CandleRing recent;
 
     // Current candle state
     private long currentCandleStartTime = -1;
@@ -25,11 +36,20 @@ public class CandleAggregator implements EventHandler<MarketDataEvent> {
     private double close = 0;
     private long volume = 0;
     private boolean candleStarted = false;
+    // Counts changes of the open candle, lets update ticks skip candles nobody traded since
+    private long revision;
 
-    public CandleAggregator(Instrument instrument, int timeframe, List<? extends CandleProcessor> candleProcessors) {
+    // Open candle as of the last timer event, read by the checkpoint thread
+    private volatile CandleState checkpoint;
+
+    public CandleAggregator(Instrument instrument, int instrumentId, int timeframe, int recentCandles,
+                            List<? extends CandleProcessor> candleProcessors) {
         this.instrument = instrument;
         this.subscriptionKey = new SubscriptionKey(instrument.fullName(), timeframe);
+        this.broadcaster = new CandleBroadcaster(instrumentId);
+        this.recent = new CandleRing(recentCandles);
         this.candleProcessors = new CopyOnWriteArrayList<>(candleProcessors);
+        this.candleProcessors.add(broadcaster);
     }
 
     @Override
@@ -38,9 +58,51 @@ public class CandleAggregator implements EventHandler<MarketDataEvent> {
             processTimerEvent(event);
             return;
         }
+        if (event.type() == MarketDataEvent.Type.UPDATE) {
+            processUpdateEvent(event);
+            return;
+        }
+        if (event.type() == MarketDataEvent.Type.CANDLE) {
+            processCandleEvent(event);
+            return;
+        }
         processMarketDataEvent(event);
     }
 
+    private void processUpdateEvent(MarketDataEvent event) {
+        long candleStartTime = (event.timestamp() / subscriptionKey.timeframe()) * subscriptionKey.timeframe();
+        // A candle of a past period is closed by the next timer event
+        if (candleStarted && candleStartTime == currentCandleStartTime) {
+            broadcaster.handleOpenCandle(subscriptionKey, event.timestamp(), revision, currentCandleStartTime,
+                    open, high, low, close, volume);
+        }
+    }
+
+    /**
+     * Takes over a candle of the upstream price-stream in relay mode. Upstream sends the candles of a stream in
+     * order, an open candle replaces the current one and a closed one is flushed like a locally closed candle.
+     */
+    private void processCandleEvent(MarketDataEvent event) {
+        if (event.timeframe() != subscriptionKey.timeframe()) {
+            return;
+        }
+        revision++;
+        currentCandleStartTime = event.timestamp();
+        open = event.open();
+        high = event.high();
+        low = event.low();
+        close = event.price();
+        volume = event.volume();
+        candleStarted = true;
+        if (event.closed()) {
+            flushCandle();
+        }
+        // Relays get no timer events
+        checkpoint = candleStarted
+                ? new CandleState(currentCandleStartTime, open, high, low, close, volume)
+                : null;
+    }
+
     private void processTimerEvent(MarketDataEvent event) {
         if (candleStarted) {
             long eventTime = event.timestamp();
@@ -49,12 +111,16 @@ public class CandleAggregator implements EventHandler<MarketDataEvent> {
                 flushCandle();
             }
         }
+        checkpoint = candleStarted
+                ? new CandleState(currentCandleStartTime, open, high, low, close, volume)
+                : null;
     }
 
     private void processMarketDataEvent(MarketDataEvent event) {
         // Calculate which candle period this event belongs to
         long eventTime = event.timestamp();
         long candleStartTime = (eventTime / subscriptionKey.timeframe()) * subscriptionKey.timeframe();
+        revision++;
 
         // If this is a new candle period, flush the previous one
         if (candleStarted && candleStartTime != currentCandleStartTime) {
@@ -85,6 +151,8 @@ public class CandleAggregator implements EventHandler<MarketDataEvent> {
         }
 
         this.instrument.candlesEvents().accumulate(1);
+        // Before the broadcaster, a client subscribing in between finds the candle in one of them
+        recent.add(currentCandleStartTime, open, high, low, close, volume);
         for (CandleProcessor candleProcessor : candleProcessors) {
             candleProcessor.handleCandleEvent(subscriptionKey, currentCandleStartTime,
                     open, high, low, close, volume);
@@ -103,11 +171,65 @@ public class CandleAggregator implements EventHandler<MarketDataEvent> {
         volume = 0;
     }
 
-    public void subscribe(SubscriptionProcessor subscriptionProcessor) {
-        candleProcessors.add(subscriptionProcessor);
+    public CandleState checkpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Continues an open candle after restart. Must be called before the disruptor is started.
+     */
+    public void restore(CandleState state) {
+        currentCandleStartTime = state.time();
+        open = state.open();
+        high = state.high();
+        low = state.low();
+        close = state.close();
+        volume = state.volume();
+        candleStarted = true;
+        checkpoint = state;
+        log.info("Restored open candle {} at {}", subscriptionKey, state.time());
+    }
+
+    /**
+     * Fills the recent candles from storage. Must be called before the disruptor is started.
+     */
+    public void preload(CandleSeries candles) {
+        for (int i = 0; i < candles.size(); i++) {
+            recent.add(candles.time(i), candles.open(i), candles.high(i), candles.low(i), candles.close(i),
+                    candles.volume(i));
+        }
+    }
+
+    /**
+     * The latest {@code count} closed candles and the open one as of the last timer event, encoded like live
+     * candles for a JSON or a binary client.
+     */
+    public ByteBuf snapshot(int count, boolean binary) throws Exception {
+        CandleSeries closed = new CandleSeries(subscriptionKey.instrument(), subscriptionKey.timeframe(),
+                Math.min(count, recent.capacity()));
+        recent.copyLast(closed, count);
+        return broadcaster.encodeSnapshot(subscriptionKey, closed, checkpoint, binary);
+    }
+
+    /**
+     * The closed candles after {@code after}, the start time of the last candle a client got, and the open
+     * candle, encoded like {@link #snapshot}.
+     */
+    public Replay replay(long after, boolean binary) throws Exception {
+        CandleSeries closed = new CandleSeries(subscriptionKey.instrument(), subscriptionKey.timeframe());
+        boolean complete = recent.copyAfter(closed, after);
+        return new Replay(broadcaster.encodeSnapshot(subscriptionKey, closed, checkpoint, binary), complete);
+    }
+
+    public void subscribe(SubscriptionProcessor subscriptionProcessor, int updateRate) {
+        broadcaster.subscribe(subscriptionProcessor, updateRate);
+    }
+
+    public boolean hasUpdateSubscribers() {
+        return broadcaster.hasUpdateSubscribers();
     }
 
     public void unsubscribe(SubscriptionProcessor subscriptionProcessor) {
-        candleProcessors.remove(subscriptionProcessor);
+        broadcaster.unsubscribe(subscriptionProcessor);
     }
 }
@@ -4,15 +4,17 @@ import com.lmax.disruptor.EventHandler;
 import com.price.stream.event.buffer.MarketDataEvent;
 import com.price.stream.service.SubscriptionProcessor;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ClientNotifier implements EventHandler<MarketDataEvent> {
 
-    CopyOnWriteArrayList<SubscriptionProcessor> subscriptionProcessors = new CopyOnWriteArrayList<>();
+    // Concurrent set, clients come and go without copying it
+    private final Set<SubscriptionProcessor> subscriptionProcessors = ConcurrentHashMap.newKeySet();
 
     @Override
     public void onEvent(MarketDataEvent event, long sequence, boolean endOfBatch) throws Exception {
-        if (event.type() == MarketDataEvent.Type.TIMER) {
+        if (event.type() != MarketDataEvent.Type.DATA) {
             subscriptionProcessors.forEach(SubscriptionProcessor::instrumentProcessed);
         }
     }
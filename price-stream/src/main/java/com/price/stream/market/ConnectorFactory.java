@@ -17,7 +17,8 @@ public class ConnectorFactory implements AutoCloseable {
     private final Map<String, Connector> connectors;
 
     public ConnectorFactory(PriceConfiguration configuration) {
-        this.connectors = configuration.getSources().stream()
+        // Relays take their candles from upstream
+        this.connectors = configuration.stream().relay() ? Map.of() : configuration.getSources().stream()
                 .collect(Collectors.toMap(source -> source, this::createConnector));
     }
 
@@ -1,5 +1,6 @@
 package com.price.stream.market;
 
+import com.lmax.disruptor.InsufficientCapacityException;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.YieldingWaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
@@ -8,13 +9,15 @@ import com.lmax.disruptor.dsl.ProducerType;
 import com.price.common.config.PriceConfiguration;
 import com.price.common.config.Instrument;
 import com.price.common.source.PriceEventHandler;
+import com.price.stream.common.Replay;
 import com.price.stream.event.buffer.MarketDataEvent;
 import com.price.stream.service.SubscriptionProcessor;
-import com.price.stream.storage.CandlePersistenceProcessor;
+import com.price.stream.storage.PersistenceProcessorFactory;
+import io.netty.buffer.ByteBuf;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
@@ -22,13 +25,21 @@ import java.util.function.Consumer;
 @Slf4j
 public class MarketDataProcessor implements PriceEventHandler, AutoCloseable {
     private final Instrument instrument;
+    private final int instrumentId;
     private final ClientNotifier clientNotifier = new ClientNotifier();
     private final Disruptor<MarketDataEvent> disruptor;
     private final RingBuffer<MarketDataEvent> ringBuffer;
     private final Map<Integer, CandleAggregator> aggregators;
+    private final int maxUpdateRate;
+    // Candles come closed from upstream, the timer doesn't close them
+    private final boolean relay;
 
-    public MarketDataProcessor(Instrument instrument, List<CandlePersistenceProcessor> candleProcessors, PriceConfiguration configuration) {
+    public MarketDataProcessor(Instrument instrument, int instrumentId, PersistenceProcessorFactory persistenceProcessorFactory,
+                               PriceConfiguration configuration) {
         this.instrument = instrument;
+        this.instrumentId = instrumentId;
+        this.maxUpdateRate = configuration.stream().maxUpdateRate();
+        this.relay = configuration.stream().relay();
 
         disruptor = new Disruptor<>(
                 MarketDataEvent::new,
@@ -44,8 +55,10 @@ public class MarketDataProcessor implements PriceEventHandler, AutoCloseable {
         for (int timeframe : instrument.timeframes()) {
             CandleAggregator aggregator = new CandleAggregator(
                     instrument,
+                    instrumentId,
                     timeframe,
-                    candleProcessors
+                    configuration.stream().snapshotCandles(),
+                    persistenceProcessorFactory.getCandleProcessors(instrument, timeframe)
             );
             aggregators.put(timeframe, aggregator);
             if (group == null) {
@@ -65,11 +78,26 @@ public class MarketDataProcessor implements PriceEventHandler, AutoCloseable {
         disruptor.start();
     }
 
+    public Collection<CandleAggregator> getAggregators() {
+        return aggregators.values();
+    }
+
+    public boolean hasTimeframe(int timeframe) {
+        return aggregators.containsKey(timeframe);
+    }
+
     @Override
     public Instrument getInstrument() {
         return instrument;
     }
 
+    /**
+     * Identifies the instrument in binary candle frames, stable while the server runs.
+     */
+    public int getInstrumentId() {
+        return instrumentId;
+    }
+
     @Override
     public void handlePriceEvent(long timestamp, double price, long volume) {
         this.instrument.marketEvents().accumulate(1);
@@ -87,6 +115,9 @@ public class MarketDataProcessor implements PriceEventHandler, AutoCloseable {
     }
 
     public void handleTimerEvent(long timestamp) {
+        if (relay) {
+            return;
+        }
         long sequence = ringBuffer.next();
         try {
             MarketDataEvent event = ringBuffer.get(sequence);
@@ -97,19 +128,97 @@ public class MarketDataProcessor implements PriceEventHandler, AutoCloseable {
         }
     }
 
+    /**
+     * Publishes a candle received from the upstream price-stream of a relay.
+     */
+    public void handleCandleEvent(int timeframe, boolean closed, long time,
+                                  double open, double high, double low, double close, long volume) {
+        long sequence = ringBuffer.next();
+        try {
+            MarketDataEvent event = ringBuffer.get(sequence);
+            event.type(MarketDataEvent.Type.CANDLE);
+            event.timeframe(timeframe);
+            event.closed(closed);
+            event.timestamp(time);
+            event.open(open);
+            event.high(high);
+            event.low(low);
+            event.price(close);
+            event.volume(volume);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    /**
+     * Publishes an update tick, skipped while no client subscribed to open candles of the instrument. A tick
+     * is dropped rather than waited for when the ring is full, the next one sends the same open candles.
+     */
+    public void handleUpdateEvent(long timestamp) {
+        if (!hasUpdateSubscribers()) {
+            return;
+        }
+        long sequence;
+        try {
+            sequence = ringBuffer.tryNext();
+        } catch (InsufficientCapacityException e) {
+            log.debug("Dropped update tick of {}, the ring buffer is full", instrument.fullName());
+            return;
+        }
+        try {
+            MarketDataEvent event = ringBuffer.get(sequence);
+            event.timestamp(timestamp);
+            event.type(MarketDataEvent.Type.UPDATE);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    private boolean hasUpdateSubscribers() {
+        for (CandleAggregator aggregator : aggregators.values()) {
+            if (aggregator.hasUpdateSubscribers()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void close() throws IOException {
         disruptor.halt();
     }
 
-    public void subscribe(int timeframe, SubscriptionProcessor subscriptionProcessor) {
-        handle(timeframe, a -> a.subscribe(subscriptionProcessor));
+    /**
+     * @param updateRate open candle updates per second, 0 for closed candles only; capped at the configured maximum
+     */
+    public void subscribe(int timeframe, int updateRate, SubscriptionProcessor subscriptionProcessor) {
+        int rate = Math.clamp(updateRate, 0, maxUpdateRate);
+        handle(timeframe, a -> a.subscribe(subscriptionProcessor, rate));
         clientNotifier.add(subscriptionProcessor);
     }
 
     public void unsubscribe(int timeframe, SubscriptionProcessor subscriptionProcessor) {
         handle(timeframe, a -> a.unsubscribe(subscriptionProcessor));
-        clientNotifier.remove(subscriptionProcessor);
+        // Still notified while another timeframe of the instrument is subscribed
+        if (!subscriptionProcessor.isSubscribed(instrument.fullName())) {
+            clientNotifier.remove(subscriptionProcessor);
+        }
+    }
+
+    /**
+     * Recent candles of a subscription as one message, null for an unknown timeframe.
+     */
+    public ByteBuf snapshot(int timeframe, int count, boolean binary) throws Exception {
+        CandleAggregator aggregator = aggregators.get(timeframe);
+        return aggregator != null ? aggregator.snapshot(count, binary) : null;
+    }
+
+    /**
+     * Candles of a subscription after the client's last one, null for an unknown timeframe.
+     */
+    public Replay replay(int timeframe, long after, boolean binary) throws Exception {
+        CandleAggregator aggregator = aggregators.get(timeframe);
+        return aggregator != null ? aggregator.replay(after, binary) : null;
     }
 
     private void handle(int timeframe, Consumer<CandleAggregator> command) {
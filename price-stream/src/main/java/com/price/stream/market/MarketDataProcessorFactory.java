@@ -7,6 +7,7 @@ import jakarta.annotation.PreDestroy;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
@@ -19,9 +20,13 @@ public class MarketDataProcessorFactory {
                                       ConnectorFactory connectorFactory,
                                       NonDriftingTimer timer) {
         marketDataProcessorMap = new HashMap<>();
-        for (Instrument instrument : configuration.instruments()) {
-            MarketDataProcessor mdp = new MarketDataProcessor(instrument, persistenceProcessorFactory.getCandleProcessors(), configuration);
-            connectorFactory.getConnector(instrument).register(mdp);
+        List<Instrument> instruments = configuration.instruments();
+        for (int id = 0; id < instruments.size(); id++) {
+            Instrument instrument = instruments.get(id);
+            MarketDataProcessor mdp = new MarketDataProcessor(instrument, id, persistenceProcessorFactory, configuration);
+            if (!configuration.stream().relay()) {
+                connectorFactory.getConnector(instrument).register(mdp);
+            }
             timer.add(mdp);
             marketDataProcessorMap.put(instrument.fullName(), mdp);
         }
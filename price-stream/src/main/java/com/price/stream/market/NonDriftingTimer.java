@@ -1,5 +1,6 @@
 package com.price.stream.market;
 
+import com.price.common.config.PriceConfiguration;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -15,12 +16,20 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class NonDriftingTimer implements AutoCloseable {
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // Update ticks run apart, so they never delay the candle-closing timer events
+    private final ScheduledExecutorService updateScheduler = Executors.newScheduledThreadPool(1);
     private volatile boolean running = false;
     private final List<MarketDataProcessor> processors = new CopyOnWriteArrayList<>();
+    private final long updateIntervalMs;
+
+    public NonDriftingTimer(PriceConfiguration configuration) {
+        this.updateIntervalMs = configuration.stream().updateIntervalMs();
+    }
 
     public void start() {
         running = true;
         scheduleNextEvent();
+        updateScheduler.scheduleAtFixedRate(this::handleUpdateEvent, updateIntervalMs, updateIntervalMs, TimeUnit.MILLISECONDS);
     }
 
     private void scheduleNextEvent() {
@@ -46,14 +55,27 @@ public class NonDriftingTimer implements AutoCloseable {
         }
     }
 
+    private void handleUpdateEvent() {
+        long timestamp = System.currentTimeMillis();
+        for (MarketDataProcessor processor : processors) {
+            processor.handleUpdateEvent(timestamp);
+        }
+    }
+
     public void stop() {
         running = false;
         scheduler.shutdown();
+        updateScheduler.shutdown();
     }
 
     @Override
     public void close() throws IOException {
         stop();
+        terminate(scheduler);
+        terminate(updateScheduler);
+    }
+
+    private static void terminate(ScheduledExecutorService scheduler) {
         try {
             if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
                 scheduler.shutdownNow();
@@ -0,0 +1,66 @@
+package com.price.stream.relay;
+
+import com.price.common.config.PriceConfiguration;
+import com.price.common.config.StreamSettings;
+import com.price.common.stream.CandleFrameCodec;
+import com.price.common.stream.StreamClient;
+import com.price.stream.market.MarketDataProcessor;
+import com.price.stream.market.MarketDataProcessorFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Candle source of a relay. Subscribes to every configured instrument and timeframe on the upstream
+ * price-stream's {@code /stream} WebSocket, using the binary {@link CandleFrameCodec} subprotocol, open candle
+ * updates at the highest configured rate and a snapshot that fills the replay buffers. The candles are published
+ * into the local processors, which serve the relay's clients exactly like on the node doing the ingestion.
+ * <p>
+ * The {@link StreamClient} reconnects with backoff and resumes every stream after its last closed candle, so
+ * clients of the relay only see a gap when the outage outlasted the upstream replay buffer.
+ */
+@Slf4j
+@Service
+public class UpstreamClient implements AutoCloseable {
+    private final StreamSettings settings;
+    private final Map<String, MarketDataProcessor> marketDataProcessorMap;
+    private final StreamClient client;
+
+    public UpstreamClient(PriceConfiguration configuration, MarketDataProcessorFactory marketDataProcessorFactory) {
+        this.settings = configuration.stream();
+        this.marketDataProcessorMap = marketDataProcessorFactory.marketDataProcessorMap;
+        List<StreamClient.Stream> streams = new ArrayList<>();
+        for (MarketDataProcessor processor : marketDataProcessorMap.values()) {
+            for (int timeframe : processor.getInstrument().timeframes()) {
+                streams.add(new StreamClient.Stream(processor.getInstrument().fullName(), timeframe));
+            }
+        }
+        this.client = new StreamClient("upstream", settings.upstreamUrl(), streams,
+                Map.of("rate", settings.maxUpdateRate(), "snapshot", settings.snapshotCandles()), this::publish);
+    }
+
+    public void start() {
+        if (!settings.relay()) {
+            return;
+        }
+        log.info("Relaying candles of {}", settings.upstreamUrl());
+        client.start();
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    private void publish(String instrument, int timeframeMs, boolean closed, long time,
+                         double open, double high, double low, double close, double volume) {
+        MarketDataProcessor processor = marketDataProcessorMap.get(instrument);
+        if (processor == null || !processor.hasTimeframe(timeframeMs)) {
+            return;
+        }
+        processor.handleCandleEvent(timeframeMs, closed, time, open, high, low, close, (long) volume);
+    }
+}
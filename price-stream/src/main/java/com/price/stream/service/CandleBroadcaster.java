@@ -0,0 +1,273 @@
+package com.price.stream.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.price.common.db.CandleSeries;
+import com.price.common.stream.CandleFrameCodec;
+import com.price.stream.common.CandleProcessor;
+import com.price.stream.common.CandleState;
+import com.price.stream.common.SubscriptionKey;
+import com.price.stream.event.client.InstrumentEvent;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers the candles of one {@link SubscriptionKey} to its subscribers. Each candle is serialized once into a
+ * pooled buffer and every subscriber gets a retained duplicate of it, so the cost of an update doesn't grow
+ * with the number of clients beyond a reference count and a write. The buffer is direct, so sockets write it
+ * without another copy. JSON and binary subscribers get one buffer per format, each only encoded while the
+ * format has subscribers.
+ * <p>
+ * Subscribers asking for open candle updates are grouped by rate. On each update tick only the groups whose
+ * next period started, and only if the candle changed since they last got it, see the open candle; it is
+ * encoded once per tick for all of them.
+ * <p>
+ * Subscribers are kept in concurrent sets, so subscribing and unsubscribing cost the same however many clients
+ * there are, and the aggregator thread iterates them without copying or locking.
+ */
+@Slf4j
+public class CandleBroadcaster implements CandleProcessor {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final int instrumentId;
+    private final Set<SubscriptionProcessor> subscribers = ConcurrentHashMap.newKeySet();
+    private final Set<SubscriptionProcessor> binarySubscribers = ConcurrentHashMap.newKeySet();
+    // One per requested rate, so at most the configured maximum rate of them; kept once created
+    private final CopyOnWriteArrayList<UpdateGroup> updateGroups = new CopyOnWriteArrayList<>();
+
+    public CandleBroadcaster(int instrumentId) {
+        this.instrumentId = instrumentId;
+    }
+
+    /**
+     * Subscribes to closed candles and, with a positive rate, to that many open candle updates per second.
+     * Subscribing again changes the rate.
+     */
+    public synchronized void subscribe(SubscriptionProcessor subscriptionProcessor, int updateRate) {
+        (subscriptionProcessor.isBinary() ? binarySubscribers : subscribers).add(subscriptionProcessor);
+        UpdateGroup target = null;
+        for (UpdateGroup group : updateGroups) {
+            if (group.rate == updateRate) {
+                target = group;
+            } else {
+                group.remove(subscriptionProcessor);
+            }
+        }
+        if (updateRate > 0) {
+            if (target == null) {
+                target = new UpdateGroup(updateRate);
+                updateGroups.add(target);
+            }
+            target.add(subscriptionProcessor);
+        }
+    }
+
+    public synchronized void unsubscribe(SubscriptionProcessor subscriptionProcessor) {
+        subscribers.remove(subscriptionProcessor);
+        binarySubscribers.remove(subscriptionProcessor);
+        for (UpdateGroup group : updateGroups) {
+            group.remove(subscriptionProcessor);
+        }
+    }
+
+    public boolean hasUpdateSubscribers() {
+        for (UpdateGroup group : updateGroups) {
+            if (!group.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void handleCandleEvent(SubscriptionKey subscriptionKey, long time, double open, double high, double low, double close, long volume) {
+        if (!subscribers.isEmpty()) {
+            ByteBuf content = null;
+            try {
+                content = encode(List.of(new InstrumentEvent(subscriptionKey.instrument(), time, subscriptionKey.timeframe(),
+                        open, high, low, close, volume)));
+                offer(subscribers, subscriptionKey, content, false);
+            } catch (Exception e) {
+                log.error("Failed to serialize candle of {}", subscriptionKey, e);
+            } finally {
+                release(content);
+            }
+        }
+        if (!binarySubscribers.isEmpty()) {
+            ByteBuf content = encodeBinary(CandleFrameCodec.CANDLE, instrumentId, subscriptionKey.timeframe(), time,
+                    open, high, low, close, volume);
+            try {
+                offer(binarySubscribers, subscriptionKey, content, false);
+            } finally {
+                content.release();
+            }
+        }
+    }
+
+    /**
+     * Pushes the open candle to the update groups that are due at {@code now}. Called by the aggregator thread on
+     * update ticks; {@code revision} changes whenever the candle does.
+     */
+    public void handleOpenCandle(SubscriptionKey subscriptionKey, long now, long revision, long time,
+                                 double open, double high, double low, double close, long volume) {
+        ByteBuf json = null;
+        ByteBuf binary = null;
+        try {
+            for (UpdateGroup group : updateGroups) {
+                if (group.isEmpty() || !group.due(now, revision)) {
+                    continue;
+                }
+                if (!group.subscribers.isEmpty()) {
+                    if (json == null) {
+                        json = encode(List.of(new InstrumentEvent(subscriptionKey.instrument(), time,
+                                subscriptionKey.timeframe(), open, high, low, close, volume, true)));
+                    }
+                    offer(group.subscribers, subscriptionKey, json, true);
+                }
+                if (!group.binarySubscribers.isEmpty()) {
+                    if (binary == null) {
+                        binary = encodeBinary(CandleFrameCodec.OPEN_CANDLE, instrumentId, subscriptionKey.timeframe(),
+                                time, open, high, low, close, volume);
+                    }
+                    offer(group.binarySubscribers, subscriptionKey, binary, true);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to serialize open candle of {}", subscriptionKey, e);
+        } finally {
+            release(json);
+            release(binary);
+        }
+    }
+
+    private static void offer(Set<SubscriptionProcessor> subscribers, SubscriptionKey subscriptionKey, ByteBuf content,
+                              boolean update) {
+        for (SubscriptionProcessor subscriber : subscribers) {
+            if (update) {
+                subscriber.offerUpdate(subscriptionKey, content.retainedDuplicate());
+            } else {
+                subscriber.offer(subscriptionKey, content.retainedDuplicate());
+            }
+        }
+    }
+
+    private static void release(ByteBuf content) {
+        if (content != null) {
+            content.release();
+        }
+    }
+
+    /**
+     * Closed candles followed by the open one, if any, in a single message: a JSON array or a frame of binary
+     * records.
+     */
+    public ByteBuf encodeSnapshot(SubscriptionKey subscriptionKey, CandleSeries closed, CandleState open,
+                                  boolean binary) throws Exception {
+        int size = closed.size();
+        if (binary) {
+            ByteBuf content = PooledByteBufAllocator.DEFAULT.directBuffer(CandleFrameCodec.RECORD_SIZE * (size + 1));
+            for (int i = 0; i < size; i++) {
+                writeBinary(content, CandleFrameCodec.CANDLE, instrumentId, subscriptionKey.timeframe(), closed.time(i),
+                        closed.open(i), closed.high(i), closed.low(i), closed.close(i), closed.volume(i));
+            }
+            if (open != null) {
+                writeBinary(content, CandleFrameCodec.OPEN_CANDLE, instrumentId, subscriptionKey.timeframe(), open.time(),
+                        open.open(), open.high(), open.low(), open.close(), open.volume());
+            }
+            return content;
+        }
+        List<InstrumentEvent> events = new ArrayList<>(size + 1);
+        for (int i = 0; i < size; i++) {
+            events.add(new InstrumentEvent(subscriptionKey.instrument(), closed.time(i), subscriptionKey.timeframe(),
+                    closed.open(i), closed.high(i), closed.low(i), closed.close(i), closed.volume(i)));
+        }
+        if (open != null) {
+            events.add(new InstrumentEvent(subscriptionKey.instrument(), open.time(), subscriptionKey.timeframe(),
+                    open.open(), open.high(), open.low(), open.close(), open.volume(), true));
+        }
+        return encode(events);
+    }
+
+    /**
+     * A JSON array of the events, the message format clients already read.
+     */
+    static ByteBuf encode(List<InstrumentEvent> events) throws Exception {
+        ByteBuf content = PooledByteBufAllocator.DEFAULT.directBuffer(128 * events.size());
+        try (OutputStream output = new ByteBufOutputStream(content)) {
+            MAPPER.writeValue(output, events);
+            return content;
+        } catch (Exception e) {
+            content.release();
+            throw e;
+        }
+    }
+
+    /**
+     * One {@link CandleFrameCodec} record.
+     */
+    static ByteBuf encodeBinary(byte type, int instrumentId, int timeframe, long time,
+                                double open, double high, double low, double close, double volume) {
+        ByteBuf content = PooledByteBufAllocator.DEFAULT.directBuffer(CandleFrameCodec.RECORD_SIZE);
+        writeBinary(content, type, instrumentId, timeframe, time, open, high, low, close, volume);
+        return content;
+    }
+
+    private static void writeBinary(ByteBuf content, byte type, int instrumentId, int timeframe, long time,
+                                    double open, double high, double low, double close, double volume) {
+        int index = content.writerIndex();
+        content.ensureWritable(CandleFrameCodec.RECORD_SIZE);
+        CandleFrameCodec.write(content.nioBuffer(index, CandleFrameCodec.RECORD_SIZE), type, instrumentId, timeframe, time,
+                open, high, low, close, volume);
+        content.writerIndex(index + CandleFrameCodec.RECORD_SIZE);
+    }
+
+    /**
+     * Subscribers of open candle updates at one rate.
+     */
+    private static final class UpdateGroup {
+        private final int rate;
+        private final Set<SubscriptionProcessor> subscribers = ConcurrentHashMap.newKeySet();
+        private final Set<SubscriptionProcessor> binarySubscribers = ConcurrentHashMap.newKeySet();
+        // Only touched by the aggregator thread
+        private long lastPeriod = -1;
+        private long sentRevision = -1;
+
+        private UpdateGroup(int rate) {
+            this.rate = rate;
+        }
+
+        private void add(SubscriptionProcessor subscriptionProcessor) {
+            (subscriptionProcessor.isBinary() ? binarySubscribers : subscribers).add(subscriptionProcessor);
+        }
+
+        private void remove(SubscriptionProcessor subscriptionProcessor) {
+            subscribers.remove(subscriptionProcessor);
+            binarySubscribers.remove(subscriptionProcessor);
+        }
+
+        private boolean isEmpty() {
+            return subscribers.isEmpty() && binarySubscribers.isEmpty();
+        }
+
+        /**
+         * At most one update per 1/rate second period of the clock, and none while the candle is unchanged.
+         */
+        private boolean due(long now, long revision) {
+            long period = now * rate / 1000;
+            if (period == lastPeriod || revision == sentRevision) {
+                return false;
+            }
+            lastPeriod = period;
+            sentRevision = revision;
+            return true;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.price.stream.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.price.common.stream.CandleFrameCodec;
 import com.price.stream.event.client.SubscriptionEvent;
 import com.price.stream.market.MarketDataProcessor;
 import io.netty.channel.ChannelHandlerContext;
@@ -19,15 +20,15 @@ public class ClientConnectionHandler extends SimpleChannelInboundHandler<WebSock
     private final ChannelGroup allChannels;
     private final SubscriptionProcessor subscriptionProcessor;
 
-    public ClientConnectionHandler(SocketChannel channel, ChannelGroup allChannels, Map<String, MarketDataProcessor> marketDataProcessorMap) {
+    public ClientConnectionHandler(SocketChannel channel, ChannelGroup allChannels, Map<String, MarketDataProcessor> marketDataProcessorMap,
+                                   DeliveryMetrics metrics, long slowClientTimeoutMs) {
         this.allChannels = allChannels;
-        this.subscriptionProcessor = new SubscriptionProcessor(channel, marketDataProcessorMap);
+        this.subscriptionProcessor = new SubscriptionProcessor(channel, marketDataProcessorMap, metrics, slowClientTimeoutMs);
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
         allChannels.add(ctx.channel());
-        subscriptionProcessor.start();
         log.debug("Client connected: {}", ctx.channel().remoteAddress());
     }
 
@@ -38,6 +39,22 @@ public class ClientConnectionHandler extends SimpleChannelInboundHandler<WebSock
         log.debug("Client disconnected: {}", ctx.channel().remoteAddress());
     }
 
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete handshake) {
+            boolean binary = CandleFrameCodec.SUBPROTOCOL.equals(handshake.selectedSubprotocol());
+            subscriptionProcessor.setBinary(binary);
+            log.debug("Client {} streams {} candles", ctx.channel().remoteAddress(), binary ? "binary" : "JSON");
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        subscriptionProcessor.writabilityChanged(ctx.channel().isWritable());
+        ctx.fireChannelWritabilityChanged();
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
         if (frame instanceof CloseWebSocketFrame) {
@@ -61,9 +78,10 @@ public class ClientConnectionHandler extends SimpleChannelInboundHandler<WebSock
     private void handleTextMessage(ChannelHandlerContext ctx, String text) throws Exception {
         SubscriptionEvent event = objectMapper.readValue(text, SubscriptionEvent.class);
         if (event.getType() == SubscriptionEvent.Type.SUBSCRIBE) {
-            subscriptionProcessor.subscribe(event.getInstrument(), event.getTimeframe());
+            subscriptionProcessor.subscribe(event.getInstruments(), event.getTimeframes(), event.getRate(),
+                    event.getSnapshot(), event.getResume());
         } else if (event.getType() == SubscriptionEvent.Type.UNSUBSCRIBE) {
-            subscriptionProcessor.unsubscribe(event.getInstrument(), event.getTimeframe());
+            subscriptionProcessor.unsubscribe(event.getInstruments(), event.getTimeframes());
         }
     }
 
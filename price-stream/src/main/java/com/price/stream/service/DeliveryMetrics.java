@@ -0,0 +1,54 @@
+package com.price.stream.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of candles that never reached a client as sent: replaced by a newer candle of the same subscription
+ * while the client couldn't keep up, or dropped with its connection. Shared by all clients of a
+ * {@link StreamService}, which logs them periodically.
+ */
+@Slf4j
+public class DeliveryMetrics {
+    private final LongAdder conflated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder slowDisconnects = new LongAdder();
+    private long lastLogged;
+
+    void conflated() {
+        conflated.increment();
+    }
+
+    void dropped() {
+        dropped.increment();
+    }
+
+    void slowDisconnect() {
+        slowDisconnects.increment();
+    }
+
+    public long conflatedCount() {
+        return conflated.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long slowDisconnectCount() {
+        return slowDisconnects.sum();
+    }
+
+    /**
+     * Logs the totals if anything was lost since the last call.
+     */
+    void log() {
+        long total = conflatedCount() + droppedCount() + slowDisconnectCount();
+        if (total != lastLogged) {
+            lastLogged = total;
+            log.info("Client delivery: {} candles conflated, {} dropped, {} slow clients disconnected",
+                    conflatedCount(), droppedCount(), slowDisconnectCount());
+        }
+    }
+}
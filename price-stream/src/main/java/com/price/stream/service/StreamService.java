@@ -1,80 +1,152 @@
 package com.price.stream.service;
 
 import com.price.common.config.PriceConfiguration;
+import com.price.common.config.StreamSettings;
+import com.price.common.stream.CandleFrameCodec;
 import com.price.stream.market.MarketDataProcessor;
 import com.price.stream.market.MarketDataProcessorFactory;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
-import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
 public class StreamService implements AutoCloseable {
     private static final String WEBSOCKET_PATH = "/stream";
+    private static final long METRICS_LOG_INTERVAL_SECONDS = 60;
+    private static final int DEFLATE_LEVEL = 6;
+    private static final int DEFLATE_WINDOW_BITS = 15;
 
     private final int port;
+    private final StreamSettings settings;
+    private final DeliveryMetrics metrics = new DeliveryMetrics();
     private final ChannelGroup allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     private final Map<String, MarketDataProcessor> marketDataProcessorMap;
 
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
-    private Channel serverChannel;
+    private final List<Channel> serverChannels = new ArrayList<>();
 
     public StreamService(PriceConfiguration configuration, MarketDataProcessorFactory marketDataProcessorFactory) {
         this.port = configuration.httpPort() + 1;
+        this.settings = configuration.stream();
         this.marketDataProcessorMap = marketDataProcessorFactory.marketDataProcessorMap;
     }
 
     public void start() {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        StreamTransport transport = StreamTransport.detect();
+        int acceptors = transport.supportsReusePort() ? settings.acceptorThreads() : 1;
+        if (acceptors < settings.acceptorThreads()) {
+            log.warn("SO_REUSEPORT needs the epoll transport, accepting on a single thread");
+        }
+        // One boss event loop per server channel bound to the port
+        bossGroup = transport.eventLoopGroup(acceptors);
+        workerGroup = transport.eventLoopGroup(settings.workerThreads());
+        long slowClientTimeoutMs = TimeUnit.SECONDS.toMillis(settings.slowClientTimeoutSeconds());
 
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannelClass())
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel channel) {
                             ChannelPipeline pipeline = channel.pipeline();
+                            // Merges the flushes of pongs and candle frames into fewer syscalls
+                            pipeline.addLast(new FlushConsolidationHandler(
+                                    FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
                             pipeline.addLast(new HttpServerCodec());
                             pipeline.addLast(new HttpObjectAggregator(65536));
-                            pipeline.addLast(new WebSocketServerCompressionHandler());
-                            pipeline.addLast(new WebSocketServerProtocolHandler(WEBSOCKET_PATH, null, true));
-                            pipeline.addLast(new ClientConnectionHandler(channel, allChannels, marketDataProcessorMap));
+                            pipeline.addLast(compressionHandler());
+                            pipeline.addLast(new WebSocketServerProtocolHandler(WEBSOCKET_PATH, CandleFrameCodec.SUBPROTOCOL, true));
+                            pipeline.addLast(new ClientConnectionHandler(channel, allChannels, marketDataProcessorMap,
+                                    metrics, slowClientTimeoutMs));
                         }
                     })
                     .option(ChannelOption.SO_BACKLOG, 128)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true);
+                    .childOption(ChannelOption.SO_KEEPALIVE, true)
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                            settings.writeBufferLowWaterMark(), settings.writeBufferHighWaterMark()));
 
-            serverChannel = bootstrap.bind(port).sync().channel();
-            log.info("StreamService WebSocket server started on port {}", port);
+            if (acceptors > 1) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            for (int i = 0; i < acceptors; i++) {
+                serverChannels.add(bootstrap.bind(port).sync().channel());
+            }
+            workerGroup.scheduleAtFixedRate(metrics::log, METRICS_LOG_INTERVAL_SECONDS, METRICS_LOG_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS);
+            log.info("StreamService WebSocket server started on port {} ({} transport, {} acceptors)",
+                    port, transport, acceptors);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new RuntimeException("Failed to start WebSocket server", e);
         }
     }
 
+    /**
+     * permessage-deflate for JSON frames only. Binary candle frames hardly compress, and deflating them per
+     * client would undo encoding them once for all subscribers.
+     */
+    private static WebSocketServerExtensionHandler compressionHandler() {
+        WebSocketExtensionFilterProvider skipBinary = new WebSocketExtensionFilterProvider() {
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return frame -> frame instanceof BinaryWebSocketFrame;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+        return new WebSocketServerExtensionHandler(new PerMessageDeflateServerExtensionHandshaker(DEFLATE_LEVEL,
+                ZlibCodecFactory.isSupportingWindowSizeAndMemLevel(), DEFLATE_WINDOW_BITS, false, false, skipBinary));
+    }
+
+    public DeliveryMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Port the server is bound to, an ephemeral one when configured with an HTTP port of -1.
+     */
+    public int port() {
+        return ((InetSocketAddress) serverChannels.get(0).localAddress()).getPort();
+    }
+
     @Override
     public void close() throws Exception {
         log.info("Shutting down StreamService WebSocket server");
 
         allChannels.close().awaitUninterruptibly();
 
-        if (serverChannel != null) {
+        for (Channel serverChannel : serverChannels) {
             serverChannel.close().sync();
         }
         if (bossGroup != null) {
@@ -0,0 +1,41 @@
+package com.price.stream.service;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+/**
+ * Netty transport of the WebSocket server. Native epoll is used on Linux when its library loads, NIO everywhere
+ * else; {@code -Dio.netty.transport.noNative=true} forces NIO.
+ */
+enum StreamTransport {
+    EPOLL,
+    NIO;
+
+    static StreamTransport detect() {
+        return Epoll.isAvailable() ? EPOLL : NIO;
+    }
+
+    /**
+     * @param threads event loop count, 0 for Netty's default of twice the available processors
+     */
+    EventLoopGroup eventLoopGroup(int threads) {
+        return this == EPOLL ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+
+    Class<? extends ServerChannel> serverChannelClass() {
+        return this == EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * Whether several server channels can bind the same port with SO_REUSEPORT, letting the kernel spread
+     * incoming connections over them.
+     */
+    boolean supportsReusePort() {
+        return this == EPOLL;
+    }
+}
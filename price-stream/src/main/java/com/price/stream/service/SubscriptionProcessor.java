@@ -1,80 +1,161 @@
 package com.price.stream.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.price.stream.common.CandleProcessor;
+import com.price.stream.common.Replay;
 import com.price.stream.common.SubscriptionKey;
-import com.price.stream.event.client.InstrumentEvent;
+import com.price.stream.event.client.ResumedEvent;
+import com.price.stream.event.client.SubscribedEvent;
 import com.price.stream.market.MarketDataProcessor;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
+/**
+ * Subscriptions and pending candles of one client. Closed candles and open candle updates are dropped into
+ * one slot each per subscription by the aggregator threads; once an instrument processed a timer tick the
+ * slots are flushed by a task on the channel's event loop, so there is no thread or lock per client.
+ * Subscription changes come from the event loop as well.
+ * <p>
+ * Nothing is written while the channel is above its write buffer high water mark: the slots keep being
+ * replaced, conflating a slow client's updates to the latest candle per subscription, and are flushed once the
+ * channel drains below the low water mark. A client that stays unwritable longer than the slow client timeout
+ * is disconnected, so neither its outbound buffer nor its slots grow past what the watermarks allow.
+ * <p>
+ * One request may name several instruments and timeframes, {@link #ALL_INSTRUMENTS} stands for every instrument
+ * that has the timeframe.
+ */
 @Slf4j
-public class SubscriptionProcessor implements CandleProcessor {
-
+public class SubscriptionProcessor {
+    public static final String ALL_INSTRUMENTS = "*";
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
-    private final Phaser phaser = new Phaser(1);
-
-    private final SocketChannel channel;
+    private final Channel channel;
     private final Map<String, MarketDataProcessor> marketDataProcessorMap;
-    private final Map<SubscriptionKey, InstrumentEvent> instrumentEvents = new ConcurrentHashMap<>();
-    private final Thread senderThread;
-    private final Set<SubscriptionKey> subscriptions = new HashSet<>();
+    private final DeliveryMetrics metrics;
+    private final long slowClientTimeoutNanos;
+    // Latest serialized candle per subscription, shared with the other subscribers
+    private final Map<SubscriptionKey, ByteBuf> pendingFrames = new ConcurrentHashMap<>();
+    // Latest open candle update per subscription, written after the closed candles
+    private final Map<SubscriptionKey, ByteBuf> pendingUpdates = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // Subscribed timeframes by instrument
+    private final Map<String, Set<Integer>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicBoolean disconnecting = new AtomicBoolean();
+    // System.nanoTime() when the channel became unwritable, 0 while it is writable
+    private volatile long unwritableSince;
+    // Negotiated the binary subprotocol, set by the handshake before the first subscription
+    private volatile boolean binary;
 
-    public SubscriptionProcessor(SocketChannel channel, Map<String, MarketDataProcessor> marketDataProcessorMap) {
+    public SubscriptionProcessor(Channel channel, Map<String, MarketDataProcessor> marketDataProcessorMap,
+                                 DeliveryMetrics metrics, long slowClientTimeoutMs) {
         this.channel = channel;
         this.marketDataProcessorMap = marketDataProcessorMap;
-        this.senderThread = Thread.ofVirtual().unstarted(this::handleEvents);
+        this.metrics = metrics;
+        this.slowClientTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(slowClientTimeoutMs);
     }
 
-    public void start() {
-        senderThread.start();
+    /**
+     * @param updateRate open candle updates per second, 0 for closed candles only. Subscribing again to the
+     *                   same instrument and timeframe changes the rate.
+     * @param snapshot   recent candles written right away, before any live candle of the subscription
+     * @param resume     start time of the last closed candle the client got before reconnecting, the candles
+     *                   after it are written instead of a snapshot; 0 for none
+     */
+    public void subscribe(String instrument, int timeframe, int updateRate, int snapshot, long resume) {
+        boolean added = subscriptions.computeIfAbsent(instrument, k -> ConcurrentHashMap.newKeySet()).add(timeframe);
+        handle(instrument, p -> {
+            p.subscribe(timeframe, updateRate, this);
+            if (added && binary) {
+                acknowledge(new SubscribedEvent(instrument, timeframe, p.getInstrumentId()));
+            }
+            if (resume > 0) {
+                sendReplay(p, instrument, timeframe, resume);
+            } else if (snapshot > 0) {
+                sendSnapshot(p, instrument, timeframe, snapshot);
+            }
+        });
     }
 
-    public synchronized void subscribe(String instrument, int timeframe) {
-        subscriptions.add(new SubscriptionKey(instrument, timeframe));
-        phaser.register();
-        handle(instrument, p -> p.subscribe(timeframe, this));
-        this.notifyAll();
+    public void unsubscribe(String instrument, int timeframe) {
+        Set<Integer> timeframes = subscriptions.get(instrument);
+        if (timeframes != null && timeframes.remove(timeframe)) {
+            if (timeframes.isEmpty()) {
+                subscriptions.remove(instrument);
+            }
+            handle(instrument, p -> p.unsubscribe(timeframe, this));
+        }
     }
 
-    public synchronized void unsubscribe(String instrument, int timeframe) {
-        boolean removed = subscriptions.remove(new SubscriptionKey(instrument, timeframe));
-        if (removed) {
-            handle(instrument, p -> p.unsubscribe(timeframe, this));
-            if (phaser.getRegisteredParties() > 1) {
-                try {
-                    phaser.arriveAndDeregister();
-                } catch (Exception e) {
-                    log.error("Subscription state exception", e);
+    /**
+     * Subscribes to every combination of the instruments and timeframes.
+     */
+    public void subscribe(List<String> instruments, List<Integer> timeframes, int updateRate, int snapshot,
+                          long resume) {
+        for (SubscriptionKey key : resolve(instruments, timeframes)) {
+            subscribe(key.instrument(), key.timeframe(), updateRate, snapshot, resume);
+        }
+    }
+
+    public void unsubscribe(List<String> instruments, List<Integer> timeframes) {
+        for (SubscriptionKey key : resolve(instruments, timeframes)) {
+            unsubscribe(key.instrument(), key.timeframe());
+        }
+    }
+
+    /**
+     * Expands {@link #ALL_INSTRUMENTS} to the instruments having the timeframe; named instruments are taken as
+     * they are, unknown ones are reported on subscribe.
+     */
+    List<SubscriptionKey> resolve(List<String> instruments, List<Integer> timeframes) {
+        List<SubscriptionKey> keys = new ArrayList<>();
+        for (String instrument : instruments) {
+            for (int timeframe : timeframes) {
+                if (!ALL_INSTRUMENTS.equals(instrument)) {
+                    keys.add(new SubscriptionKey(instrument, timeframe));
+                    continue;
                 }
+                marketDataProcessorMap.forEach((name, processor) -> {
+                    if (processor.hasTimeframe(timeframe)) {
+                        keys.add(new SubscriptionKey(name, timeframe));
+                    }
+                });
             }
         }
+        return keys;
     }
 
-    private synchronized boolean waitForSubscriptions() {
-        try {
-            this.wait(1000);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return false;
-        }
-        return true;
+    public boolean isBinary() {
+        return binary;
     }
 
-    public synchronized void stop() {
-        senderThread.interrupt();
-        phaser.forceTermination();
-        subscriptions.forEach(key ->
-                handle(key.instrument(), p -> p.unsubscribe(key.timeframe(), this))
-        );
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    public boolean isSubscribed(String instrument) {
+        return subscriptions.containsKey(instrument);
+    }
+
+    public void stop() {
+        for (Map.Entry<String, Set<Integer>> entry : subscriptions.entrySet()) {
+            for (int timeframe : entry.getValue()) {
+                unsubscribe(entry.getKey(), timeframe);
+            }
+        }
+        pendingFrames.keySet().forEach(key -> drop(pendingFrames.remove(key)));
+        pendingUpdates.keySet().forEach(key -> drop(pendingUpdates.remove(key)));
     }
 
     private void handle(String instrument, Consumer<MarketDataProcessor> command) {
@@ -86,43 +167,143 @@ public class SubscriptionProcessor implements CandleProcessor {
         }
     }
 
-    private void handleEvents() {
-        while (!Thread.currentThread().isInterrupted()) {
-            try {
-                phaser.arriveAndAwaitAdvance();
-            } catch (Exception e) {
-                log.error("Subscription state exception", e);
-            }
-            if (phaser.getRegisteredParties() == 1) {
-                if (!waitForSubscriptions()) {
-                    break;
-                }
+    private void acknowledge(Object event) {
+        try {
+            channel.writeAndFlush(new TextWebSocketFrame(MAPPER.writeValueAsString(event)));
+        } catch (Exception e) {
+            log.error("Failed to acknowledge subscription {}", event, e);
+        }
+    }
+
+    /**
+     * Runs on the event loop, live candles offered meanwhile are only flushed by a task queued after this write,
+     * so the snapshot always goes out first. A candle closed between subscribing and taking the snapshot may
+     * arrive twice, clients replace candles by time.
+     */
+    private void sendSnapshot(MarketDataProcessor processor, String instrument, int timeframe, int count) {
+        try {
+            ByteBuf content = processor.snapshot(timeframe, count, binary);
+            if (content != null) {
+                channel.writeAndFlush(frame(content));
             }
-            List<InstrumentEvent> events = new ArrayList<>(instrumentEvents.values());
-            instrumentEvents.clear();
-            try {
-                if (!events.isEmpty()) {
-                    String json = MAPPER.writeValueAsString(events);
-                    channel.writeAndFlush(new TextWebSocketFrame(json));
-                }
-            } catch (Exception e) {
-                log.error("Failed to serialize events", e);
+        } catch (Exception e) {
+            log.error("Failed to send snapshot of {} {}", instrument, timeframe, e);
+        }
+    }
+
+    /**
+     * Like a snapshot, preceded by a reply telling whether the replay buffer still reached back to the client's
+     * last candle.
+     */
+    private void sendReplay(MarketDataProcessor processor, String instrument, int timeframe, long after) {
+        try {
+            Replay replay = processor.replay(timeframe, after, binary);
+            if (replay != null) {
+                acknowledge(new ResumedEvent(instrument, timeframe, replay.complete()));
+                channel.writeAndFlush(frame(replay.content()));
             }
+        } catch (Exception e) {
+            log.error("Failed to replay {} {} after {}", instrument, timeframe, after, e);
+        }
+    }
+
+    /**
+     * Queues a serialized candle, taking over the reference. A candle of the same subscription still waiting
+     * is replaced, clients only need the latest one.
+     */
+    public void offer(SubscriptionKey subscriptionKey, ByteBuf content) {
+        // An update still waiting belongs to this candle or an older one, the closed candle supersedes it
+        conflate(pendingUpdates.remove(subscriptionKey));
+        enqueue(pendingFrames, subscriptionKey, content);
+    }
+
+    /**
+     * Queues an update of the open candle, taking over the reference and replacing an update still waiting.
+     */
+    public void offerUpdate(SubscriptionKey subscriptionKey, ByteBuf content) {
+        enqueue(pendingUpdates, subscriptionKey, content);
+    }
+
+    private void enqueue(Map<SubscriptionKey, ByteBuf> pending, SubscriptionKey subscriptionKey, ByteBuf content) {
+        conflate(pending.put(subscriptionKey, content));
+        if (!channel.isActive()) {
+            // Raced with stop(), nobody would flush it
+            drop(pending.remove(subscriptionKey));
         }
     }
 
-    @Override
-    public void handleCandleEvent(SubscriptionKey subscriptionKey, long time, double open, double high, double low, double close, long volume) {
-        log.info("Processing candle event for {}", subscriptionKey);
-        InstrumentEvent event = new InstrumentEvent(subscriptionKey.instrument(), time, subscriptionKey.timeframe(), open, high, low, close, volume);
-        instrumentEvents.put(subscriptionKey, event);
+    private void conflate(ByteBuf replaced) {
+        if (replaced != null) {
+            replaced.release();
+            metrics.conflated();
+        }
     }
 
+    /**
+     * Called by the instrument's notifier after a timer tick, schedules one flush of the pending candles unless
+     * the client is still draining the previous ones.
+     */
     public void instrumentProcessed() {
-        try {
-            phaser.arrive();
-        } catch (Exception e) {
-            log.error("Subscription state exception", e);
+        long since = unwritableSince;
+        if (since != 0) {
+            if (System.nanoTime() - since >= slowClientTimeoutNanos && disconnecting.compareAndSet(false, true)) {
+                log.warn("Disconnecting slow client {}, unwritable for {} ms", channel.remoteAddress(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since));
+                metrics.slowDisconnect();
+                channel.close();
+            }
+            return;
+        }
+        if ((!pendingFrames.isEmpty() || !pendingUpdates.isEmpty()) && flushScheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(this::flush);
+        }
+    }
+
+    /**
+     * Called on the event loop when the channel crosses its write buffer watermarks.
+     */
+    public void writabilityChanged(boolean writable) {
+        if (writable) {
+            unwritableSince = 0;
+            flush();
+        } else if (unwritableSince == 0) {
+            unwritableSince = System.nanoTime();
+        }
+    }
+
+    private void flush() {
+        // Cleared first, a candle offered while writing is picked up by the next tick
+        flushScheduled.set(false);
+        boolean written = write(pendingFrames) | write(pendingUpdates);
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    private boolean write(Map<SubscriptionKey, ByteBuf> pending) {
+        boolean written = false;
+        for (SubscriptionKey key : pending.keySet()) {
+            if (!channel.isWritable()) {
+                // The rest stays in the slots until the channel drains
+                break;
+            }
+            ByteBuf content = pending.remove(key);
+            if (content != null) {
+                channel.write(frame(content));
+                written = true;
+            }
+        }
+        return written;
+    }
+
+    private WebSocketFrame frame(ByteBuf content) {
+        return binary ? new BinaryWebSocketFrame(content) : new TextWebSocketFrame(content);
+    }
+
+    private void drop(ByteBuf content) {
+        if (content != null) {
+            content.release();
+            metrics.dropped();
         }
     }
 }
@@ -0,0 +1,220 @@
+package com.price.stream.state;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.price.common.config.DataBase;
+import com.price.common.config.Instrument;
+import com.price.common.config.PriceConfiguration;
+import com.price.common.config.StreamSettings;
+import com.price.common.db.Candle;
+import com.price.common.db.CandleSeries;
+import com.price.common.db.QueryRepository;
+import com.price.common.db.RepositoryContainer;
+import com.price.stream.common.CandleState;
+import com.price.stream.common.SubscriptionKey;
+import com.price.stream.market.CandleAggregator;
+import com.price.stream.market.MarketDataProcessor;
+import com.price.stream.market.MarketDataProcessorFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm start for candle aggregators.
+ * <p>
+ * Open candles of all instruments are written to a local file periodically and on shutdown.
+ * On startup, before any market data flows, each aggregator continues its candle from the
+ * checkpoint if it belongs to the current period. Otherwise the current period is rebuilt from
+ * the smallest persisted timeframe of the instrument, so the first candle after a restart
+ * does not overwrite good data with a partial one. The recent closed candles sent to new
+ * subscribers are loaded from the repository as well.
+ */
+@Slf4j
+@Service
+public class CheckpointService implements AutoCloseable {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final PriceConfiguration configuration;
+    private final RepositoryContainer repositoryContainer;
+    private final Map<String, MarketDataProcessor> marketDataProcessorMap;
+    private final StreamSettings settings;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public CheckpointService(PriceConfiguration configuration,
+                             RepositoryContainer repositoryContainer,
+                             MarketDataProcessorFactory marketDataProcessorFactory) {
+        this.configuration = configuration;
+        this.repositoryContainer = repositoryContainer;
+        this.marketDataProcessorMap = marketDataProcessorFactory.marketDataProcessorMap;
+        this.settings = configuration.stream();
+    }
+
+    public void restore() {
+        long now = System.currentTimeMillis();
+        Map<SubscriptionKey, CandleState> saved = read();
+        Map<MarketDataProcessor, List<CandleAggregator>> missing = new HashMap<>();
+        for (MarketDataProcessor processor : marketDataProcessorMap.values()) {
+            for (CandleAggregator aggregator : processor.getAggregators()) {
+                SubscriptionKey key = aggregator.getSubscriptionKey();
+                CandleState state = saved.get(key);
+                // Only the current period can be continued, an older candle may already be stored complete
+                if (state != null && state.time() == periodStart(now, key.timeframe())) {
+                    aggregator.restore(state);
+                } else {
+                    missing.computeIfAbsent(processor, p -> new ArrayList<>()).add(aggregator);
+                }
+            }
+        }
+        if (configuration.dataBases().isEmpty() || settings.relay()) {
+            return;
+        }
+        if (!missing.isEmpty()) {
+            rebuild(missing, now);
+        }
+        preload(now);
+    }
+
+    private void preload(long now) {
+        int count = settings.snapshotCandles();
+        try (QueryRepository repository = repositoryContainer.createQueryRepository(configuration.dataBases().getFirst())) {
+            for (MarketDataProcessor processor : marketDataProcessorMap.values()) {
+                for (CandleAggregator aggregator : processor.getAggregators()) {
+                    SubscriptionKey key = aggregator.getSubscriptionKey();
+                    long end = periodStart(now, key.timeframe());
+                    // Twice the span leaves room for gaps in trading, the open period is not stored yet
+                    CandleSeries candles = repository.queryPage(key.instrument(), key.timeframe(), key.timeframe(),
+                            end - 2L * count * key.timeframe(), end, count, true);
+                    aggregator.preload(candles);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to preload recent candles from repository", e);
+        }
+    }
+
+    private void rebuild(Map<MarketDataProcessor, List<CandleAggregator>> missing, long now) {
+        DataBase dataBase = configuration.dataBases().getFirst();
+        try (QueryRepository repository = repositoryContainer.createQueryRepository(dataBase)) {
+            for (Map.Entry<MarketDataProcessor, List<CandleAggregator>> entry : missing.entrySet()) {
+                int base = baseTimeframe(entry.getKey().getInstrument(), dataBase);
+                for (CandleAggregator aggregator : entry.getValue()) {
+                    SubscriptionKey key = aggregator.getSubscriptionKey();
+                    if (base <= 0 || key.timeframe() <= base || key.timeframe() % base != 0) {
+                        continue;
+                    }
+                    long start = periodStart(now, key.timeframe());
+                    List<Candle> candles = repository.queryCandles(key.instrument(), base, start, now);
+                    if (!candles.isEmpty()) {
+                        aggregator.restore(fold(start, candles));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to rebuild open candles from repository", e);
+        }
+    }
+
+    private int baseTimeframe(Instrument instrument, DataBase dataBase) {
+        int base = 0;
+        for (int timeframe : instrument.timeframes()) {
+            if (!dataBase.isRollup(timeframe) && (base == 0 || timeframe < base)) {
+                base = timeframe;
+            }
+        }
+        return base;
+    }
+
+    private static CandleState fold(long time, List<Candle> candles) {
+        double high = Double.MIN_VALUE;
+        double low = Double.MAX_VALUE;
+        long volume = 0;
+        for (Candle candle : candles) {
+            high = Math.max(high, candle.high());
+            low = Math.min(low, candle.low());
+            volume += (long) candle.volume();
+        }
+        return new CandleState(time, candles.getFirst().open(), high, low, candles.getLast().close(), volume);
+    }
+
+    private static long periodStart(long time, int timeframe) {
+        return (time / timeframe) * timeframe;
+    }
+
+    public void start() {
+        if (!settings.checkpointEnabled()) {
+            log.info("Candle checkpoints disabled");
+            return;
+        }
+        int interval = settings.checkpointIntervalSeconds();
+        scheduler.scheduleAtFixedRate(this::save, interval, interval, TimeUnit.SECONDS);
+        log.info("Candle checkpoints every {}s to {}", interval, settings.checkpointFile());
+    }
+
+    private Map<SubscriptionKey, CandleState> read() {
+        Map<SubscriptionKey, CandleState> result = new HashMap<>();
+        if (!settings.checkpointEnabled()) {
+            return result;
+        }
+        Path file = Path.of(settings.checkpointFile());
+        if (!Files.exists(file)) {
+            return result;
+        }
+        try {
+            List<CheckpointEntry> entries = MAPPER.readValue(file.toFile(), new TypeReference<List<CheckpointEntry>>() {
+            });
+            for (CheckpointEntry entry : entries) {
+                result.put(new SubscriptionKey(entry.instrument(), entry.timeframe()), entry.candle());
+            }
+            log.info("Read {} open candles from checkpoint {}", result.size(), file);
+        } catch (IOException e) {
+            log.warn("Failed to read checkpoint {}", file, e);
+        }
+        return result;
+    }
+
+    void save() {
+        List<CheckpointEntry> entries = new ArrayList<>();
+        for (MarketDataProcessor processor : marketDataProcessorMap.values()) {
+            for (CandleAggregator aggregator : processor.getAggregators()) {
+                CandleState state = aggregator.checkpoint();
+                if (state != null) {
+                    SubscriptionKey key = aggregator.getSubscriptionKey();
+                    entries.add(new CheckpointEntry(key.instrument(), key.timeframe(), state));
+                }
+            }
+        }
+        Path file = Path.of(settings.checkpointFile()).toAbsolutePath();
+        try {
+            Files.createDirectories(file.getParent());
+            // Write aside and move, a crash never leaves a truncated checkpoint behind
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            MAPPER.writeValue(tmp.toFile(), entries);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved {} open candles to {}", entries.size(), file);
+        } catch (Exception e) {
+            log.error("Failed to save checkpoint {}", file, e);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        scheduler.shutdown();
+        if (settings.checkpointEnabled()) {
+            save();
+        }
+    }
+
+    record CheckpointEntry(String instrument, int timeframe, CandleState candle) {
+    }
+}
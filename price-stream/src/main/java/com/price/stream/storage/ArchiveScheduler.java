@@ -0,0 +1,69 @@
+package com.price.stream.storage;
+
+import com.price.common.config.DataBase;
+import com.price.common.config.PriceConfiguration;
+import com.price.common.db.ArchiveRepository;
+import com.price.common.db.RepositoryContainer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the cold archive job of every database with archiving enabled once a day.
+ */
+@Slf4j
+@Service
+public class ArchiveScheduler implements AutoCloseable {
+    private static final long INITIAL_DELAY_MINUTES = 1;
+    private static final long PERIOD_MINUTES = 24 * 60;
+
+    private final List<ArchiveRepository> archives = new ArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    public ArchiveScheduler(PriceConfiguration configuration, RepositoryContainer repositoryContainer) {
+        // Relays store nothing
+        List<DataBase> dataBases = configuration.stream().relay() ? List.of() : configuration.dataBases();
+        for (DataBase dataBase : dataBases) {
+            if (!dataBase.archiveEnabled()) {
+                continue;
+            }
+            ArchiveRepository archive = repositoryContainer.createArchiveRepository(dataBase);
+            if (archive == null) {
+                log.warn("Repository type {} does not support archiving", dataBase.type());
+                continue;
+            }
+            archives.add(archive);
+        }
+    }
+
+    public void start() {
+        if (archives.isEmpty()) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::archive, INITIAL_DELAY_MINUTES, PERIOD_MINUTES, TimeUnit.MINUTES);
+        log.info("Archive job scheduled for {} database(s)", archives.size());
+    }
+
+    private void archive() {
+        for (ArchiveRepository archive : archives) {
+            try {
+                archive.archive();
+            } catch (Exception e) {
+                log.error("Archive job failed", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        scheduler.shutdownNow();
+        for (ArchiveRepository archive : archives) {
+            archive.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.price.stream.storage;
+
+import com.price.stream.common.CandleProcessor;
+import com.price.stream.common.SubscriptionKey;
+
+/**
+ * Routes candles onto several writer rings by instrument hash. All candles of an instrument
+ * always land on the same ring, so per-instrument ordering is preserved while different
+ * instruments are written in parallel over separate repository connections.
+ */
+public class PartitionedPersistenceProcessor implements CandleProcessor {
+    private final CandlePersistenceProcessor[] partitions;
+
+    public PartitionedPersistenceProcessor(CandlePersistenceProcessor[] partitions) {
+        if (partitions.length == 0) {
+            throw new IllegalArgumentException("At least one persistence partition is required");
+        }
+        this.partitions = partitions;
+    }
+
+    @Override
+    public void handleCandleEvent(SubscriptionKey subscriptionKey, long time,
+                                  double open, double high, double low, double close, long volume) {
+        partitions[partition(subscriptionKey.instrument())]
+                .handleCandleEvent(subscriptionKey, time, open, high, low, close, volume);
+    }
+
+    int partition(String instrument) {
+        return Math.floorMod(instrument.hashCode(), partitions.length);
+    }
+}
@@ -1,34 +1,78 @@
 package com.price.stream.storage;
 
+import com.price.common.config.DataBase;
+import com.price.common.config.Instrument;
 import com.price.common.config.PriceConfiguration;
 import com.price.common.db.RepositoryContainer;
-import com.price.common.db.SaveRepository;
-import jakarta.annotation.PreDestroy;
-import lombok.Getter;
+import com.price.stream.common.CandleProcessor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.List;
 
+@Slf4j
 @Service
 public class PersistenceProcessorFactory {
 
-    @Getter
-    private final List<CandlePersistenceProcessor> candleProcessors;
+    private final List<Target> targets;
+    private final List<CandlePersistenceProcessor> writers;
 
     public PersistenceProcessorFactory(PriceConfiguration configuration, RepositoryContainer repositoryContainer) {
-        List<SaveRepository> repositories = repositoryContainer.getSaveRepositories();
-        candleProcessors = new ArrayList<>();
-        for (SaveRepository repository : repositories) {
-            CandlePersistenceProcessor candleProcessor = new CandlePersistenceProcessor(repository, configuration);
-            candleProcessor.start();
-            candleProcessors.add(candleProcessor);
+        targets = new ArrayList<>();
+        writers = new ArrayList<>();
+        // Relays leave persistence to their upstream
+        List<DataBase> dataBases = configuration.stream().relay() ? List.of() : configuration.dataBases();
+        for (DataBase dataBase : dataBases) {
+            // Once per database, the writers only connect
+            repositoryContainer.prepare(dataBase);
+            CandlePersistenceProcessor[] partitions = new CandlePersistenceProcessor[dataBase.writerCount()];
+            for (int i = 0; i < partitions.length; i++) {
+                // Each writer gets its own repository instance and therefore its own connection
+                partitions[i] = new CandlePersistenceProcessor(repositoryContainer.createSaveRepository(dataBase), configuration);
+                partitions[i].start();
+                writers.add(partitions[i]);
+            }
+            CandleProcessor processor = partitions.length == 1 ? partitions[0] : new PartitionedPersistenceProcessor(partitions);
+            targets.add(new Target(dataBase, processor));
+            log.info("Persistence for {} started with {} writer(s)", dataBase.type(), partitions.length);
         }
     }
 
+    /**
+     * Processors that persist the given timeframe. Timeframes rolled up by a database are skipped
+     * for that database, only the base timeframe is written.
+     */
+    public List<CandleProcessor> getCandleProcessors(Instrument instrument, int timeframe) {
+        List<CandleProcessor> result = new ArrayList<>();
+        for (Target target : targets) {
+            DataBase dataBase = target.dataBase();
+            if (!dataBase.isRollup(timeframe)) {
+                result.add(target.processor());
+            } else if (!hasBaseTimeframe(instrument, dataBase)) {
+                log.warn("Timeframe {}ms of {} is rolled up from {} which is not configured for the instrument",
+                        timeframe, instrument.fullName(), dataBase.rollupBase());
+            }
+        }
+        return result;
+    }
+
+    private boolean hasBaseTimeframe(Instrument instrument, DataBase dataBase) {
+        int base = dataBase.rollupBaseTimeframe();
+        for (int timeframe : instrument.timeframes()) {
+            if (timeframe == base) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void close() throws Exception {
-        for (CandlePersistenceProcessor processor : candleProcessors) {
+        for (CandlePersistenceProcessor processor : writers) {
             processor.close();
         }
     }
+
+    private record Target(DataBase dataBase, CandleProcessor processor) {
+    }
 }
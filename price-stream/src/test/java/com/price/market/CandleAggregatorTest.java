@@ -1,9 +1,12 @@
 package com.price.market;
 
 import com.price.common.config.Instrument;
+import com.price.stream.common.CandleState;
+import com.price.stream.common.Replay;
 import com.price.stream.common.SubscriptionKey;
 import com.price.stream.event.buffer.MarketDataEvent;
 import com.price.stream.market.CandleAggregator;
+import com.price.stream.service.SubscriptionProcessor;
 import com.price.stream.storage.CandlePersistenceProcessor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -12,9 +15,13 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -32,7 +39,7 @@ class CandleAggregatorTest {
 
     @BeforeEach
     void setUp() {
-        candleAggregator = new CandleAggregator(INSTRUMENT, TIMEFRAME_MS, List.of(candleProcessor));
+        candleAggregator = new CandleAggregator(INSTRUMENT, 0, TIMEFRAME_MS, 16, List.of(candleProcessor));
     }
 
     @Test
@@ -218,7 +225,7 @@ class CandleAggregatorTest {
     void testDifferentTimeframePeriods() throws Exception {
         // Test with 5-minute timeframe (300000ms)
         Instrument fiveMinInstrument = new Instrument("BTCUSDT", "com.price.source.binance", new int[]{300000});
-        CandleAggregator fiveMinAggregator = new CandleAggregator(fiveMinInstrument, 300000, List.of(candleProcessor));
+        CandleAggregator fiveMinAggregator = new CandleAggregator(fiveMinInstrument, 0, 300000, 16, List.of(candleProcessor));
         SubscriptionKey fiveMinSubscriptionKey = new SubscriptionKey(fiveMinInstrument.fullName(), 300000);
 
         MarketDataEvent event1 = createMarketDataEvent(1000, 100.0, 10);
@@ -268,6 +275,73 @@ class CandleAggregatorTest {
         assertEquals(0L, timeCaptor.getValue());
     }
 
+    @Test
+    void testTimerEventPublishesCheckpoint() throws Exception {
+        assertNull(candleAggregator.checkpoint());
+
+        candleAggregator.onEvent(createMarketDataEvent(1000, 100.0, 10), 0, false);
+        candleAggregator.onEvent(createMarketDataEvent(2000, 104.0, 5), 1, false);
+        candleAggregator.onEvent(createTimerEvent(3000), 2, true);
+
+        assertEquals(new CandleState(0, 100.0, 104.0, 100.0, 104.0, 15), candleAggregator.checkpoint());
+    }
+
+    @Test
+    void testRestoredCandleContinuesInSamePeriod() throws Exception {
+        candleAggregator.restore(new CandleState(60000, 100.0, 120.0, 90.0, 110.0, 50));
+
+        candleAggregator.onEvent(createMarketDataEvent(90000, 95.0, 10), 0, false);
+        candleAggregator.onEvent(createMarketDataEvent(120000, 101.0, 1), 1, true);
+
+        verify(candleProcessor).handleCandleEvent(
+                eq(SUBSCRIPTION_KEY),
+                eq(60000L),
+                eq(100.0), // open from checkpoint
+                eq(120.0), // high from checkpoint
+                eq(90.0),  // low from checkpoint
+                eq(95.0),  // close from new event
+                eq(60L)    // 50 restored + 10
+        );
+    }
+
+    @Test
+    void testUpdateEventPushesTheOpenCandle() throws Exception {
+        SubscriptionProcessor subscriber = mock(SubscriptionProcessor.class);
+        candleAggregator.subscribe(subscriber, 4);
+
+        candleAggregator.onEvent(createMarketDataEvent(1000, 100.0, 10), 0, false);
+        candleAggregator.onEvent(createUpdateEvent(1500), 1, true);
+        // Unchanged candle
+        candleAggregator.onEvent(createUpdateEvent(2000), 2, true);
+        // The candle's period is over, the timer event closes it
+        candleAggregator.onEvent(createMarketDataEvent(2100, 101.0, 10), 3, false);
+        candleAggregator.onEvent(createUpdateEvent(60500), 4, true);
+
+        verify(subscriber, times(1)).offerUpdate(eq(SUBSCRIPTION_KEY), any());
+        verify(subscriber, never()).offer(any(), any());
+    }
+
+    @Test
+    void testReplaySendsOnlyTheCandlesAfterTheClientsLastOne() throws Exception {
+        candleAggregator.onEvent(createMarketDataEvent(1000, 100.0, 10), 0, false);
+        candleAggregator.onEvent(createMarketDataEvent(61000, 101.0, 10), 1, false);
+        candleAggregator.onEvent(createMarketDataEvent(121000, 102.0, 10), 2, false);
+        candleAggregator.onEvent(createTimerEvent(122000), 3, true);
+
+        Replay replay = candleAggregator.replay(0, false);
+        assertTrue(replay.complete());
+        String instrument = "{\"i\":\"" + INSTRUMENT.fullName() + "\",";
+        assertEquals("[" + instrument + "\"t\":60000,\"f\":60000,\"o\":101.0,\"h\":101.0,\"l\":101.0,\"c\":101.0,\"v\":10.0},"
+                        + instrument + "\"t\":120000,\"f\":60000,\"o\":102.0,\"h\":102.0,\"l\":102.0,\"c\":102.0,\"v\":10.0,\"p\":true}]",
+                replay.content().toString(StandardCharsets.UTF_8));
+        replay.content().release();
+
+        // Older than anything kept, the client can't know what it missed in between
+        Replay partial = candleAggregator.replay(-60000, false);
+        assertFalse(partial.complete());
+        partial.content().release();
+    }
+
     private MarketDataEvent createMarketDataEvent(long timestamp, double price, long volume) {
         MarketDataEvent event = new MarketDataEvent();
         event.timestamp(timestamp);
@@ -277,6 +351,13 @@ class CandleAggregatorTest {
         return event;
     }
 
+    private MarketDataEvent createUpdateEvent(long timestamp) {
+        MarketDataEvent event = new MarketDataEvent();
+        event.timestamp(timestamp);
+        event.type(MarketDataEvent.Type.UPDATE);
+        return event;
+    }
+
     private MarketDataEvent createTimerEvent(long timestamp) {
         MarketDataEvent event = new MarketDataEvent();
         event.timestamp(timestamp);
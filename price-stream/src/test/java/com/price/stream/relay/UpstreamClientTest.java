@@ -0,0 +1,98 @@
+package com.price.stream.relay;
+
+import com.price.common.config.Instrument;
+import com.price.common.config.PriceConfiguration;
+import com.price.common.config.StreamSettings;
+import com.price.common.source.Connector;
+import com.price.common.stream.StreamClient;
+import com.price.stream.market.ConnectorFactory;
+import com.price.stream.market.MarketDataProcessorFactory;
+import com.price.stream.market.NonDriftingTimer;
+import com.price.stream.service.StreamService;
+import com.price.stream.storage.PersistenceProcessorFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UpstreamClientTest {
+
+    private static final Instrument INSTRUMENT = new Instrument("BTCUSDT", "binance", new int[]{60000});
+    private static final long MINUTE = 1735516800000L;
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (AutoCloseable resource : resources.reversed()) {
+            resource.close();
+        }
+    }
+
+    @Test
+    void testRelayServesTheCandlesOfItsUpstream() throws Exception {
+        MarketDataProcessorFactory core = start(configuration(null));
+        StreamService coreStream = serve(configuration(null), core);
+        // Stands in for an exchange connector of the core
+        core.marketDataProcessorMap.get(INSTRUMENT.fullName())
+                .handleCandleEvent(60000, true, MINUTE, 1, 2, 0.5, 1.5, 10);
+
+        PriceConfiguration relayConfiguration = configuration("ws://localhost:" + coreStream.port() + "/stream");
+        MarketDataProcessorFactory relay = start(relayConfiguration);
+        UpstreamClient upstream = new UpstreamClient(relayConfiguration, relay);
+        resources.add(upstream);
+        upstream.start();
+        StreamService relayStream = serve(relayConfiguration, relay);
+
+        // Relayed from the core's replay buffer, or live when the relay subscribed first
+        CompletableFuture<double[]> received = new CompletableFuture<>();
+        StreamClient client = new StreamClient("test", "ws://localhost:" + relayStream.port() + "/stream",
+                List.of(new StreamClient.Stream(INSTRUMENT.fullName(), 60000)), Map.of("snapshot", 10),
+                (instrument, timeframeMs, closed, time, open, high, low, close, volume) -> {
+                    if (closed && time == MINUTE) {
+                        received.complete(new double[]{open, high, low, close, volume});
+                    }
+                });
+        resources.add(client);
+        client.start();
+
+        assertArrayEquals(new double[]{1, 2, 0.5, 1.5, 10}, received.get(10, TimeUnit.SECONDS));
+    }
+
+    private static PriceConfiguration configuration(String upstreamUrl) {
+        // HTTP port -1 puts the stream on an ephemeral port
+        return new PriceConfiguration(List.of(INSTRUMENT), List.of(), -1, 1024,
+                new StreamSettings(null, 0, 0, 0, 0, 0, 0, 0, 16, upstreamUrl), null);
+    }
+
+    /**
+     * Processors without databases, the core's connector is never started.
+     */
+    private MarketDataProcessorFactory start(PriceConfiguration configuration) {
+        NonDriftingTimer timer = new NonDriftingTimer(configuration);
+        resources.add(timer);
+        ConnectorFactory connectorFactory = mock(ConnectorFactory.class);
+        when(connectorFactory.getConnector(any())).thenReturn(mock(Connector.class));
+        MarketDataProcessorFactory factory = new MarketDataProcessorFactory(configuration,
+                new PersistenceProcessorFactory(configuration, null), connectorFactory, timer);
+        factory.start();
+        resources.add(factory::close);
+        return factory;
+    }
+
+    private StreamService serve(PriceConfiguration configuration, MarketDataProcessorFactory factory) {
+        StreamService streamService = new StreamService(configuration, factory);
+        resources.add(streamService);
+        streamService.start();
+        return streamService;
+    }
+}
@@ -0,0 +1,159 @@
+package com.price.stream.service;
+
+import com.price.common.db.CandleSeries;
+import com.price.common.stream.CandleFrameCodec;
+import com.price.stream.common.CandleState;
+import com.price.stream.common.SubscriptionKey;
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class CandleBroadcasterTest {
+
+    private static final SubscriptionKey KEY = new SubscriptionKey("BTCUSDT@binance", 60000);
+
+    @Test
+    void testCandleIsSerializedOnceForAllSubscribers() {
+        SubscriptionProcessor first = mock(SubscriptionProcessor.class);
+        SubscriptionProcessor second = mock(SubscriptionProcessor.class);
+        CandleBroadcaster broadcaster = new CandleBroadcaster(3);
+        broadcaster.subscribe(first, 0);
+        broadcaster.subscribe(second, 0);
+
+        broadcaster.handleCandleEvent(KEY, 1672531200000L, 1, 2, 0.5, 1.5, 10);
+
+        ArgumentCaptor<ByteBuf> firstContent = ArgumentCaptor.forClass(ByteBuf.class);
+        ArgumentCaptor<ByteBuf> secondContent = ArgumentCaptor.forClass(ByteBuf.class);
+        verify(first).offer(eq(KEY), firstContent.capture());
+        verify(second).offer(eq(KEY), secondContent.capture());
+        // Both are views of one buffer, only the references held by the subscribers are left
+        assertSame(firstContent.getValue().unwrap(), secondContent.getValue().unwrap());
+        assertEquals(2, firstContent.getValue().refCnt());
+        assertEquals("[{\"i\":\"BTCUSDT@binance\",\"t\":1672531200000,\"f\":60000,\"o\":1.0,\"h\":2.0,\"l\":0.5,\"c\":1.5,\"v\":10.0}]",
+                firstContent.getValue().toString(StandardCharsets.UTF_8));
+
+        firstContent.getValue().release();
+        secondContent.getValue().release();
+        assertEquals(0, firstContent.getValue().refCnt());
+    }
+
+    @Test
+    void testBinarySubscribersGetCandleFrames() {
+        SubscriptionProcessor json = mock(SubscriptionProcessor.class);
+        SubscriptionProcessor binary = mock(SubscriptionProcessor.class);
+        when(binary.isBinary()).thenReturn(true);
+        CandleBroadcaster broadcaster = new CandleBroadcaster(3);
+        broadcaster.subscribe(json, 0);
+        broadcaster.subscribe(binary, 0);
+
+        broadcaster.handleCandleEvent(KEY, 1672531200000L, 1, 2, 0.5, 1.5, 10);
+
+        ArgumentCaptor<ByteBuf> jsonContent = ArgumentCaptor.forClass(ByteBuf.class);
+        ArgumentCaptor<ByteBuf> binaryContent = ArgumentCaptor.forClass(ByteBuf.class);
+        verify(json).offer(eq(KEY), jsonContent.capture());
+        verify(binary).offer(eq(KEY), binaryContent.capture());
+        ByteBuf frame = binaryContent.getValue();
+        assertEquals(CandleFrameCodec.RECORD_SIZE, frame.readableBytes());
+        List<String> candles = new ArrayList<>();
+        CandleFrameCodec.read(frame.nioBuffer(), (closed, id, tf, t, o, h, l, c, v) ->
+                candles.add(closed + " " + id + " " + tf + " " + t + " " + o + " " + v));
+        assertEquals(List.of("true 3 60000 1672531200000 1.0 10.0"), candles);
+
+        jsonContent.getValue().release();
+        frame.release();
+        assertEquals(0, frame.refCnt());
+    }
+
+    @Test
+    void testOpenCandleUpdatesAreThrottledPerRate() {
+        SubscriptionProcessor fast = mock(SubscriptionProcessor.class);
+        SubscriptionProcessor slow = mock(SubscriptionProcessor.class);
+        SubscriptionProcessor closedOnly = mock(SubscriptionProcessor.class);
+        CandleBroadcaster broadcaster = new CandleBroadcaster(3);
+        broadcaster.subscribe(fast, 4);
+        broadcaster.subscribe(slow, 1);
+        broadcaster.subscribe(closedOnly, 0);
+
+        broadcaster.handleOpenCandle(KEY, 1000, 1, 0, 1, 2, 0.5, 1.5, 10);
+        // Same quarter second
+        broadcaster.handleOpenCandle(KEY, 1100, 2, 0, 1, 2, 0.5, 1.6, 11);
+        broadcaster.handleOpenCandle(KEY, 1250, 3, 0, 1, 2, 0.5, 1.7, 12);
+        // Unchanged candle
+        broadcaster.handleOpenCandle(KEY, 1500, 3, 0, 1, 2, 0.5, 1.7, 12);
+        broadcaster.handleOpenCandle(KEY, 2000, 3, 0, 1, 2, 0.5, 1.7, 12);
+
+        ArgumentCaptor<ByteBuf> fastContent = ArgumentCaptor.forClass(ByteBuf.class);
+        ArgumentCaptor<ByteBuf> slowContent = ArgumentCaptor.forClass(ByteBuf.class);
+        verify(fast, times(2)).offerUpdate(eq(KEY), fastContent.capture());
+        verify(slow, times(2)).offerUpdate(eq(KEY), slowContent.capture());
+        verifyNoInteractions(closedOnly);
+        assertEquals("[{\"i\":\"BTCUSDT@binance\",\"t\":0,\"f\":60000,\"o\":1.0,\"h\":2.0,\"l\":0.5,\"c\":1.7,\"v\":12.0,\"p\":true}]",
+                fastContent.getValue().toString(StandardCharsets.UTF_8));
+        // Both groups got the update of the same tick from one buffer
+        assertSame(fastContent.getAllValues().get(0).unwrap(), slowContent.getAllValues().get(0).unwrap());
+        fastContent.getAllValues().forEach(ByteBuf::release);
+        slowContent.getAllValues().forEach(ByteBuf::release);
+    }
+
+    @Test
+    void testUpdateRateCanBeChanged() {
+        SubscriptionProcessor subscriber = mock(SubscriptionProcessor.class);
+        CandleBroadcaster broadcaster = new CandleBroadcaster(3);
+        broadcaster.subscribe(subscriber, 0);
+        assertFalse(broadcaster.hasUpdateSubscribers());
+
+        broadcaster.subscribe(subscriber, 4);
+        assertTrue(broadcaster.hasUpdateSubscribers());
+        broadcaster.subscribe(subscriber, 2);
+        broadcaster.handleOpenCandle(KEY, 1000, 1, 0, 1, 2, 0.5, 1.5, 10);
+        ArgumentCaptor<ByteBuf> content = ArgumentCaptor.forClass(ByteBuf.class);
+        verify(subscriber, times(1)).offerUpdate(eq(KEY), content.capture());
+        content.getValue().release();
+
+        broadcaster.unsubscribe(subscriber);
+        assertFalse(broadcaster.hasUpdateSubscribers());
+    }
+
+    @Test
+    void testSnapshotHoldsClosedCandlesAndTheOpenOne() throws Exception {
+        CandleBroadcaster broadcaster = new CandleBroadcaster(3);
+        CandleSeries closed = new CandleSeries("BTCUSDT@binance", 60000);
+        closed.add(0, 1, 2, 0.5, 1.5, 10);
+        closed.add(60000, 1.5, 2, 1, 1, 5);
+        CandleState open = new CandleState(120000, 1, 1, 1, 1, 1);
+
+        ByteBuf json = broadcaster.encodeSnapshot(KEY, closed, open, false);
+        assertEquals("[{\"i\":\"BTCUSDT@binance\",\"t\":0,\"f\":60000,\"o\":1.0,\"h\":2.0,\"l\":0.5,\"c\":1.5,\"v\":10.0},"
+                        + "{\"i\":\"BTCUSDT@binance\",\"t\":60000,\"f\":60000,\"o\":1.5,\"h\":2.0,\"l\":1.0,\"c\":1.0,\"v\":5.0},"
+                        + "{\"i\":\"BTCUSDT@binance\",\"t\":120000,\"f\":60000,\"o\":1.0,\"h\":1.0,\"l\":1.0,\"c\":1.0,\"v\":1.0,\"p\":true}]",
+                json.toString(StandardCharsets.UTF_8));
+        json.release();
+
+        ByteBuf binary = broadcaster.encodeSnapshot(KEY, closed, null, true);
+        List<String> candles = new ArrayList<>();
+        CandleFrameCodec.read(binary.nioBuffer(), (isClosed, id, tf, t, o, h, l, c, v) ->
+                candles.add(isClosed + " " + id + " " + t + " " + c));
+        assertEquals(List.of("true 3 0 1.5", "true 3 60000 1.0"), candles);
+        binary.release();
+    }
+
+    @Test
+    void testNothingIsSerializedWithoutSubscribers() {
+        SubscriptionProcessor subscriber = mock(SubscriptionProcessor.class);
+        CandleBroadcaster broadcaster = new CandleBroadcaster(3);
+        broadcaster.subscribe(subscriber, 0);
+        broadcaster.unsubscribe(subscriber);
+
+        broadcaster.handleCandleEvent(KEY, 1672531200000L, 1, 2, 0.5, 1.5, 10);
+
+        verifyNoInteractions(subscriber);
+    }
+}
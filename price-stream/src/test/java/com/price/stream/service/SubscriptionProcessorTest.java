@@ -0,0 +1,259 @@
+package com.price.stream.service;
+
+import com.price.stream.common.Replay;
+import com.price.stream.common.SubscriptionKey;
+import com.price.stream.market.MarketDataProcessor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SubscriptionProcessorTest {
+
+    private static final SubscriptionKey MINUTE = new SubscriptionKey("BTCUSDT@binance", 60000);
+    private static final SubscriptionKey HOUR = new SubscriptionKey("BTCUSDT@binance", 3600000);
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+    private final DeliveryMetrics metrics = new DeliveryMetrics();
+    private final SubscriptionProcessor processor = new SubscriptionProcessor(channel, Map.of(), metrics, 60000);
+
+    @Test
+    void testPendingCandlesAreFlushedOnTheEventLoop() {
+        ByteBuf replaced = content("first");
+        processor.offer(MINUTE, replaced);
+        processor.offer(MINUTE, content("second"));
+        processor.offer(HOUR, content("hour"));
+        assertEquals(0, replaced.refCnt());
+
+        processor.instrumentProcessed();
+        processor.instrumentProcessed();
+        // Nothing is written outside the event loop
+        assertNull(channel.readOutbound());
+
+        channel.runPendingTasks();
+        TextWebSocketFrame first = channel.readOutbound();
+        TextWebSocketFrame second = channel.readOutbound();
+        assertNull(channel.readOutbound());
+        // One frame per subscription, the replaced candle is gone
+        assertEquals(Set.of("second", "hour"), Set.of(first.text(), second.text()));
+        first.release();
+        second.release();
+    }
+
+    @Test
+    void testClosedCandleSupersedesPendingUpdate() {
+        ByteBuf stale = content("open");
+        processor.offerUpdate(MINUTE, stale);
+        processor.offer(MINUTE, content("closed"));
+        processor.offerUpdate(MINUTE, content("next"));
+        assertEquals(0, stale.refCnt());
+
+        processor.instrumentProcessed();
+        channel.runPendingTasks();
+        // Closed candles go out before the updates of the next one
+        TextWebSocketFrame closed = channel.readOutbound();
+        TextWebSocketFrame next = channel.readOutbound();
+        assertEquals("closed", closed.text());
+        assertEquals("next", next.text());
+        closed.release();
+        next.release();
+    }
+
+    @Test
+    void testNothingIsScheduledWithoutPendingCandles() {
+        processor.instrumentProcessed();
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    void testPendingCandlesAreReleasedOnStop() {
+        ByteBuf pending = content("pending");
+        processor.offer(MINUTE, pending);
+
+        processor.stop();
+
+        assertEquals(0, pending.refCnt());
+        assertEquals(1, metrics.droppedCount());
+    }
+
+    @Test
+    void testBinaryClientGetsInstrumentIdsAndCandleFrames() {
+        MarketDataProcessor marketDataProcessor = mock(MarketDataProcessor.class);
+        when(marketDataProcessor.getInstrumentId()).thenReturn(3);
+        SubscriptionProcessor binary = new SubscriptionProcessor(channel, Map.of("BTCUSDT@binance", marketDataProcessor),
+                metrics, 60000);
+        binary.setBinary(true);
+
+        binary.subscribe("BTCUSDT@binance", 60000, 0, 0, 0);
+
+        verify(marketDataProcessor).subscribe(60000, 0, binary);
+        TextWebSocketFrame reply = channel.readOutbound();
+        assertEquals("{\"type\":\"SUBSCRIBED\",\"instrument\":\"BTCUSDT@binance\",\"timeframe\":60000,\"id\":3}", reply.text());
+        reply.release();
+
+        binary.offer(MINUTE, content("frame"));
+        binary.instrumentProcessed();
+        channel.runPendingTasks();
+        BinaryWebSocketFrame frame = channel.readOutbound();
+        assertEquals("frame", frame.content().toString(StandardCharsets.UTF_8));
+        frame.release();
+    }
+
+    @Test
+    void testWildcardSubscribesEveryInstrumentWithTheTimeframe() {
+        MarketDataProcessor btc = mock(MarketDataProcessor.class);
+        MarketDataProcessor eth = mock(MarketDataProcessor.class);
+        when(btc.hasTimeframe(60000)).thenReturn(true);
+        SubscriptionProcessor subscriber = new SubscriptionProcessor(channel,
+                Map.of("BTCUSDT@binance", btc, "ETHUSDT@binance", eth), metrics, 60000);
+
+        subscriber.subscribe(List.of(SubscriptionProcessor.ALL_INSTRUMENTS), List.of(60000), 0, 0, 0);
+
+        verify(btc).subscribe(60000, 0, subscriber);
+        verify(eth, never()).subscribe(anyInt(), anyInt(), any());
+        assertTrue(subscriber.isSubscribed("BTCUSDT@binance"));
+        assertFalse(subscriber.isSubscribed("ETHUSDT@binance"));
+
+        subscriber.unsubscribe(List.of(SubscriptionProcessor.ALL_INSTRUMENTS), List.of(60000));
+        verify(btc).unsubscribe(60000, subscriber);
+        assertFalse(subscriber.isSubscribed("BTCUSDT@binance"));
+    }
+
+    @Test
+    void testBulkSubscribeTakesEveryCombination() {
+        MarketDataProcessor btc = mock(MarketDataProcessor.class);
+        MarketDataProcessor eth = mock(MarketDataProcessor.class);
+        SubscriptionProcessor subscriber = new SubscriptionProcessor(channel,
+                Map.of("BTCUSDT@binance", btc, "ETHUSDT@binance", eth), metrics, 60000);
+
+        subscriber.subscribe(List.of("BTCUSDT@binance", "ETHUSDT@binance"), List.of(60000, 3600000), 2, 0, 0);
+
+        verify(btc).subscribe(60000, 2, subscriber);
+        verify(btc).subscribe(3600000, 2, subscriber);
+        verify(eth).subscribe(60000, 2, subscriber);
+        verify(eth).subscribe(3600000, 2, subscriber);
+
+        // Still subscribed through the other timeframe
+        subscriber.unsubscribe("BTCUSDT@binance", 60000);
+        assertTrue(subscriber.isSubscribed("BTCUSDT@binance"));
+        subscriber.unsubscribe("BTCUSDT@binance", 3600000);
+        assertFalse(subscriber.isSubscribed("BTCUSDT@binance"));
+        verify(btc, times(2)).unsubscribe(anyInt(), eq(subscriber));
+    }
+
+    @Test
+    void testSnapshotIsWrittenBeforeLiveCandles() throws Exception {
+        MarketDataProcessor marketDataProcessor = mock(MarketDataProcessor.class);
+        SubscriptionProcessor subscriber = new SubscriptionProcessor(channel,
+                Map.of("BTCUSDT@binance", marketDataProcessor), metrics, 60000);
+        doAnswer(invocation -> {
+            // A candle closing while the client subscribes
+            subscriber.offer(MINUTE, content("live"));
+            subscriber.instrumentProcessed();
+            return null;
+        }).when(marketDataProcessor).subscribe(60000, 0, subscriber);
+        when(marketDataProcessor.snapshot(60000, 100, false)).thenReturn(content("snapshot"));
+
+        subscriber.subscribe("BTCUSDT@binance", 60000, 0, 100, 0);
+        channel.runPendingTasks();
+
+        TextWebSocketFrame snapshot = channel.readOutbound();
+        TextWebSocketFrame live = channel.readOutbound();
+        assertEquals("snapshot", snapshot.text());
+        assertEquals("live", live.text());
+        snapshot.release();
+        live.release();
+    }
+
+    @Test
+    void testResumeRepliesAndReplaysTheGap() throws Exception {
+        MarketDataProcessor marketDataProcessor = mock(MarketDataProcessor.class);
+        SubscriptionProcessor subscriber = new SubscriptionProcessor(channel,
+                Map.of("BTCUSDT@binance", marketDataProcessor), metrics, 60000);
+        when(marketDataProcessor.replay(60000, 120000, false)).thenReturn(new Replay(content("missed"), true));
+
+        subscriber.subscribe("BTCUSDT@binance", 60000, 0, 100, 120000);
+
+        verify(marketDataProcessor, never()).snapshot(anyInt(), anyInt(), anyBoolean());
+        TextWebSocketFrame reply = channel.readOutbound();
+        TextWebSocketFrame missed = channel.readOutbound();
+        assertEquals("{\"type\":\"RESUMED\",\"instrument\":\"BTCUSDT@binance\",\"timeframe\":60000,\"complete\":true}",
+                reply.text());
+        assertEquals("missed", missed.text());
+        reply.release();
+        missed.release();
+    }
+
+    @Test
+    void testUpdatesAreConflatedWhileTheChannelIsUnwritable() {
+        ByteBuf blocker = makeUnwritable();
+        ByteBuf replaced = content("first");
+        processor.offer(MINUTE, replaced);
+        processor.offer(MINUTE, content("second"));
+
+        processor.instrumentProcessed();
+        channel.runPendingTasks();
+        // Nothing was written or flushed behind the candle the client is still reading
+        assertEquals(0, replaced.refCnt());
+        assertEquals(1, metrics.conflatedCount());
+        assertTrue(channel.outboundMessages().isEmpty());
+
+        // The client catches up, the latest candle follows
+        channel.flush();
+        assertTrue(channel.isWritable());
+        processor.writabilityChanged(true);
+        assertSame(blocker, channel.readOutbound());
+        TextWebSocketFrame frame = channel.readOutbound();
+        assertEquals("second", frame.text());
+        frame.release();
+        blocker.release();
+    }
+
+    @Test
+    void testSlowClientIsDisconnected() {
+        SubscriptionProcessor slow = new SubscriptionProcessor(channel, Map.of(), metrics, 0);
+        ByteBuf blocker = makeUnwritable();
+        slow.writabilityChanged(false);
+        ByteBuf pending = content("pending");
+        slow.offer(MINUTE, pending);
+
+        slow.instrumentProcessed();
+        slow.instrumentProcessed();
+
+        assertFalse(channel.isOpen());
+        assertEquals(1, metrics.slowDisconnectCount());
+        slow.stop();
+        assertEquals(0, pending.refCnt());
+        assertEquals(1, metrics.droppedCount());
+        // Released with the unflushed write
+        assertEquals(0, blocker.refCnt());
+    }
+
+    /**
+     * Leaves a message above the high water mark in the outbound buffer without flushing it.
+     */
+    private ByteBuf makeUnwritable() {
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        ByteBuf blocker = content("a candle the client is still reading");
+        channel.write(blocker);
+        assertFalse(channel.isWritable());
+        processor.writabilityChanged(false);
+        return blocker;
+    }
+
+    private static ByteBuf content(String text) {
+        return Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+    }
+}
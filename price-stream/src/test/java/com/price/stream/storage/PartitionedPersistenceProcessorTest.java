@@ -0,0 +1,59 @@
+package com.price.stream.storage;
+
+import com.price.stream.common.SubscriptionKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PartitionedPersistenceProcessorTest {
+
+    private CandlePersistenceProcessor[] partitions;
+    private PartitionedPersistenceProcessor processor;
+
+    @BeforeEach
+    void setUp() {
+        partitions = new CandlePersistenceProcessor[4];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = mock(CandlePersistenceProcessor.class);
+        }
+        processor = new PartitionedPersistenceProcessor(partitions);
+    }
+
+    @Test
+    void testAllTimeframesOfInstrumentGoToSamePartition() {
+        SubscriptionKey oneMinute = new SubscriptionKey("BTCUSDT@BINANCE", 60000);
+        SubscriptionKey oneHour = new SubscriptionKey("BTCUSDT@BINANCE", 3600000);
+        int partition = processor.partition("BTCUSDT@BINANCE");
+
+        processor.handleCandleEvent(oneMinute, 0, 1, 2, 0.5, 1.5, 10);
+        processor.handleCandleEvent(oneHour, 0, 1, 2, 0.5, 1.5, 10);
+
+        verify(partitions[partition]).handleCandleEvent(eq(oneMinute), eq(0L), eq(1.0), eq(2.0), eq(0.5), eq(1.5), eq(10L));
+        verify(partitions[partition]).handleCandleEvent(eq(oneHour), eq(0L), eq(1.0), eq(2.0), eq(0.5), eq(1.5), eq(10L));
+        for (int i = 0; i < partitions.length; i++) {
+            if (i != partition) {
+                verifyNoInteractions(partitions[i]);
+            }
+        }
+    }
+
+    @Test
+    void testPartitionIsStableAndInRange() {
+        for (String instrument : new String[]{"BTCUSDT@BINANCE", "ETHUSDT@BINANCE", "SOLUSDT@BINANCE", "XRPUSDT@BINANCE"}) {
+            int partition = processor.partition(instrument);
+            assertEquals(partition, processor.partition(instrument));
+            assertTrue(partition >= 0 && partition < partitions.length);
+        }
+    }
+
+    @Test
+    void testEmptyPartitionsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new PartitionedPersistenceProcessor(new CandlePersistenceProcessor[0]));
+    }
+}
@@ -4,7 +4,6 @@ import { FormsModule } from '@angular/forms';
 import { Subscription, filter, take } from 'rxjs';
 import { createChart, IChartApi, ISeriesApi, CandlestickData, Time } from 'lightweight-charts';
 import { ConfigService } from './services/config.service';
-import { HistoryService } from './services/history.service';
 import { StreamService } from './services/stream.service';
 import { Instrument, CandleUpdate } from './models/config.model';
 
@@ -41,7 +40,6 @@ export class AppComponent implements OnInit, OnDestroy, AfterViewInit {
 
   constructor(
     private configService: ConfigService,
-    private historyService: HistoryService,
     private streamService: StreamService
   ) {}
 
@@ -144,6 +142,8 @@ export class AppComponent implements OnInit, OnDestroy, AfterViewInit {
   private handleCandleUpdates(updates: CandleUpdate[]): void {
     if (!this.candleSeries || !this.isRunning) return;
 
+    // The first message of a subscription is the snapshot of recent candles
+    const initial = this.candleData.size === 0;
     for (const update of updates) {
       if (update.i === this.activeInstrumentKey && update.f === this.activeTimeframeMs) {
         const timeInSeconds = Math.floor(update.t / 1000) as Time;
@@ -156,9 +156,14 @@ export class AppComponent implements OnInit, OnDestroy, AfterViewInit {
         };
 
         this.candleData.set(update.t, candle);
-        this.candleSeries.update(candle);
+        if (!initial) {
+          this.candleSeries.update(candle);
+        }
       }
     }
+    if (initial && this.candleData.size > 0) {
+      this.candleSeries.setData([...this.candleData.values()]);
+    }
   }
 
   onExchangeChange(): void {
@@ -198,7 +203,7 @@ export class AppComponent implements OnInit, OnDestroy, AfterViewInit {
     }
   }
 
-  private async start(): Promise<void> {
+  private start(): void {
     if (!this.selectedInstrument || !this.selectedTimeframe) {
       return;
     }
@@ -215,7 +220,9 @@ export class AppComponent implements OnInit, OnDestroy, AfterViewInit {
     const timeframeMs = this.activeTimeframeMs;
 
     try {
-      await this.loadHistory();
+      if (this.candleSeries) {
+        this.candleSeries.setData([]);
+      }
 
       // Clean up any previous connection subscription
       if (this.connectionSub) {
@@ -230,7 +237,8 @@ export class AppComponent implements OnInit, OnDestroy, AfterViewInit {
         filter(connected => connected),
         take(1)
       ).subscribe(() => {
-        this.streamService.subscribe(instrumentKey, timeframeMs);
+        // Recent candles come with the subscription, ahead of the live ones
+        this.streamService.subscribe(instrumentKey, timeframeMs, this.preloadBars);
       });
 
       this.isRunning = true;
@@ -255,42 +263,6 @@ export class AppComponent implements OnInit, OnDestroy, AfterViewInit {
     this.isRunning = false;
   }
 
-  private loadHistory(): Promise<void> {
-    return new Promise((resolve, reject) => {
-      const now = Math.floor(Date.now() / 1000);
-      const from = now - (this.preloadBars * this.activeTimeframeMs / 1000);
-
-      this.historyService.getHistory(this.activeInstrumentKey, this.selectedTimeframe, from, now).subscribe({
-        next: (response) => {
-          if (response.s === 'ok' && response.t && response.t.length > 0) {
-            const candles: CandlestickData<Time>[] = [];
-
-            for (let i = 0; i < response.t.length; i++) {
-              const candle: CandlestickData<Time> = {
-                time: response.t[i] as Time,
-                open: response.o[i],
-                high: response.h[i],
-                low: response.l[i],
-                close: response.c[i],
-              };
-              candles.push(candle);
-              this.candleData.set(response.t[i] * 1000, candle);
-            }
-
-            if (this.candleSeries) {
-              this.candleSeries.setData(candles);
-            }
-          }
-          resolve();
-        },
-        error: (err) => {
-          console.error('Failed to load history:', err);
-          reject(err);
-        }
-      });
-    });
-  }
-
   private parseTimeframe(timeframe: string): number {
     return parseInt(timeframe, 10);
   }
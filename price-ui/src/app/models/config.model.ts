@@ -11,17 +11,6 @@ export interface ConfigResponse {
   timestamp: number;
 }
 
-export interface HistoryResponse {
-  s: string;
-  errmsg: string | null;
-  t: number[];
-  o: number[];
-  h: number[];
-  l: number[];
-  c: number[];
-  v: number[];
-}
-
 export interface CandleUpdate {
   i: string;  // instrument
   t: number;  // time
@@ -31,4 +20,5 @@ export interface CandleUpdate {
   l: number;  // low
   c: number;  // close
   v: number;  // volume
+  p?: boolean; // update of a candle that is still open
 }
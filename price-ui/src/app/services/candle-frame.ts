@@ -0,0 +1,50 @@
+import { CandleUpdate } from '../models/config.model';
+
+/**
+ * Binary candle frames of price-stream (CandleFrameCodec on the server). Each frame holds fixed-size
+ * little-endian records:
+ *
+ *   uint8 type (1 = closed candle, 2 = open candle update), uint8 flags, uint16 reserved, int32 instrument id, int32 timeframe ms,
+ *   int64 time ms, float64 open, high, low, close, volume
+ *
+ * Instrument ids come from the SUBSCRIBED reply to each subscription.
+ */
+export const CANDLE_SUBPROTOCOL = 'price.candles.v1';
+export const CANDLE_RECORD_SIZE = 60;
+const CANDLE = 1;
+const OPEN_CANDLE = 2;
+
+export interface SubscribedReply {
+  type: 'SUBSCRIBED';
+  instrument: string;
+  timeframe: number;
+  id: number;
+}
+
+export function decodeCandleFrame(buffer: ArrayBuffer, instruments: Map<number, string>): CandleUpdate[] {
+  if (buffer.byteLength % CANDLE_RECORD_SIZE !== 0) {
+    throw new Error(`Not a candle frame, ${buffer.byteLength} bytes`);
+  }
+  const view = new DataView(buffer);
+  const updates: CandleUpdate[] = [];
+  for (let offset = 0; offset < buffer.byteLength; offset += CANDLE_RECORD_SIZE) {
+    const type = view.getUint8(offset);
+    const instrument = instruments.get(view.getInt32(offset + 4, true));
+    // Unknown record types are skipped for forward compatibility
+    if ((type !== CANDLE && type !== OPEN_CANDLE) || instrument === undefined) {
+      continue;
+    }
+    updates.push({
+      i: instrument,
+      f: view.getInt32(offset + 8, true),
+      t: Number(view.getBigInt64(offset + 12, true)),
+      o: view.getFloat64(offset + 20, true),
+      h: view.getFloat64(offset + 28, true),
+      l: view.getFloat64(offset + 36, true),
+      c: view.getFloat64(offset + 44, true),
+      v: view.getFloat64(offset + 52, true),
+      p: type === OPEN_CANDLE
+    });
+  }
+  return updates;
+}
@@ -1,6 +1,10 @@
 import { Injectable } from '@angular/core';
 import { Subject, Observable } from 'rxjs';
 import { CandleUpdate } from '../models/config.model';
+import { CANDLE_SUBPROTOCOL, SubscribedReply, decodeCandleFrame } from './candle-frame';
+
+// Open candle updates per second, so the forming bar moves without polling
+const UPDATE_RATE = 4;
 
 @Injectable({
   providedIn: 'root'
@@ -9,6 +13,7 @@ export class StreamService {
   private socket: WebSocket | null = null;
   private messageSubject = new Subject<CandleUpdate[]>();
   private connectionSubject = new Subject<boolean>();
+  private instrumentIds = new Map<number, string>();
 
   get messages$(): Observable<CandleUpdate[]> {
     return this.messageSubject.asObservable();
@@ -26,7 +31,10 @@ export class StreamService {
     const wsProtocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
     const wsUrl = `${wsProtocol}//${window.location.hostname}:8081/stream`;
 
-    this.socket = new WebSocket(wsUrl);
+    // Binary candle frames when the server offers them, JSON otherwise
+    this.socket = new WebSocket(wsUrl, [CANDLE_SUBPROTOCOL]);
+    this.socket.binaryType = 'arraybuffer';
+    this.instrumentIds.clear();
 
     this.socket.onopen = () => {
       console.log('WebSocket connected');
@@ -35,8 +43,16 @@ export class StreamService {
 
     this.socket.onmessage = (event) => {
       try {
-        const data = JSON.parse(event.data) as CandleUpdate[];
-        this.messageSubject.next(data);
+        if (event.data instanceof ArrayBuffer) {
+          this.messageSubject.next(decodeCandleFrame(event.data, this.instrumentIds));
+          return;
+        }
+        const data = JSON.parse(event.data) as CandleUpdate[] | SubscribedReply;
+        if (Array.isArray(data)) {
+          this.messageSubject.next(data);
+        } else if (data.type === 'SUBSCRIBED') {
+          this.instrumentIds.set(data.id, data.instrument);
+        }
       } catch (e) {
         console.error('Failed to parse WebSocket message:', e);
       }
@@ -60,12 +76,14 @@ export class StreamService {
     }
   }
 
-  subscribe(instrument: string, timeframeMs: number): void {
+  subscribe(instrument: string, timeframeMs: number, snapshot = 0): void {
     if (this.socket && this.socket.readyState === WebSocket.OPEN) {
       const message = {
         type: 'SUBSCRIBE',
         instrument: instrument,
-        timeframe: timeframeMs
+        timeframe: timeframeMs,
+        rate: UPDATE_RATE,
+        snapshot: snapshot
       };
       this.socket.send(JSON.stringify(message));
       console.log('Subscribed to:', instrument, timeframeMs);